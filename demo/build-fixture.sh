@@ -0,0 +1,27 @@
+#!/bin/sh
+#
+# Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#         http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+# Builds the demo JAR the tests load modules from (src/test/resources/modular-demo-1.0-SNAPSHOT.jar). The demo depends
+# on this project and uses the processor to generate its module index, so both get installed first.
+set -e
+cd "$(dirname "$0")/.."
+
+mvn -B -q install -DskipTests
+mvn -B -q -f processor/pom.xml install -DskipTests
+mvn -B -q -f demo/pom.xml clean package
+
+echo "Built src/test/resources/modular-demo-1.0-SNAPSHOT.jar"
@@ -0,0 +1,60 @@
+#!/bin/sh
+#
+# Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#         http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+# Builds a CDS archive from the classes used to load the demo module and compares the time it takes to get there with
+# and without the archive. Requires Java 17 or newer and the demo JAR (run "build-fixture.sh" first).
+set -e
+cd "$(dirname "$0")"
+
+PLUGIN=../src/test/resources/modular-demo-1.0-SNAPSHOT.jar
+WORK=target/cds
+RUNS=${RUNS:-5}
+
+if [ ! -f "$PLUGIN" ]; then
+    echo "Could not find $PLUGIN, be sure to run \"build-fixture.sh\" first" >&2
+    exit 1
+fi
+
+rm -rf "$WORK"
+mkdir -p "$WORK/classes"
+
+# The launcher gets its own JAR, since the demo JAR must not be on the class path (it would skip the class realm)
+mvn -B -q dependency:build-classpath -Dmdep.includeScope=runtime -Dmdep.outputFile="$WORK/classpath.txt"
+DEPENDENCIES=$(cat "$WORK/classpath.txt")
+
+javac -cp "$DEPENDENCIES" -d "$WORK/classes" launcher/Launcher.java
+jar cf "$WORK/launcher.jar" -C "$WORK/classes" .
+CLASSPATH="$WORK/launcher.jar:$DEPENDENCIES"
+
+echo "Recording classes..."
+java -XX:DumpLoadedClassList="$WORK/boot.classlist" -Dmodular.classList="$WORK/modules.classlist" \
+    -cp "$CLASSPATH" Launcher "$PLUGIN" > /dev/null 2>&1
+
+echo "Dumping archive (JAR files involved: $(tr '\n' ' ' < "$WORK/modules.classlist.jars"))"
+cat "$WORK/boot.classlist" "$WORK/modules.classlist" > "$WORK/demo.classlist"
+java -Xshare:dump -XX:SharedClassListFile="$WORK/demo.classlist" -XX:SharedArchiveFile="$WORK/demo.jsa" \
+    -cp "$CLASSPATH" > "$WORK/dump.log" 2>&1
+
+echo "Without the archive:"
+for i in $(seq "$RUNS"); do
+    java -cp "$CLASSPATH" Launcher "$PLUGIN" 2> /dev/null
+done
+
+echo "With the archive:"
+for i in $(seq "$RUNS"); do
+    java -XX:SharedArchiveFile="$WORK/demo.jsa" -cp "$CLASSPATH" Launcher "$PLUGIN" 2> /dev/null
+done
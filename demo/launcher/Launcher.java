@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.ModuleManager;
+import net.mountainblade.modular.impl.DefaultModuleManager;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+
+/**
+ * Represents a small application that loads the modules of the given JAR file and reports how long it took the JVM to
+ * get there. Used by the <code>launch.sh</code> script to show the gain of a CDS archive. The JAR file must not be on
+ * the class path, otherwise its classes would not be loaded through the manager's class realm.
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+public final class Launcher {
+
+    private Launcher() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final File jar = new File(args[0]);
+
+        final ModuleManager manager = new DefaultModuleManager();
+        final Collection<Module> modules = manager.loadModules(jar);
+
+        System.out.println("Loaded " + modules.size() + " module(s), ready after "
+                + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+        manager.shutdown();
+    }
+
+}
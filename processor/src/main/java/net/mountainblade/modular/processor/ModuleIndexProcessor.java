@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.processor;
+
+import net.mountainblade.modular.annotations.Implementation;
+import net.mountainblade.modular.annotations.Inject;
+import net.mountainblade.modular.annotations.Requires;
+import net.mountainblade.modular.impl.ModuleIndex;
+import net.mountainblade.modular.impl.ModuleWiring;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Represents an annotation processor that writes the {@link ModuleIndex module index} into the class output, so the
+ * module managers can skip scanning the whole JAR file / classpath folder at runtime.
+ *
+ * <p>The index lists every type that has been annotated with {@link Implementation} or {@link Requires}, or that has
+ * fields or constructors annotated with {@link Inject}.</p>
+ *
+ * <p>If the <code>modular.wiring</code> option is set to a fully qualified class name (e.g. by passing
+ * <code>-Amodular.wiring=com.example.Wiring</code> to the compiler), a {@link ModuleWiring} with that name gets
+ * generated as well, which loads all modules of the compilation without any scanning or sorting at runtime.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+public class ModuleIndexProcessor extends AbstractProcessor {
+    /** The option naming the wiring class to generate */
+    public static final String WIRING_OPTION = "modular.wiring";
+
+    private final Set<String> classNames = new TreeSet<>();
+    private Set<String> wired;
+
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+
+        // Keep the entries of an earlier (incremental) compilation, as long as the types still exist
+        try {
+            final FileObject resource = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "",
+                    ModuleIndex.LOCATION);
+
+            try (InputStream stream = resource.openInputStream()) {
+                for (String className : ModuleIndex.read(stream)) {
+                    if (processingEnv.getElementUtils().getTypeElement(className.replace('$', '.')) != null) {
+                        classNames.add(className);
+                    }
+                }
+            }
+
+        } catch (IOException | IllegalArgumentException ignore) {
+            // There simply is no index yet
+        }
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        final Set<String> types = new LinkedHashSet<>();
+        Collections.addAll(types, Implementation.class.getName(), Requires.class.getName(), Inject.class.getName());
+
+        return types;
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Collections.singleton(WIRING_OPTION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                // Injected fields and constructors (and their parameters) belong to their enclosing type
+                while (element != null && !(element instanceof TypeElement)) {
+                    element = element.getEnclosingElement();
+                }
+
+                if (element != null) {
+                    classNames.add(processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString());
+                }
+            }
+        }
+
+        writeWiring();
+
+        // Do not claim the annotations, other processors might want to see them as well
+        return false;
+    }
+
+    private void writeWiring() {
+        final String wiring = processingEnv.getOptions().get(WIRING_OPTION);
+        if (wiring == null || wiring.isEmpty() || classNames.isEmpty()) {
+            return;
+        }
+
+        // Sources can only be generated once, so modules that got generated by other processors will be missing
+        if (wired != null) {
+            if (!wired.containsAll(classNames)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Module wiring has already been " +
+                        "generated, the modules of later processing rounds will not be part of it");
+                wired.addAll(classNames);
+            }
+
+            return;
+        }
+
+        wired = new TreeSet<>(classNames);
+
+        try {
+            new WiringGenerator(processingEnv, wiring).generate(classNames);
+
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write module wiring: " + e);
+        }
+    }
+
+    private void writeIndex() {
+        if (classNames.isEmpty()) {
+            return;
+        }
+
+        try {
+            final FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    ModuleIndex.LOCATION);
+
+            try (Writer writer = new OutputStreamWriter(resource.openOutputStream(), ModuleIndex.CHARSET)) {
+                writer.write(ModuleIndex.COMMENT + " Generated by " + getClass().getName() + '\n');
+
+                for (String className : classNames) {
+                    writer.write(className);
+                    writer.write('\n');
+                }
+            }
+
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write module index: " + e);
+        }
+    }
+
+}
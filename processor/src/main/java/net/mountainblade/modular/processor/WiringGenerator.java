@@ -0,0 +1,605 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.processor;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.ModuleInformation;
+import net.mountainblade.modular.ModuleManager;
+import net.mountainblade.modular.annotations.Implementation;
+import net.mountainblade.modular.annotations.Initialize;
+import net.mountainblade.modular.annotations.Inject;
+import net.mountainblade.modular.annotations.Requires;
+import net.mountainblade.modular.impl.ModuleIndex;
+import net.mountainblade.modular.impl.ModuleWiring;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Represents the generator of a {@link ModuleWiring}: a class that creates, injects and initializes all modules of a
+ * compilation in an order that has been sorted at build time.
+ *
+ * <p>Constructors, injected fields and initialize methods get called directly as long as they can be reached from the
+ * package of the wiring. Everything else (private members, final fields, classes from other packages that are not
+ * public) is left to the reflective fallbacks of the {@link ModuleWiring.Context context}, lazy modules get loaded the
+ * usual way.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class WiringGenerator {
+    private static final String MODULE = Module.class.getCanonicalName();
+    private static final String CONTEXT = ModuleWiring.Context.class.getCanonicalName();
+    private static final String INDENT = "        ";
+
+    private final ProcessingEnvironment processingEnv;
+    private final Elements elements;
+    private final Types types;
+
+    private final String className;
+    private final String packageName;
+
+    private final TypeMirror moduleType;
+    private final TypeMirror managerType;
+
+
+    /**
+     * Creates a new generator.
+     *
+     * @param processingEnv    The processing environment
+     * @param className        The fully qualified name of the wiring class to generate
+     */
+    WiringGenerator(ProcessingEnvironment processingEnv, String className) {
+        this.processingEnv = processingEnv;
+        this.elements = processingEnv.getElementUtils();
+        this.types = processingEnv.getTypeUtils();
+
+        this.className = className;
+        this.packageName = className.lastIndexOf('.') < 0 ? "" : className.substring(0, className.lastIndexOf('.'));
+
+        this.moduleType = elements.getTypeElement(MODULE).asType();
+        this.managerType = elements.getTypeElement(ModuleManager.class.getCanonicalName()).asType();
+    }
+
+    /**
+     * Generates the wiring for the given classes, along with the file that points the module managers to it.
+     *
+     * @param classNames    The binary names of the classes to look at, only implementations will be wired
+     * @throws IOException when the wiring could not be written
+     */
+    void generate(Collection<String> classNames) throws IOException {
+        final List<TypeElement> order = sort(getImplementations(classNames));
+        if (order == null) {
+            return;
+        }
+
+        final JavaFileObject source = processingEnv.getFiler().createSourceFile(className,
+                order.toArray(new Element[order.size()]));
+
+        try (PrintWriter writer = new PrintWriter(source.openWriter())) {
+            write(writer, order);
+        }
+
+        final FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                ModuleWiring.LOCATION);
+
+        try (Writer writer = new OutputStreamWriter(resource.openOutputStream(), ModuleIndex.CHARSET)) {
+            writer.write(ModuleIndex.COMMENT + " Generated by " + ModuleIndexProcessor.class.getName() + '\n');
+            writer.write(className + '\n');
+        }
+    }
+
+    private List<TypeElement> getImplementations(Collection<String> classNames) {
+        final Set<TypeElement> candidates = new LinkedHashSet<>();
+
+        for (String name : classNames) {
+            final TypeElement type = elements.getTypeElement(name.replace('$', '.'));
+
+            if (type != null && type.getKind() == ElementKind.CLASS &&
+                    !type.getModifiers().contains(Modifier.ABSTRACT) &&
+                    getAnnotation(type, Implementation.class) != null &&
+                    types.isAssignable(type.asType(), moduleType)) {
+                candidates.add(type);
+            }
+        }
+
+        // Just like at runtime, implementations that got extended by another implementation are obsolete
+        final Set<Element> superclasses = new HashSet<>();
+        for (TypeElement candidate : candidates) {
+            superclasses.add(types.asElement(candidate.getSuperclass()));
+        }
+
+        final List<TypeElement> implementations = new ArrayList<>();
+        for (TypeElement candidate : candidates) {
+            if (!superclasses.contains(candidate)) {
+                implementations.add(candidate);
+            }
+        }
+
+        return implementations;
+    }
+
+    private List<TypeElement> sort(List<TypeElement> implementations) {
+        // Dependencies can either point to the implementation itself or to the module it gets registered as
+        final Map<Element, Integer> indices = new HashMap<>();
+
+        for (int i = 0; i < implementations.size(); i++) {
+            indices.put(implementations.get(i), i);
+
+            final TypeElement module = getModule(implementations.get(i));
+            if (module != null && !indices.containsKey(module)) {
+                indices.put(module, i);
+            }
+        }
+
+        final List<List<Integer>> dependents = new ArrayList<>(implementations.size());
+        final int[] pending = new int[implementations.size()];
+
+        for (int i = 0; i < implementations.size(); i++) {
+            dependents.add(new ArrayList<Integer>());
+        }
+
+        for (int i = 0; i < implementations.size(); i++) {
+            final Set<Integer> required = new HashSet<>();
+
+            for (TypeElement dependency : getDependencies(implementations.get(i))) {
+                final Integer index = indices.get(dependency);
+
+                if (index != null && index != i && required.add(index)) {
+                    dependents.get(index).add(i);
+                    pending[i]++;
+                }
+            }
+        }
+
+        // Kahn's algorithm, always taking the first ready module so the order only changes when the modules do
+        final PriorityQueue<Integer> ready = new PriorityQueue<>();
+        for (int i = 0; i < pending.length; i++) {
+            if (pending[i] == 0) {
+                ready.add(i);
+            }
+        }
+
+        final List<TypeElement> order = new ArrayList<>(implementations.size());
+
+        while (!ready.isEmpty()) {
+            final int index = ready.poll();
+            order.add(implementations.get(index));
+
+            for (int dependent : dependents.get(index)) {
+                if (--pending[dependent] == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        if (order.size() < implementations.size()) {
+            final List<TypeElement> cycle = new ArrayList<>(implementations);
+            cycle.removeAll(order);
+
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Found dependency cycle between " +
+                    "modules, will not generate module wiring: " + cycle);
+            return null;
+        }
+
+        return order;
+    }
+
+    private TypeElement getModule(TypeElement implementation) {
+        final TypeElement module = getClassValue(getAnnotation(implementation, Implementation.class), "module");
+
+        if (module != null && !module.getQualifiedName().contentEquals(
+                Implementation.Default.class.getCanonicalName())) {
+            return module;
+        }
+
+        return getModuleRecursively(implementation);
+    }
+
+    private TypeElement getModuleRecursively(TypeElement type) {
+        // Same lookup as the loader does, minus the classes that get ignored at runtime
+        for (TypeMirror anInterface : type.getInterfaces()) {
+            if (!types.isAssignable(anInterface, moduleType)) {
+                continue;
+            }
+
+            if (type.getKind() != ElementKind.INTERFACE && types.isSameType(anInterface, moduleType)) {
+                return type;
+            }
+
+            return (TypeElement) types.asElement(anInterface);
+        }
+
+        final TypeMirror superclass = type.getSuperclass();
+        return superclass.getKind() == TypeKind.DECLARED ?
+                getModuleRecursively((TypeElement) types.asElement(superclass)) : null;
+    }
+
+    private Collection<TypeElement> getDependencies(TypeElement implementation) {
+        final Collection<TypeElement> dependencies = new ArrayList<>();
+
+        for (VariableElement field : getInjectedFields(implementation)) {
+            final TypeElement from = getClassValue(getAnnotation(field, Inject.class), "from");
+
+            if (from != null && !from.getQualifiedName().contentEquals(Inject.Current.class.getCanonicalName())) {
+                dependencies.add(from);
+
+            } else if (isModule(field.asType())) {
+                dependencies.add((TypeElement) types.asElement(field.asType()));
+            }
+        }
+
+        final ExecutableElement constructor = getInjectableConstructor(implementation);
+        if (constructor != null) {
+            for (VariableElement parameter : constructor.getParameters()) {
+                if (isModule(parameter.asType())) {
+                    dependencies.add((TypeElement) types.asElement(parameter.asType()));
+                }
+            }
+        }
+
+        addRequirements(implementation, dependencies);
+        return dependencies;
+    }
+
+    private void addRequirements(TypeElement type, Collection<TypeElement> dependencies) {
+        final AnnotationValue value = getValue(getAnnotation(type, Requires.class), "value");
+
+        if (value != null) {
+            for (Object entry : (List<?>) value.getValue()) {
+                dependencies.add((TypeElement) types.asElement((TypeMirror) ((AnnotationValue) entry).getValue()));
+            }
+        }
+
+        for (TypeMirror anInterface : type.getInterfaces()) {
+            if (!types.isSameType(anInterface, moduleType)) {
+                addRequirements((TypeElement) types.asElement(anInterface), dependencies);
+            }
+        }
+
+        if (type.getSuperclass().getKind() == TypeKind.DECLARED) {
+            addRequirements((TypeElement) types.asElement(type.getSuperclass()), dependencies);
+        }
+    }
+
+    private void write(PrintWriter writer, List<TypeElement> order) {
+        final String simpleName = className.substring(className.lastIndexOf('.') + 1);
+
+        if (!packageName.isEmpty()) {
+            writer.println("package " + packageName + ";");
+            writer.println();
+        }
+
+        writer.println("/**");
+        writer.println(" * Creates, injects and initializes the modules of this compilation, in order.");
+        writer.println(" *");
+        writer.println(" * <p>Generated by " + ModuleIndexProcessor.class.getName() + ", do not edit.</p>");
+        writer.println(" */");
+        writer.println("public final class " + simpleName + " implements " +
+                ModuleWiring.class.getCanonicalName() + " {");
+        writer.println();
+        writer.println("    @Override");
+        writer.println("    @SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+        writer.println("    public void wire(" + CONTEXT + " context) throws Exception {");
+
+        for (int i = 0; i < order.size(); i++) {
+            if (i > 0) {
+                writer.println();
+            }
+
+            writeModule(writer, order.get(i), "module" + i);
+        }
+
+        writer.println("    }");
+        writer.println();
+        writer.println("}");
+    }
+
+    private void writeModule(PrintWriter writer, TypeElement implementation, String variable) {
+        final boolean accessible = isAccessible(implementation);
+        final String type = accessible ? implementation.getQualifiedName() + ".class" :
+                "context.type(\"" + elements.getBinaryName(implementation) + "\")";
+
+        writer.println(INDENT + "// " + elements.getBinaryName(implementation));
+
+        // Lazy modules need a proxy, the loader knows best how to do that
+        final TypeElement module = getModule(implementation);
+        final AnnotationValue lazy = getValue(getAnnotation(implementation, Implementation.class), "lazy");
+
+        if (lazy != null && Boolean.TRUE.equals(lazy.getValue()) && module != null &&
+                module.getKind() == ElementKind.INTERFACE) {
+            writer.println(INDENT + "if (!context.load(" + type + ")) {");
+            writer.println(INDENT + "    return;");
+            writer.println(INDENT + "}");
+            return;
+        }
+
+        writer.println(INDENT + "if (context.begin(" + type + ")) {");
+
+        // Classes we cannot reach are only known as modules
+        final String name = accessible ? implementation.getQualifiedName().toString() : MODULE;
+        final String creation = accessible ? getCreation(implementation) : null;
+
+        writer.println(INDENT + "    final " + name + " " + variable + " = " +
+                (creation != null ? creation : "(" + name + ") context.create()") + ";");
+
+        final List<String> injections = accessible ? getInjections(implementation, variable) : null;
+        if (injections != null) {
+            for (String injection : injections) {
+                writer.println(INDENT + "    " + injection);
+            }
+
+        } else {
+            writer.println(INDENT + "    context.inject(" + variable + ");");
+        }
+
+        String result = "context.initialize(" + variable + ")";
+
+        if (accessible) {
+            final ExecutableElement initializer = getInitializer(implementation);
+            final String call = initializer != null ? getInitializerCall(initializer, variable) : "null";
+
+            if (call != null && initializer != null && initializer.getReturnType().getKind() == TypeKind.VOID) {
+                writer.println(INDENT + "    " + call + ";");
+                result = "null";
+
+            } else if (call != null) {
+                result = call;
+            }
+        }
+
+        writer.println(INDENT + "    if (!context.finish(" + variable + ", " + result + ")) {");
+        writer.println(INDENT + "        return;");
+        writer.println(INDENT + "    }");
+        writer.println(INDENT + "}");
+    }
+
+    private String getCreation(TypeElement implementation) {
+        if (implementation.getNestingKind() != NestingKind.TOP_LEVEL &&
+                !implementation.getModifiers().contains(Modifier.STATIC)) {
+            return null;
+        }
+
+        ExecutableElement constructor = getInjectableConstructor(implementation);
+        if (constructor == null) {
+            for (ExecutableElement candidate : ElementFilter.constructorsIn(implementation.getEnclosedElements())) {
+                if (candidate.getParameters().isEmpty()) {
+                    constructor = candidate;
+                }
+            }
+        }
+
+        if (constructor == null || !isAccessible(constructor)) {
+            return null;
+        }
+
+        final StringBuilder builder = new StringBuilder("new ").append(implementation.getQualifiedName()).append('(');
+
+        for (VariableElement parameter : constructor.getParameters()) {
+            final String argument = getArgument(parameter, parameter.asType());
+            if (argument == null) {
+                return null;
+            }
+
+            builder.append(builder.charAt(builder.length() - 1) == '(' ? "" : ", ").append(argument);
+        }
+
+        return builder.append(')').toString();
+    }
+
+    private List<String> getInjections(TypeElement implementation, String variable) {
+        final List<String> injections = new ArrayList<>();
+        final Set<String> names = new HashSet<>();
+
+        for (VariableElement field : getInjectedFields(implementation)) {
+            // Final fields can only be set using reflection, hidden ones cannot be told apart by their name
+            if (!isAccessible(field) || field.getModifiers().contains(Modifier.FINAL) ||
+                    !names.add(field.getSimpleName().toString())) {
+                return null;
+            }
+
+            final String argument = getArgument(field, field.asType());
+            if (argument == null) {
+                return null;
+            }
+
+            injections.add(variable + "." + field.getSimpleName() + " = " + argument + ";");
+        }
+
+        return injections;
+    }
+
+    private String getArgument(Element element, TypeMirror type) {
+        final AnnotationMirror inject = getAnnotation(element, Inject.class);
+        final AnnotationValue optional = getValue(inject, "optional");
+
+        if (isType(type, java.util.logging.Logger.class)) {
+            return "context.getLogger()";
+        }
+
+        if (isType(type, ModuleInformation.class)) {
+            final TypeElement from = getClassValue(inject, "from");
+
+            if (from == null || from.getQualifiedName().contentEquals(Inject.Current.class.getCanonicalName())) {
+                return "context.getInformation(null)";
+            }
+
+            return isAccessible(from) ? "context.getInformation(" + from.getQualifiedName() + ".class)" : null;
+        }
+
+        if (!isModule(type) || !isAccessible((TypeElement) types.asElement(type))) {
+            return null;
+        }
+
+        return "context.get(" + ((TypeElement) types.asElement(type)).getQualifiedName() + ".class, " +
+                (optional != null && Boolean.TRUE.equals(optional.getValue())) + ")";
+    }
+
+    private ExecutableElement getInitializer(TypeElement implementation) {
+        // The methods of the class itself come first, then the public ones it inherited
+        for (ExecutableElement method : ElementFilter.methodsIn(implementation.getEnclosedElements())) {
+            if (getAnnotation(method, Initialize.class) != null) {
+                return method;
+            }
+        }
+
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(implementation))) {
+            if (method.getModifiers().contains(Modifier.PUBLIC) && getAnnotation(method, Initialize.class) != null) {
+                return method;
+            }
+        }
+
+        return null;
+    }
+
+    private String getInitializerCall(ExecutableElement method, String variable) {
+        if (!isAccessible(method) || method.getParameters().size() > 1) {
+            return null;
+        }
+
+        if (method.getParameters().isEmpty()) {
+            return variable + "." + method.getSimpleName() + "()";
+        }
+
+        return types.isAssignable(managerType, method.getParameters().get(0).asType()) ?
+                variable + "." + method.getSimpleName() + "(context.getManager())" : null;
+    }
+
+    private List<VariableElement> getInjectedFields(TypeElement implementation) {
+        final List<VariableElement> fields = new ArrayList<>();
+
+        for (TypeElement type = implementation; type != null; type = type.getSuperclass().getKind() ==
+                TypeKind.DECLARED ? (TypeElement) types.asElement(type.getSuperclass()) : null) {
+            for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                if (!field.getModifiers().contains(Modifier.STATIC) && getAnnotation(field, Inject.class) != null) {
+                    fields.add(field);
+                }
+            }
+        }
+
+        return fields;
+    }
+
+    private ExecutableElement getInjectableConstructor(TypeElement implementation) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(implementation.getEnclosedElements())) {
+            if (getAnnotation(constructor, Inject.class) != null) {
+                return constructor;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean isAccessible(TypeElement type) {
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL && type.getNestingKind() != NestingKind.MEMBER) {
+            return false;
+        }
+
+        for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            if (!isAccessible(element)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isAccessible(Element element) {
+        final Set<Modifier> modifiers = element.getModifiers();
+
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+        }
+
+        return modifiers.contains(Modifier.PUBLIC) ||
+                elements.getPackageOf(element).getQualifiedName().contentEquals(packageName);
+    }
+
+    private boolean isModule(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED && types.isAssignable(types.erasure(type), moduleType) &&
+                !types.isSameType(types.erasure(type), moduleType);
+    }
+
+    private boolean isType(TypeMirror type, Class<?> aClass) {
+        return type.getKind() == TypeKind.DECLARED &&
+                ((TypeElement) types.asElement(type)).getQualifiedName().contentEquals(aClass.getCanonicalName());
+    }
+
+    private static AnnotationMirror getAnnotation(Element element, Class<?> annotation) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(
+                    annotation.getCanonicalName())) {
+                return mirror;
+            }
+        }
+
+        return null;
+    }
+
+    private static AnnotationValue getValue(AnnotationMirror annotation, String name) {
+        if (annotation == null) {
+            return null;
+        }
+
+        // Only explicitly set values, the defaults are what we assume anyway
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+                annotation.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    private TypeElement getClassValue(AnnotationMirror annotation, String name) {
+        final AnnotationValue value = getValue(annotation, name);
+        return value != null && value.getValue() instanceof DeclaredType ?
+                (TypeElement) types.asElement((DeclaredType) value.getValue()) : null;
+    }
+
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.processor;
+
+import net.mountainblade.modular.impl.ModuleIndex;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class ModuleIndexProcessorTest {
+    private static final String ANNOTATIONS = "net.mountainblade.modular.annotations.";
+    private static final String MODULE = "net.mountainblade.modular.Module";
+
+
+    @Test
+    public void testIndex() throws Exception {
+        final File folder = Files.createTempDirectory("modular-index").toFile();
+        final File classes = new File(folder, "classes");
+
+        final Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("indexed.Impl", "package indexed; @" + ANNOTATIONS + "Implementation public class Impl " +
+                "implements " + MODULE + " {}");
+        sources.put("indexed.Needy", "package indexed; @" + ANNOTATIONS + "Requires(Impl.class) public class Needy " +
+                "implements " + MODULE + " {}");
+        sources.put("indexed.Holder", "package indexed; public class Holder implements " + MODULE + " { " +
+                "@" + ANNOTATIONS + "Inject private Impl impl; }");
+        sources.put("indexed.Outer", "package indexed; public class Outer { @" + ANNOTATIONS + "Implementation " +
+                "public static class Inner implements " + MODULE + " {} }");
+        sources.put("indexed.Plain", "package indexed; public class Plain {}");
+
+        try {
+            compile(folder, classes, sources);
+
+            // Every annotated type is in there (by its binary name), plain classes are not
+            Assert.assertEquals(Arrays.asList("indexed.Holder", "indexed.Impl", "indexed.Needy",
+                    "indexed.Outer$Inner"), readIndex(classes));
+
+            // Compiling a module again keeps the entries of types that still exist, but forgets the ones that are gone
+            Assert.assertTrue(new File(classes, "indexed/Holder.class").delete());
+            compile(folder, classes, Collections.singletonMap("indexed.Impl", sources.get("indexed.Impl")));
+
+            Assert.assertEquals(Arrays.asList("indexed.Impl", "indexed.Needy", "indexed.Outer$Inner"),
+                    readIndex(classes));
+
+        } finally {
+            delete(folder);
+        }
+    }
+
+    private static List<String> readIndex(File classes) throws IOException {
+        final File index = new File(classes, ModuleIndex.LOCATION);
+        Assert.assertTrue("No module index has been written", index.isFile());
+
+        try (InputStream stream = Files.newInputStream(index.toPath())) {
+            final Collection<String> classNames = ModuleIndex.read(stream);
+            return new ArrayList<>(classNames);
+        }
+    }
+
+    private static void compile(File folder, File classes, Map<String, String> sources) throws IOException {
+        final File sourceFolder = new File(folder, "sources");
+        final List<File> files = new ArrayList<>();
+
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            final File file = new File(sourceFolder, entry.getKey().replace('.', '/') + ".java");
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+
+            files.add(file);
+        }
+
+        Files.createDirectories(classes.toPath());
+
+        final List<String> options = Arrays.asList("-d", classes.getPath(), "-cp",
+                System.getProperty("java.class.path") + File.pathSeparator + classes.getPath(),
+                "-processor", ModuleIndexProcessor.class.getName());
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            Assert.assertTrue("Could not compile the modules", compiler.getTask(null, fileManager, null, options,
+                    null, fileManager.getJavaFileObjectsFromFiles(files)).call());
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
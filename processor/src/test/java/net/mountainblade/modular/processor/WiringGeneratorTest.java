@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.processor;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.impl.DefaultModuleManager;
+import net.mountainblade.modular.impl.ModuleWiring;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class WiringGeneratorTest {
+    private static final String IMPLEMENTATION = "@net.mountainblade.modular.annotations.Implementation ";
+    private static final String INJECT = "@net.mountainblade.modular.annotations.Inject ";
+    private static final String INITIALIZE = "@net.mountainblade.modular.annotations.Initialize ";
+
+
+    @Test
+    public void testWiring() throws Exception {
+        final File folder = Files.createTempDirectory("modular-wiring").toFile();
+        final File classes = new File(folder, "classes");
+        final File generated = new File(folder, "generated");
+
+        // Listed in reverse, so the dependencies are what puts them in order
+        final Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("wired.Hidden", "package wired; " + IMPLEMENTATION + "public class Hidden implements " +
+                "net.mountainblade.modular.Module { " + INJECT + "private Direct direct; " + INITIALIZE +
+                "private void init() { Calls.ORDER.add(\"hidden:\" + (direct != null)); } }");
+        sources.put("wired.Direct", "package wired; " + IMPLEMENTATION + "public class Direct implements " +
+                "net.mountainblade.modular.Module { " + INJECT + "Service service; " + INITIALIZE +
+                "void init(net.mountainblade.modular.ModuleManager manager) { " +
+                "Calls.ORDER.add(\"direct:\" + (service != null) + \":\" + (manager != null)); } }");
+        sources.put("wired.ServiceImpl", "package wired; " + IMPLEMENTATION + "public class ServiceImpl " +
+                "implements Service { " + INITIALIZE + "public void init() { Calls.ORDER.add(\"service\"); } }");
+        sources.put("wired.Service", "package wired; public interface Service extends " +
+                "net.mountainblade.modular.Module {}");
+        sources.put("wired.Calls", "package wired; public final class Calls { " +
+                "public static final java.util.List<String> ORDER = new java.util.ArrayList<String>(); }");
+
+        try {
+            compile(folder, classes, generated, sources);
+
+            final File wiring = new File(generated, "wired/Wiring.java");
+            Assert.assertTrue("No wiring has been generated", wiring.isFile());
+            Assert.assertTrue(new File(classes, "wired/Wiring.class").isFile());
+            Assert.assertTrue(new File(classes, ModuleWiring.LOCATION).isFile());
+
+            final String source = new String(Files.readAllBytes(wiring.toPath()), StandardCharsets.UTF_8);
+
+            // Dependencies come first
+            final int service = source.indexOf("// wired.ServiceImpl");
+            final int direct = source.indexOf("// wired.Direct");
+            final int hidden = source.indexOf("// wired.Hidden");
+            Assert.assertTrue(service >= 0 && service < direct && direct < hidden);
+
+            // Members we can reach get used directly ...
+            Assert.assertTrue(source.contains("new wired.Direct()"));
+            Assert.assertTrue(source.contains("module1.service = context.get(wired.Service.class, false);"));
+            Assert.assertTrue(source.contains("module1.init(context.getManager());"));
+            Assert.assertTrue(source.contains("context.finish(module1, null)"));
+
+            // ... while private ones are left to the context
+            Assert.assertTrue(source.contains("context.inject(module2);"));
+            Assert.assertTrue(source.contains("context.finish(module2, context.initialize(module2))"));
+
+            // And the wiring does the same thing the loader would do
+            final DefaultModuleManager manager = new DefaultModuleManager();
+
+            try {
+                final Collection<Module> modules = manager.loadWiring(classes.toURI());
+                Assert.assertEquals(3, modules.size());
+
+                final Class<?> calls = Class.forName("wired.Calls", true, manager.getLoader().getRealm());
+                Assert.assertEquals(Arrays.asList("service", "direct:true:true", "hidden:true"),
+                        calls.getField("ORDER").get(null));
+
+            } finally {
+                manager.shutdown();
+            }
+
+        } finally {
+            delete(folder);
+        }
+    }
+
+    private static void compile(File folder, File classes, File generated, Map<String, String> sources)
+            throws IOException {
+        final File sourceFolder = new File(folder, "sources");
+        final List<File> files = new ArrayList<>();
+
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            final File file = new File(sourceFolder, entry.getKey().replace('.', '/') + ".java");
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+
+            files.add(file);
+        }
+
+        Files.createDirectories(classes.toPath());
+        Files.createDirectories(generated.toPath());
+
+        final List<String> options = Arrays.asList("-d", classes.getPath(), "-s", generated.getPath(),
+                "-cp", System.getProperty("java.class.path"), "-processor", ModuleIndexProcessor.class.getName(),
+                "-A" + ModuleIndexProcessor.WIRING_OPTION + "=wired.Wiring");
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            Assert.assertTrue("Could not compile the modules", compiler.getTask(null, fileManager, null, options,
+                    null, fileManager.getJavaFileObjectsFromFiles(files)).call());
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
@@ -51,6 +51,22 @@ public interface Filter {
             return candidate.getImplementation().isAnnotationPresent(annotation);
         }
 
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o != null && getClass() == o.getClass() &&
+                    annotation.equals(((AnnotationPresent) o).annotation);
+        }
+
+        @Override
+        public int hashCode() {
+            return annotation.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "AnnotationPresent(" + annotation.getName() + ")";
+        }
+
     }
 
     class InstanceOf implements Filter {
@@ -66,6 +82,22 @@ public interface Filter {
             return assignableClass.isAssignableFrom(candidate.getImplementation());
         }
 
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o != null && getClass() == o.getClass() &&
+                    assignableClass.equals(((InstanceOf) o).assignableClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return assignableClass.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "InstanceOf(" + assignableClass.getName() + ")";
+        }
+
     }
 
 }
@@ -55,6 +55,15 @@ public @interface Implementation {
     /** The module version or build ID */
     String version() default "unknown";
 
+    /**
+     * Whether the module should only be created once it is actually needed. Until then a proxy gets registered in its
+     * place, and the module gets created, injected and initialized as soon as the first method is called on it (or it
+     * is looked up by its implementation class). Its state stays unknown until then.
+     *
+     * <p>This only works for modules that are interfaces, other modules will be loaded right away.</p>
+     */
+    boolean lazy() default false;
+
     /**
      * Default implementation representing that an implementation should use its default implementation (current class).
      *
@@ -31,6 +31,10 @@ import java.lang.annotation.Target;
  *     }
  * </pre></p>
  *
+ * <p>If the method returns a {@link java.util.concurrent.CompletionStage}, the module only becomes ready once that
+ * stage has completed (and fails to load if it completes exceptionally). Modules depending on it will not be
+ * initialized before that, which allows for non-blocking warm-ups.</p>
+ *
  * @author spaceemotion
  * @version 1.0
  */
@@ -36,10 +36,15 @@ import java.lang.annotation.Target;
  *     information or the information of the specified one.</li>
  * </ul></p>
  *
+ * <p>Dependencies can also be passed to a constructor marked with this annotation, so they can be kept in
+ * <code>final</code> fields. Its parameters may be modules, a {@link java.util.logging.Logger Logger} or the module's
+ * own {@link net.mountainblade.modular.ModuleInformation ModuleInformation}, and they can be marked as optional
+ * individually. Modules passed to the constructor are loaded before the module itself, just like injected fields.</p>
+ *
  * @author spaceemotion
  * @version 1.0
  */
-@Target(ElementType.FIELD)
+@Target({ElementType.FIELD, ElementType.CONSTRUCTOR, ElementType.PARAMETER})
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Inject {
 
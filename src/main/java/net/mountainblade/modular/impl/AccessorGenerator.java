@@ -0,0 +1,624 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.ModuleManager;
+import net.mountainblade.modular.annotations.Inject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Represents a generator for {@link ModuleAccessor module accessors}.
+ *
+ * <p>For every module implementation a tiny class gets written that creates the module, writes its injected fields
+ * and calls its initialize and shutdown methods directly - so the JIT gets to see plain, monomorphic code instead of
+ * reflective calls. The class gets defined as a hidden nestmate of the implementation (using its class loader), which
+ * gives it access to private members. Everything the accessor cannot reach on its own (fields of superclasses, for
+ * example) is left to the reflective code paths.</p>
+ *
+ * <p>Hidden classes are available since Java 15. On older versions, or if anything goes wrong, no accessor gets
+ * generated and modules are handled via reflection like before.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class AccessorGenerator {
+    private static final Logger LOG = Logger.getLogger(AccessorGenerator.class.getName());
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String MODULE = internalName(Module.class);
+    private static final String ACCESSOR = internalName(ModuleAccessor.class);
+    private static final String LIFECYCLE_DESCRIPTOR = "(" + descriptor(Module.class) +
+            descriptor(ModuleManager.class) + ")" + descriptor(Object.class);
+
+    private static final Object NONE = new Object();
+
+    private static final ClassValue<Object> ACCESSORS = new ClassValue<Object>() {
+        @Override
+        protected Object computeValue(Class<?> type) {
+            try {
+                final Accessor accessor = generate(type);
+                return accessor != null ? accessor : NONE;
+
+            } catch (Throwable throwable) {
+                LOG.log(Level.FINE, "Could not generate accessor, using reflection instead: " + type.getName(),
+                        throwable);
+                return NONE;
+            }
+        }
+    };
+
+    private static volatile boolean enabled = System.getProperty("modular.generatedAccessors") != null;
+
+
+    private AccessorGenerator() {
+        // Private constructor
+    }
+
+    static void setEnabled(boolean toggle) {
+        enabled = toggle;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gets the accessor for the given module implementation, generating it if needed.
+     *
+     * @param type    The module implementation
+     * @return The accessor, or null if generated accessors are disabled or not available for the given class
+     */
+    static Accessor get(Class<?> type) {
+        if (!enabled) {
+            return null;
+        }
+
+        final Object accessor = ACCESSORS.get(type);
+        return accessor instanceof Accessor ? (Accessor) accessor : null;
+    }
+
+    private static Accessor generate(Class<?> type) throws Throwable {
+        if (type.isInterface() || Modifier.isAbstract(type.getModifiers()) || !Module.class.isAssignableFrom(type)) {
+            return null;
+        }
+
+        // We need a default constructor, otherwise there is nothing to generate
+        type.getDeclaredConstructor();
+
+        // Only take the fields we can write directly, those are the ones declared in the implementation itself
+        final List<Field> fields = new ArrayList<>();
+
+        for (Field field : type.getDeclaredFields()) {
+            final int modifiers = field.getModifiers();
+
+            if (!Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers) && !field.getType().isPrimitive() &&
+                    field.getAnnotation(Inject.class) != null && isVisible(type, field.getType())) {
+                fields.add(field);
+            }
+        }
+
+        final Method initialize = getDirectMethod(type, ModuleLoader.INITIALIZE);
+        final Method shutdown = getDirectMethod(type, BaseModuleManager.SHUTDOWN);
+
+        final byte[] bytes = new ClassWriter(type).write(fields, initialize, shutdown);
+        return new Accessor(define(type, bytes), fields.toArray(new Field[fields.size()]), initialize != null,
+                shutdown != null);
+    }
+
+    private static Method getDirectMethod(Class<?> type, Annotations.Lifecycle lifecycle) {
+        final Method method = lifecycle.getMethod(type);
+
+        // We can only call methods of the implementation itself, which return objects (or nothing at all)
+        if (method == null || method.getDeclaringClass() != type || Modifier.isStatic(method.getModifiers()) ||
+                (method.getReturnType().isPrimitive() && method.getReturnType() != void.class)) {
+            return null;
+        }
+
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        if (parameterTypes.length > 1 || (parameterTypes.length == 1 &&
+                !parameterTypes[0].isAssignableFrom(ModuleManager.class))) {
+            return null;
+        }
+
+        return method;
+    }
+
+    private static boolean isVisible(Class<?> from, Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+
+        if (type.isPrimitive()) {
+            return true;
+        }
+
+        // Classes in the same runtime package can always be seen
+        if (type.getClassLoader() == from.getClassLoader() && getPackageName(type).equals(getPackageName(from))) {
+            return true;
+        }
+
+        for (Class<?> aClass = type; aClass != null; aClass = aClass.getEnclosingClass()) {
+            if (!Modifier.isPublic(aClass.getModifiers())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String getPackageName(Class<?> type) {
+        final String name = type.getName();
+        return name.substring(0, name.lastIndexOf('.') + 1);
+    }
+
+    private static ModuleAccessor define(Class<?> type, byte[] bytes) throws Throwable {
+        // Hidden classes are only available since Java 15, so we need to look everything up reflectively
+        final Method privateLookupIn = MethodHandles.class.getMethod("privateLookupIn", Class.class,
+                MethodHandles.Lookup.class);
+        final Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+        final Object options = Array.newInstance(optionClass, 1);
+        Array.set(options, 0, optionClass.getField("NESTMATE").get(null));
+
+        final Method defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class,
+                boolean.class, options.getClass());
+
+        final MethodHandles.Lookup lookup = (MethodHandles.Lookup) privateLookupIn.invoke(null, type,
+                MethodHandles.lookup());
+        final MethodHandles.Lookup hidden = (MethodHandles.Lookup) defineHiddenClass.invoke(lookup, bytes, true,
+                options);
+
+        return (ModuleAccessor) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class))
+                .invoke();
+    }
+
+    private static String internalName(Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+
+    private static String descriptor(Class<?> type) {
+        if (type.isArray()) {
+            return internalName(type);
+        }
+
+        if (!type.isPrimitive()) {
+            return "L" + internalName(type) + ";";
+        }
+
+        return MethodType.methodType(type).toMethodDescriptorString().substring(2);
+    }
+
+
+    /**
+     * Represents a generated accessor along with the information what it is capable of.
+     */
+    static final class Accessor {
+        private final ModuleAccessor generated;
+        private final Field[] fields;
+        private final boolean initialize;
+        private final boolean shutdown;
+
+
+        private Accessor(ModuleAccessor generated, Field[] fields, boolean initialize, boolean shutdown) {
+            this.generated = generated;
+            this.fields = fields;
+            this.initialize = initialize;
+            this.shutdown = shutdown;
+        }
+
+        Module create() throws InvocationTargetException {
+            try {
+                return generated.create();
+
+            } catch (Throwable throwable) {
+                throw new InvocationTargetException(throwable);
+            }
+        }
+
+        /**
+         * Gets the index of the given field.
+         *
+         * @param field    The field
+         * @return The index, or -1 if it cannot be written by the accessor
+         */
+        int indexOf(Field field) {
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].equals(field)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        void set(Module module, int index, Object value) {
+            generated.set(module, index, value);
+        }
+
+        Object initialize(Module module, ModuleManager manager)
+                throws InvocationTargetException, IllegalAccessException {
+            if (!initialize) {
+                return ModuleLoader.INITIALIZE.call(module, manager);
+            }
+
+            try {
+                return generated.initialize(module, manager);
+
+            } catch (Throwable throwable) {
+                throw new InvocationTargetException(throwable);
+            }
+        }
+
+        Object shutdown(Module module, ModuleManager manager)
+                throws InvocationTargetException, IllegalAccessException {
+            if (!shutdown) {
+                return BaseModuleManager.SHUTDOWN.call(module, manager);
+            }
+
+            try {
+                return generated.shutdown(module, manager);
+
+            } catch (Throwable throwable) {
+                throw new InvocationTargetException(throwable);
+            }
+        }
+
+    }
+
+    /**
+     * Represents a (very) minimal class file writer, just enough for our accessors. All methods are straight code,
+     * except for the switch over the fields, whose branches all share the method's initial stack frame.
+     */
+    private static final class ClassWriter {
+        private static final int VERSION = 55;
+
+        private static final int ACC_PUBLIC = 0x0001;
+        private static final int ACC_FINAL = 0x0010;
+        private static final int ACC_SUPER = 0x0020;
+
+        private static final int UTF8 = 1;
+        private static final int CLASS = 7;
+        private static final int FIELD_REF = 9;
+        private static final int METHOD_REF = 10;
+        private static final int NAME_AND_TYPE = 12;
+
+        private static final int ACONST_NULL = 0x01;
+        private static final int ILOAD_2 = 0x1c;
+        private static final int ALOAD_0 = 0x2a;
+        private static final int ALOAD_1 = 0x2b;
+        private static final int ALOAD_2 = 0x2c;
+        private static final int ALOAD_3 = 0x2d;
+        private static final int DUP = 0x59;
+        private static final int TABLESWITCH = 0xaa;
+        private static final int ARETURN = 0xb0;
+        private static final int RETURN = 0xb1;
+        private static final int PUTFIELD = 0xb5;
+        private static final int INVOKEVIRTUAL = 0xb6;
+        private static final int INVOKESPECIAL = 0xb7;
+        private static final int NEW = 0xbb;
+        private static final int CHECKCAST = 0xc0;
+
+        private static final int SAME_FRAME_EXTENDED = 251;
+
+        private final String type;
+
+        private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+        private final DataOutputStream pool = new DataOutputStream(poolBytes);
+        private final Map<String, Integer> constants = new HashMap<>();
+        private int constantCount = 1;
+
+        private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+        private final DataOutputStream methods = new DataOutputStream(methodBytes);
+        private int methodCount;
+
+
+        private ClassWriter(Class<?> type) {
+            this.type = internalName(type);
+        }
+
+        private byte[] write(List<Field> fields, Method initialize, Method shutdown) throws IOException {
+            writeConstructor();
+            writeCreate();
+            writeSet(fields);
+            writeLifecycle("initialize", initialize);
+            writeLifecycle("shutdown", shutdown);
+
+            final int thisClass = classRef(type + "$$Accessor");
+            final int superClass = classRef(OBJECT);
+            final int accessor = classRef(ACCESSOR);
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+
+            out.writeShort(constantCount);
+            poolBytes.writeTo(out);
+
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(accessor);
+
+            out.writeShort(0);
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+
+            out.writeShort(0);
+            out.flush();
+
+            return bytes.toByteArray();
+        }
+
+        private void writeConstructor() throws IOException {
+            final Code code = new Code();
+            code.op(ALOAD_0);
+            code.op(INVOKESPECIAL, methodRef(OBJECT, "<init>", "()V"));
+            code.op(RETURN);
+
+            writeMethod("<init>", "()V", 1, 1, code, null);
+        }
+
+        private void writeCreate() throws IOException {
+            final Code code = new Code();
+            code.op(NEW, classRef(type));
+            code.op(DUP);
+            code.op(INVOKESPECIAL, methodRef(type, "<init>", "()V"));
+            code.op(ARETURN);
+
+            writeMethod("create", "()" + descriptor(Module.class), 2, 1, code, null);
+        }
+
+        private void writeSet(List<Field> fields) throws IOException {
+            final String descriptor = "(" + descriptor(Module.class) + "I" + descriptor(Object.class) + ")V";
+            final Code code = new Code();
+
+            if (fields.isEmpty()) {
+                code.op(RETURN);
+                writeMethod("set", descriptor, 0, 4, code, null);
+                return;
+            }
+
+            // Every case takes exactly the same number of bytes, so we can calculate the jump offsets up front
+            final int caseSize = 12;
+            final int switchStart = 1;
+            final int padding = (4 - (switchStart + 1) % 4) % 4;
+            final int switchEnd = switchStart + 1 + padding + 12 + 4 * fields.size();
+
+            code.op(ILOAD_2);
+            code.op(TABLESWITCH);
+
+            for (int i = 0; i < padding; i++) {
+                code.out.writeByte(0);
+            }
+
+            code.out.writeInt(switchEnd + caseSize * fields.size() - switchStart);
+            code.out.writeInt(0);
+            code.out.writeInt(fields.size() - 1);
+
+            for (int i = 0; i < fields.size(); i++) {
+                code.out.writeInt(switchEnd + caseSize * i - switchStart);
+            }
+
+            for (Field field : fields) {
+                code.op(ALOAD_1);
+                code.op(CHECKCAST, classRef(type));
+                code.op(ALOAD_3);
+                code.op(CHECKCAST, classRef(internalName(field.getType())));
+                code.op(PUTFIELD, memberRef(FIELD_REF, type, field.getName(), descriptor(field.getType())));
+                code.op(RETURN);
+            }
+
+            code.op(RETURN);
+
+            // All branch targets (the cases and the default) have the same frame as the start of the method
+            final ByteArrayOutputStream frameBytes = new ByteArrayOutputStream();
+            final DataOutputStream frames = new DataOutputStream(frameBytes);
+            frames.writeShort(fields.size() + 1);
+
+            for (int i = 0, previous = -1; i <= fields.size(); i++) {
+                final int target = switchEnd + caseSize * i;
+                final int delta = target - previous - 1;
+
+                if (delta < 64) {
+                    frames.writeByte(delta);
+
+                } else {
+                    frames.writeByte(SAME_FRAME_EXTENDED);
+                    frames.writeShort(delta);
+                }
+
+                previous = target;
+            }
+
+            writeMethod("set", descriptor, 2, 4, code, frameBytes.toByteArray());
+        }
+
+        private void writeLifecycle(String name, Method method) throws IOException {
+            final Code code = new Code();
+
+            if (method == null) {
+                code.op(ACONST_NULL);
+                code.op(ARETURN);
+                writeMethod(name, LIFECYCLE_DESCRIPTOR, 1, 3, code, null);
+                return;
+            }
+
+            final StringBuilder descriptor = new StringBuilder("(");
+            code.op(ALOAD_1);
+            code.op(CHECKCAST, classRef(type));
+
+            for (Class<?> parameterType : method.getParameterTypes()) {
+                code.op(ALOAD_2);
+                code.op(CHECKCAST, classRef(internalName(parameterType)));
+                descriptor.append(descriptor(parameterType));
+            }
+
+            descriptor.append(')').append(descriptor(method.getReturnType()));
+            code.op(INVOKEVIRTUAL, memberRef(METHOD_REF, type, method.getName(), descriptor.toString()));
+
+            if (method.getReturnType() == void.class) {
+                code.op(ACONST_NULL);
+            }
+
+            code.op(ARETURN);
+            writeMethod(name, LIFECYCLE_DESCRIPTOR, 2, 3, code, null);
+        }
+
+        private void writeMethod(String name, String descriptor, int maxStack, int maxLocals, Code code,
+                                 byte[] stackMap) throws IOException {
+            final byte[] bytes = code.bytes.toByteArray();
+            final int codeName = utf8("Code");
+            final int stackMapName = stackMap != null ? utf8("StackMapTable") : 0;
+
+            methods.writeShort(ACC_PUBLIC);
+            methods.writeShort(utf8(name));
+            methods.writeShort(utf8(descriptor));
+            methods.writeShort(1);
+
+            methods.writeShort(codeName);
+            methods.writeInt(12 + bytes.length + (stackMap != null ? 6 + stackMap.length : 0));
+            methods.writeShort(maxStack);
+            methods.writeShort(maxLocals);
+            methods.writeInt(bytes.length);
+            methods.write(bytes);
+            methods.writeShort(0);
+
+            if (stackMap != null) {
+                methods.writeShort(1);
+                methods.writeShort(stackMapName);
+                methods.writeInt(stackMap.length);
+                methods.write(stackMap);
+
+            } else {
+                methods.writeShort(0);
+            }
+
+            methodCount++;
+        }
+
+        private int utf8(String value) throws IOException {
+            final String key = UTF8 + ":" + value;
+            Integer index = constants.get(key);
+
+            if (index == null) {
+                pool.writeByte(UTF8);
+                pool.writeUTF(value);
+                index = add(key);
+            }
+
+            return index;
+        }
+
+        private int classRef(String name) throws IOException {
+            final String key = CLASS + ":" + name;
+            Integer index = constants.get(key);
+
+            if (index == null) {
+                final int nameIndex = utf8(name);
+
+                pool.writeByte(CLASS);
+                pool.writeShort(nameIndex);
+                index = add(key);
+            }
+
+            return index;
+        }
+
+        private int methodRef(String owner, String name, String descriptor) throws IOException {
+            return memberRef(METHOD_REF, owner, name, descriptor);
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) throws IOException {
+            final String key = tag + ":" + owner + "." + name + ":" + descriptor;
+            Integer index = constants.get(key);
+
+            if (index == null) {
+                final int ownerIndex = classRef(owner);
+                final int nameAndType = nameAndType(name, descriptor);
+
+                pool.writeByte(tag);
+                pool.writeShort(ownerIndex);
+                pool.writeShort(nameAndType);
+                index = add(key);
+            }
+
+            return index;
+        }
+
+        private int nameAndType(String name, String descriptor) throws IOException {
+            final String key = NAME_AND_TYPE + ":" + name + ":" + descriptor;
+            Integer index = constants.get(key);
+
+            if (index == null) {
+                final int nameIndex = utf8(name);
+                final int descriptorIndex = utf8(descriptor);
+
+                pool.writeByte(NAME_AND_TYPE);
+                pool.writeShort(nameIndex);
+                pool.writeShort(descriptorIndex);
+                index = add(key);
+            }
+
+            return index;
+        }
+
+        private int add(String key) {
+            constants.put(key, constantCount);
+            return constantCount++;
+        }
+
+    }
+
+    /**
+     * Represents the byte code of a single method.
+     */
+    private static final class Code {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+
+        private void op(int opcode) throws IOException {
+            out.writeByte(opcode);
+        }
+
+        private void op(int opcode, int index) throws IOException {
+            out.writeByte(opcode);
+            out.writeShort(index);
+        }
+
+    }
+
+}
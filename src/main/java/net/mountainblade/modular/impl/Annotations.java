@@ -16,10 +16,17 @@
 package net.mountainblade.modular.impl;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Represents a helper for Annotations.
@@ -36,6 +43,8 @@ public final class Annotations {
      */
     private static final Object NOTHING = new Object();
 
+    private static final ConcurrentMap<List<Object>, Lifecycle> LIFECYCLES = new ConcurrentHashMap<>();
+
 
     private Annotations() {
         // Private constructor
@@ -52,37 +61,63 @@ public final class Annotations {
      * @return An object that the method might return
      * @throws InvocationTargetException The invocation target exception
      * @throws IllegalAccessException The illegal access exception
+     * @see #lifecycle(Class, int, Class[])
      */
     public static Object call(Object object, Class<? extends Annotation> annotation, int required, Class<?>[] argTypes,
                                                      Object... args)
             throws InvocationTargetException, IllegalAccessException {
+        final List<Object> key = Arrays.asList(annotation, required, Arrays.asList(argTypes));
+        Lifecycle lifecycle = LIFECYCLES.get(key);
+
+        if (lifecycle == null) {
+            final Lifecycle created = lifecycle(annotation, required, argTypes);
+            lifecycle = LIFECYCLES.putIfAbsent(key, created);
+            lifecycle = lifecycle == null ? created : lifecycle;
+        }
+
+        return lifecycle.call(object, args);
+    }
+
+    /**
+     * Creates a lifecycle for methods with a specific annotation and parameters. The matching method gets looked up
+     * only once per class, so calling it over and over again is cheap.
+     *
+     * @param annotation The annotation class
+     * @param required   The number of required parameters (at least)
+     * @param argTypes   The parameter types
+     * @return The lifecycle
+     */
+    public static Lifecycle lifecycle(Class<? extends Annotation> annotation, int required, Class<?>... argTypes) {
+        return new Lifecycle(annotation, required, argTypes.clone());
+    }
 
-        List<Method> declaredMethods = Arrays.asList(object.getClass().getDeclaredMethods());
+    private static Object findMethod(Class<?> aClass, Class<? extends Annotation> annotation, int required,
+                                     Class<?>[] argTypes) throws IllegalAccessException {
+        List<Method> declaredMethods = Arrays.asList(aClass.getDeclaredMethods());
         for (Method method : declaredMethods) {
-            Object returnValue = callMethod(object, annotation, required, argTypes, method, args);
+            Object binding = bindMethod(annotation, required, argTypes, method);
 
-            if (!NOTHING.equals(returnValue)) {
-                return returnValue;
+            if (!NOTHING.equals(binding)) {
+                return binding;
             }
         }
 
-        for (Method method : object.getClass().getMethods()) {
+        for (Method method : aClass.getMethods()) {
             if (declaredMethods.contains(method)) {
                 continue;
             }
 
-            Object returnValue = callMethod(object, annotation, required, argTypes, method, args);
-            if (!NOTHING.equals(returnValue)) {
-                return returnValue;
+            Object binding = bindMethod(annotation, required, argTypes, method);
+            if (!NOTHING.equals(binding)) {
+                return binding;
             }
         }
 
         return null;
     }
 
-    private static Object callMethod(Object object, Class<? extends Annotation> annotation, int required,
-                                                          Class<?>[] argTypes, Method method, Object[] args)
-            throws IllegalAccessException, InvocationTargetException {
+    private static Object bindMethod(Class<? extends Annotation> annotation, int required, Class<?>[] argTypes,
+                                     Method method) throws IllegalAccessException {
         // Check if we got the correct annotation
         if (method.getAnnotation(annotation) == null) {
             return NOTHING;
@@ -99,14 +134,21 @@ public final class Annotations {
 
         do {
             if (isApplicable(Arrays.copyOf(methodParameterTypes, counter), argTypes)) {
-                // Make accessible and invoke the method
+                // Make accessible and turn it into a handle of the form (Object, Object[]) -> Object
                 method.setAccessible(true);
 
-                if (counter > 0) {
-                    return method.invoke(object, Arrays.copyOf(args, counter));
+                MethodHandle handle = MethodHandles.lookup().unreflect(method);
+
+                // Static methods do not take the instance, but we pass it anyway
+                if (Modifier.isStatic(method.getModifiers())) {
+                    handle = MethodHandles.dropArguments(handle, 0, Object.class);
                 }
 
-                return method.invoke(object);
+                handle = handle.asType(MethodType.genericMethodType(counter + 1));
+                handle = MethodHandles.dropArguments(handle, counter + 1,
+                        Collections.<Class<?>>nCopies(argTypes.length - counter, Object.class));
+
+                return new Binding(method, handle.asSpreader(Object[].class, argTypes.length));
             }
 
         } while ((counter--) >= required);
@@ -126,4 +168,97 @@ public final class Annotations {
         return true;
     }
 
+
+    /**
+     * Represents a call of the methods with a specific annotation and parameters.
+     *
+     * <p>The method to call gets looked up once per class, and is then bound to a {@link MethodHandle} taking exactly
+     * as many parameters as the method accepts. Classes without such a method simply return null.</p>
+     */
+    public static final class Lifecycle {
+        private final Class<? extends Annotation> annotation;
+        private final int required;
+        private final Class<?>[] argTypes;
+        private final ClassValue<Object> handles;
+
+
+        private Lifecycle(Class<? extends Annotation> annotation, int required, Class<?>[] argTypes) {
+            this.annotation = annotation;
+            this.required = required;
+            this.argTypes = argTypes;
+
+            this.handles = new ClassValue<Object>() {
+                @Override
+                protected Object computeValue(Class<?> type) {
+                    try {
+                        final Object binding = findMethod(type, Lifecycle.this.annotation, Lifecycle.this.required,
+                                Lifecycle.this.argTypes);
+
+                        return binding != null ? binding : NOTHING;
+
+                    } catch (IllegalAccessException e) {
+                        // Remember the error, so we can report it on every call just like reflection would
+                        return e;
+                    }
+                }
+            };
+        }
+
+        /**
+         * Calls the method with the lifecycle's annotation on the given object.
+         *
+         * @param object    The object
+         * @param args      The parameter objects, one for each parameter type
+         * @return An object that the method might return
+         * @throws InvocationTargetException The invocation target exception
+         * @throws IllegalAccessException The illegal access exception
+         */
+        public Object call(Object object, Object... args) throws InvocationTargetException, IllegalAccessException {
+            final Object binding = handles.get(object.getClass());
+
+            if (binding == NOTHING) {
+                return null;
+            }
+
+            if (binding instanceof IllegalAccessException) {
+                throw (IllegalAccessException) binding;
+            }
+
+            try {
+                return (Object) ((Binding) binding).handle.invokeExact(object,
+                        args.length == argTypes.length ? args : Arrays.copyOf(args, argTypes.length));
+
+            } catch (Throwable throwable) {
+                throw new InvocationTargetException(throwable);
+            }
+        }
+
+        /**
+         * Gets the method that gets called for the given class.
+         *
+         * @param type    The class
+         * @return The method, or null if there is none (or it cannot be accessed)
+         */
+        public Method getMethod(Class<?> type) {
+            final Object binding = handles.get(type);
+            return binding instanceof Binding ? ((Binding) binding).method : null;
+        }
+
+    }
+
+    /**
+     * Represents a method that has been bound to a handle.
+     */
+    private static final class Binding {
+        private final Method method;
+        private final MethodHandle handle;
+
+
+        private Binding(Method method, MethodHandle handle) {
+            this.method = method;
+            this.handle = handle;
+        }
+
+    }
+
 }
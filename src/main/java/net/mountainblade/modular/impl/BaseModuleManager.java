@@ -16,7 +16,9 @@
 package net.mountainblade.modular.impl;
 
 import com.google.common.base.Optional;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.THashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import gnu.trove.set.hash.THashSet;
 import net.mountainblade.modular.Filter;
 import net.mountainblade.modular.Module;
@@ -27,16 +29,19 @@ import net.mountainblade.modular.annotations.Shutdown;
 import org.codehaus.plexus.classworlds.ClassWorld;
 import org.codehaus.plexus.classworlds.realm.ClassRealm;
 import org.codehaus.plexus.classworlds.realm.DuplicateRealmException;
+import org.codehaus.plexus.classworlds.realm.NoSuchRealmException;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -44,9 +49,19 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -58,26 +73,64 @@ import java.util.zip.ZipInputStream;
 public class BaseModuleManager implements ModuleManager {
     private static final Logger LOG = Logger.getLogger(DefaultModuleManager.class.getName());
 
+    static final Annotations.Lifecycle SHUTDOWN =
+            Annotations.lifecycle(Shutdown.class, 0, ModuleManager.class);
     private static final ClassWorld CLASS_WORLD = new ClassWorld();
     private static final String JAVA_HOME = new File(System.getProperty("java.home")).getParent();
-    private static final List<URI> LOCAL_CLASSPATH = new LinkedList<>();
-    private static final Map<URI, Collection<String>> JAR_CACHE = new THashMap<>();
-    private static final Collection<String> BLACKLIST = new THashSet<>();
-    private static final Collection<URI> URI_BLACKLIST = new THashSet<>();
-    private static boolean thoroughSearchEnabled;
+    private static final ConcurrentMap<URI, ClassNameIndex> JAR_CACHE = new ConcurrentHashMap<>();
+    private static final Collection<String> BLACKLIST =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private static final Collection<URI> URI_BLACKLIST =
+            Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>());
+    private static volatile List<URI> localClasspath = Collections.emptyList();
+    private static volatile boolean thoroughSearchEnabled;
+    private static ScanCache scanCache;
+    private static ClassProfile classProfile;
+    private static LoadPlanCache loadPlans;
+    private static ClassRecorder classRecorder;
+    private static boolean classListHookAdded;
 
     static {
         Collections.addAll(BLACKLIST, ".git", ".idea");
         enableThoroughSearch(System.getProperty("modular.thoroughSearch") != null);
+
+        final String scanCacheFile = System.getProperty("modular.scanCache");
+        if (scanCacheFile != null) {
+            enableScanCache(new File(scanCacheFile));
+        }
+
+        final String classProfileFile = System.getProperty("modular.classProfile");
+        if (classProfileFile != null) {
+            enableClassProfiles(new File(classProfileFile));
+        }
+
+        final String loadPlansFile = System.getProperty("modular.loadPlans");
+        if (loadPlansFile != null) {
+            enableLoadPlans(new File(loadPlansFile));
+        }
+
+        final String classListFile = System.getProperty("modular.classList");
+        if (classListFile != null) {
+            enableClassList(new File(classListFile));
+        }
     }
 
     private final Collection<Destroyable> destroyables;
     private final Collection<URI> classpath;
+    private final TObjectIntHashMap<URI> reloads;
 
     private final ModuleRegistry registry;
     private final Injector injector;
     private final ModuleLoader loader;
 
+    private final Object loadLock;
+
+    private volatile ExecutorService discoveryExecutor;
+    private volatile ExecutorService loadExecutor;
+    private volatile ExecutorService shutdownExecutor;
+    private ExecutorService virtualThreads;
+    private DirectoryWatcher watcher;
+
 
     public BaseModuleManager(ModuleRegistry registry, ClassRealm parentRealm, ClassLoader classLoader) {
         this(registry, newRealm(parentRealm, classLoader));
@@ -85,7 +138,9 @@ public class BaseModuleManager implements ModuleManager {
 
     public BaseModuleManager(ModuleRegistry registry, ClassRealm realm) {
         this.destroyables = new LinkedList<>();
-        this.classpath = new THashSet<>(LOCAL_CLASSPATH);
+        this.loadLock = new Object();
+        this.classpath = new THashSet<>(localClasspath);
+        this.reloads = new TObjectIntHashMap<>();
 
         this.registry = registry;
         this.injector = new Injector(registry);
@@ -95,6 +150,16 @@ public class BaseModuleManager implements ModuleManager {
         destroyables.add(injector);
         destroyables.add(loader);
 
+        final ClassRecorder recorder = getClassRecorder();
+        if (recorder != null) {
+            recorder.install(loader);
+        }
+
+        final ClassProfile profile = getClassProfile();
+        if (profile != null) {
+            profile.install(loader);
+        }
+
         // Also register ourselves so other modules can use this as implementation via injection
         getRegistry().addGhostModule(ModuleManager.class, this, new MavenModuleInformation());
     }
@@ -115,6 +180,91 @@ public class BaseModuleManager implements ModuleManager {
         return loader;
     }
 
+    /**
+     * Sets the executor used to scan JAR files as well as to load classes and extract their module meta data in
+     * parallel. Without one (the default) everything happens on the calling thread. Either way the results are merged
+     * in the order the URIs and classes have been found in.
+     *
+     * @param executor    The executor to use, or null to discover sequentially
+     */
+    public void setDiscoveryExecutor(ExecutorService executor) {
+        this.discoveryExecutor = executor;
+        loader.setExecutor(executor);
+    }
+
+    /**
+     * Sets the executor used to load modules in parallel. Every module gets loaded as soon as all of its dependencies
+     * are ready, so independent modules do not have to wait on each other. If a module fails to load, only the modules
+     * depending on it are cancelled. Without an executor (the default) modules get loaded one after another on the
+     * calling thread and the first failure cancels the whole loading procedure. The same happens when modules get
+     * loaded from within the initialize method of another module, so a bounded executor cannot run out of threads.
+     *
+     * @param executor    The executor to use, or null to load sequentially
+     */
+    public void setLoadExecutor(ExecutorService executor) {
+        this.loadExecutor = executor;
+    }
+
+    /**
+     * Sets the executor used to shut down modules in parallel. A module only gets shut down after all modules that
+     * depend on it have been shut down. Without an executor (the default) modules get shut down one after another on
+     * the calling thread, in the order they have been loaded in.
+     *
+     * @param executor    The executor to use, or null to shut down sequentially
+     */
+    public void setShutdownExecutor(ExecutorService executor) {
+        this.shutdownExecutor = executor;
+    }
+
+    /**
+     * Runs the lifecycle of every module (its creation, injection and initialization as well as its shut down) on its
+     * own virtual thread, with the dependencies between modules acting as joins. This suits modules that block on I/O
+     * during startup, since any number of them can wait at the same time without the need for a sized thread pool.
+     *
+     * <p>Virtual threads require Java 21 or newer, older versions fall back to a cached pool of platform threads. The
+     * executor is owned by this manager and gets closed once the manager shuts down.</p>
+     */
+    public synchronized void enableVirtualThreads() {
+        if (virtualThreads == null) {
+            virtualThreads = ModuleScheduler.newVirtualThreadExecutor();
+        }
+
+        setLoadExecutor(virtualThreads);
+        setShutdownExecutor(virtualThreads);
+    }
+
+    /**
+     * Enables the watch mode. All directories that get loaded via {@link #loadModules(URI, String, Filter...)} (and
+     * thus {@link #loadModules(File, Filter...)} as well) from now on will be watched for new or changed JAR files,
+     * which then get loaded in the background. Only those files will be scanned, the rest stays untouched.
+     *
+     * <p>Please note that classes which have already been loaded cannot be replaced, so changed JAR files can only
+     * contribute new modules. Replacing modules requires a new manager.</p>
+     *
+     * @param debounce    The time the directories need to be quiet before changes get loaded
+     * @param unit        The unit of the debounce time
+     */
+    public synchronized void enableWatchMode(long debounce, TimeUnit unit) {
+        disableWatchMode();
+
+        try {
+            watcher = new DirectoryWatcher(this, BLACKLIST, unit.toMillis(debounce));
+
+        } catch (IOException e) {
+            throw new RuntimeException("Could not start watching directories", e);
+        }
+    }
+
+    /**
+     * Disables the watch mode, already loaded modules stay loaded.
+     */
+    public synchronized void disableWatchMode() {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
 
     // -------------------------------- Providing new modules --------------------------------
 
@@ -146,14 +296,12 @@ public class BaseModuleManager implements ModuleManager {
         final ModuleRegistry.Entry moduleEntry = registry.createEntry(entry.getModule(), information);
 
         // Inject dependencies if specified
-        if (inject) {
-            loader.injectAndInitialize(this, module, information, moduleEntry, loader);
-        }
-
-        // Register module
-        loader.registerEntry(entry, module, information, moduleEntry);
+        final CompletionStage<?> initialization = inject ?
+                loader.injectAndInitialize(this, module, information, moduleEntry, loader) : null;
 
-        return module;
+        // Register module (once it's done initializing, so anything that depends on it can rely on that)
+        return ModuleLoader.await(loader.register(entry, module, information, moduleEntry, initialization)) != null ?
+                module : null;
     }
 
 
@@ -162,7 +310,10 @@ public class BaseModuleManager implements ModuleManager {
     @Override
     @SuppressWarnings("unchecked")
     public <M extends Module> M loadModule(Class<M> moduleClass, Filter... filters) {
-        return (M) loader.loadModule(this, loader.getClassEntry(moduleClass));
+        final M module = (M) loader.loadModule(this, loader.getClassEntry(moduleClass));
+        saveClassProfile();
+
+        return module;
     }
 
     @Override
@@ -194,17 +345,243 @@ public class BaseModuleManager implements ModuleManager {
     }
 
     public Collection<Module> loadModules(URI uri, String root, Filter... filters) {
-        return loadModules(Collections.singletonList(uri), root, filters);
+        final Collection<Module> modules = loadModules(Collections.singletonList(uri), root, filters);
+        watch(uri, root, filters);
+
+        return modules;
     }
 
     public Collection<Module> loadModules(Collection<URI> uris, String root, Filter... filters) {
+        final Map<ModuleLoader.ClassEntry, Collection<ModuleLoader.ClassEntry>> requirements = new THashMap<>();
+        final List<ModuleLoader.ClassEntry> order;
+
+        // Watched directories get loaded in the background, so make sure only one of us is discovering at a time
+        synchronized (loadLock) {
+            final LoadPlanCache plans = getLoadPlans();
+            final LoadPlanCache.Plan plan = plans != null ? plans.get(uris, root, filters) : null;
+            List<ModuleLoader.ClassEntry> planned = plan != null ? restore(plan, requirements) : null;
+
+            if (planned == null) {
+                final Map<URI, Collection<String>> locations = new THashMap<>();
+                planned = discover(uris, root, requirements, locations, filters);
+
+                if (plans != null) {
+                    plans.put(uris, root, filters, locations.keySet(), planned, requirements);
+                    plans.save();
+                }
+            }
+
+            order = planned;
+        }
+
+        // 5. Load all, sorted modules using our loader (the registry takes care of itself)
+        final ClassProfile profile = getClassProfile();
+        final ClassProfile.Preload preload = profile != null ? profile.preload(order) : null;
+
+        try {
+            return loadSorted(order, requirements);
+
+        } finally {
+            if (preload != null) {
+                preload.cancel();
+            }
+
+            saveClassProfile();
+        }
+    }
+
+    private Collection<Module> loadSorted(List<ModuleLoader.ClassEntry> order,
+            Map<ModuleLoader.ClassEntry, Collection<ModuleLoader.ClassEntry>> requirements) {
+        // Modules loading other modules while being initialized would otherwise wait for a thread of their own
+        final ExecutorService executor = loadExecutor;
+        if (executor != null && !ModuleScheduler.isRunning()) {
+            return new ModuleScheduler(executor).load(this, loader, order, requirements);
+        }
+
+        final Collection<Module> modules = new LinkedList<>();
+
+        for (ModuleLoader.ClassEntry candidate : order) {
+            final Module module = loader.loadModule(this, candidate);
+
+            if (module == null) {
+                LOG.warning("Could not load modules properly, cancelling loading procedure");
+                break;
+            }
+
+            modules.add(module);
+        }
+
+        return modules;
+    }
+
+    /**
+     * Loads the modules using the wiring that has been generated for the given JAR file or classpath folder (see
+     * {@link ModuleWiring}). If there is none, the modules will be loaded using
+     * {@link #loadModules(URI, Filter...) the usual way}.
+     *
+     * @param uri    The JAR file or classpath folder
+     * @return The loaded modules
+     */
+    public Collection<Module> loadWiring(URI uri) {
+        final Collection<String> classNames = getWirings(uri);
+        if (classNames.isEmpty()) {
+            LOG.fine("Found no module wiring, loading modules the usual way: " + uri);
+            return loadModules(uri);
+        }
+
+        addUriToRealm(uri);
+        final Collection<Module> modules = new LinkedList<>();
+
+        for (String className : classNames) {
+            try {
+                final Class<?> wiring = Class.forName(className, true, loader.getRealm());
+                modules.addAll(loadWiring(wiring.asSubclass(ModuleWiring.class).getDeclaredConstructor()
+                        .newInstance()));
+
+            } catch (ClassNotFoundException | ClassCastException | NoSuchMethodException | InstantiationException |
+                    IllegalAccessException | InvocationTargetException e) {
+                LOG.log(Level.WARNING, "Could not create module wiring: " + className, e);
+            }
+        }
+
+        return modules;
+    }
+
+    /**
+     * Loads the modules using the given wiring. Modules will be created, injected and initialized in the order the
+     * wiring has been generated with, without any scanning or sorting. Filters do not apply.
+     *
+     * @param wiring    The wiring
+     * @return The loaded modules
+     */
+    public Collection<Module> loadWiring(ModuleWiring wiring) {
+        final WiringContext context = new WiringContext(this);
+
+        // The wiring checks and creates registry entries itself, so it must not run alongside other loads
+        synchronized (loadLock) {
+            try {
+                wiring.wire(context);
+
+            } catch (Exception | Error e) {
+                // Errors (like classes the wiring cannot find) must not leave a module behind as loading either
+                LOG.log(Level.WARNING, "Could not wire modules properly, cancelling loading procedure", e);
+                context.rollback();
+            }
+        }
+
+        saveClassProfile();
+
+        return context.getModules();
+    }
+
+    private Collection<String> getWirings(URI uri) {
+        try {
+            if (!isJar(uri)) {
+                final File file = new File(new File(uri), ModuleWiring.LOCATION);
+
+                if (file.isFile()) {
+                    try (InputStream stream = new FileInputStream(file)) {
+                        return ModuleIndex.read(stream);
+                    }
+                }
+
+                return Collections.emptyList();
+            }
+
+            final ZipDirectory directory = ZipDirectory.read(getJarFile(uri));
+            final int index = directory.indexOf(ModuleWiring.LOCATION);
+
+            if (index >= 0) {
+                try (InputStream stream = directory.open(index)) {
+                    return ModuleIndex.read(stream);
+                }
+            }
+
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not read module wiring: " + uri, e);
+        }
+
+        return Collections.emptyList();
+    }
+
+    /**
+     * Loads the given, changed JAR files again. Gets called by the directory watcher.
+     *
+     * @param uris       The JAR files
+     * @param root       The package root
+     * @param filters    The filters to use
+     */
+    void reload(Collection<URI> uris, String root, Filter[] filters) {
+        final ScanCache cache = getScanCache();
+
+        for (URI uri : uris) {
+            JAR_CACHE.remove(uri);
+            URI_BLACKLIST.remove(uri);
+
+            // The scan cache would miss changes that keep both the size and the modification time
+            if (cache != null) {
+                cache.invalidate(uri);
+            }
+
+            // Neither would the class headers we have read before
+            synchronized (loadLock) {
+                loader.invalidate(uri);
+            }
+
+            if (classpath.contains(uri)) {
+                addReloadedUriToRealm(uri);
+            }
+        }
+
+        final Collection<Module> modules = loadModules(uris, root, filters);
+        LOG.fine("Loaded " + modules.size() + " module(s) from changed files: " + uris);
+    }
+
+    private synchronized void watch(URI uri, String root, Filter[] filters) {
+        // We can only watch local directories
+        if (watcher == null || !"file".equalsIgnoreCase(uri.getScheme()) || isJar(uri) ||
+                !new File(uri).isDirectory()) {
+            return;
+        }
+
+        try {
+            watcher.watch(new File(uri).toPath(), root, filters);
+
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not watch directory: " + uri, e);
+        }
+    }
+
+    private List<ModuleLoader.ClassEntry> restore(LoadPlanCache.Plan plan,
+                                                  Map<ModuleLoader.ClassEntry, Collection<ModuleLoader.ClassEntry>>
+                                                          requirements) {
+        // The classes are nowhere to be found without their locations
+        for (URI location : plan.getLocations()) {
+            addUriToRealm(location);
+        }
+
+        final List<ModuleLoader.ClassEntry> order = plan.restore(loader, requirements);
+        if (order == null) {
+            LOG.fine("Could not restore load plan, discovering modules again");
+            requirements.clear();
+        }
+
+        return order;
+    }
+
+    private List<ModuleLoader.ClassEntry> discover(Collection<URI> uris, String root, Map<ModuleLoader.ClassEntry,
+            Collection<ModuleLoader.ClassEntry>> requirements, Map<URI, Collection<String>> map, Filter... filters) {
         final LinkedList<URI> copy = new LinkedList<>(uris);
 
         // 1. Find modules using the URI
-        final THashMap<URI, Collection<String>> map = new THashMap<>();
-        final Collection<String> list = new LinkedList<>();
+        final Collection<String> list = new THashSet<>();
         final Collection<ModuleLoader.ClassEntry> entries = loader.filter(this, getClasses(copy, root, map, list), list);
 
+        final ScanCache cache = getScanCache();
+        if (cache != null) {
+            cache.save();
+        }
+
         // 2. Filter the results
         Iterator<ModuleLoader.ClassEntry> iterator;
 
@@ -220,58 +597,34 @@ public class BaseModuleManager implements ModuleManager {
             }
         }
 
-        // 3. Create a topological list of dependencies
-        Map<ModuleLoader.ClassEntry, TopologicalSortedList.Node<ModuleLoader.ClassEntry>> nodes = new THashMap<>();
-        final TopologicalSortedList<ModuleLoader.ClassEntry> sortedCandidates = new TopologicalSortedList<>();
+        // 3. Create a graph of all dependencies
+        final DependencyGraph<ModuleLoader.ClassEntry> graph = new DependencyGraph<>(entries.size());
 
         for (ModuleLoader.ClassEntry classEntry : entries) {
-            TopologicalSortedList.Node<ModuleLoader.ClassEntry> node = nodes.get(classEntry);
-
-            if (node == null) {
-                node = sortedCandidates.addNode(classEntry);
-                nodes.put(classEntry, node);
-            }
+            final int node = graph.add(classEntry);
 
             for (Injector.Entry dependencyEntry : classEntry.getDependencies()) {
-                addDependency(classEntry, node, dependencyEntry.getModule(), nodes, sortedCandidates);
+                addDependency(classEntry, node, dependencyEntry.getModule(), graph, requirements);
             }
 
             for (Class<? extends Module> moduleClass : classEntry.getRequirements()) {
-                addDependency(classEntry, node, moduleClass, nodes, sortedCandidates);
+                addDependency(classEntry, node, moduleClass, graph, requirements);
             }
         }
 
-        // 4. Sort the list and account for errors
-        final Collection<Module> modules = new LinkedList<>();
-
+        // 4. Sort the graph and account for errors
         try {
-            sortedCandidates.sort();
+            return graph.sortElements();
 
-        } catch (TopologicalSortedList.CycleException e) {
+        } catch (DependencyGraph.CycleException e) {
             LOG.log(Level.WARNING, "Error sorting module load order, found dependency cycle", e);
-            return modules;
+            return new ArrayList<>();
         }
-
-        // 5. Load all, sorted modules using our loader
-        for (TopologicalSortedList.Node<ModuleLoader.ClassEntry> candidate : sortedCandidates) {
-            final Module module = loader.loadModule(this, candidate.getValue());
-
-            if (module == null) {
-                LOG.warning("Could not load modules properly, cancelling loading procedure");
-                break;
-            }
-
-            modules.add(module);
-        }
-
-        return modules;
     }
 
-    private void addDependency(ModuleLoader.ClassEntry classEntry,
-                               TopologicalSortedList.Node<ModuleLoader.ClassEntry> node,
-                               Class<? extends Module> dependency,
-                               Map<ModuleLoader.ClassEntry, TopologicalSortedList.Node<ModuleLoader.ClassEntry>> nodes,
-                               TopologicalSortedList<ModuleLoader.ClassEntry> sortedCandidates) {
+    private void addDependency(ModuleLoader.ClassEntry classEntry, int node, Class<? extends Module> dependency,
+                               DependencyGraph<ModuleLoader.ClassEntry> graph,
+                               Map<ModuleLoader.ClassEntry, Collection<ModuleLoader.ClassEntry>> requirements) {
         // Skip the ones we don't need
         if (dependency == null || dependency.equals(classEntry.getImplementation())) {
             return;
@@ -283,13 +636,16 @@ public class BaseModuleManager implements ModuleManager {
             return;
         }
 
-        TopologicalSortedList.Node<ModuleLoader.ClassEntry> depNode = nodes.get(depClassEntry);
-        if (depNode == null) {
-            depNode = sortedCandidates.addNode(depClassEntry);
-            nodes.put(depClassEntry, depNode);
+        graph.addEdge(graph.add(depClassEntry), node);
+
+        // Also remember the requirement itself, so the modules can be scheduled by their dependencies
+        Collection<ModuleLoader.ClassEntry> required = requirements.get(classEntry);
+        if (required == null) {
+            required = new THashSet<>();
+            requirements.put(classEntry, required);
         }
 
-        depNode.isRequiredBefore(node);
+        required.add(depClassEntry);
     }
 
     private boolean addUriToRealm(URI uri) {
@@ -305,6 +661,27 @@ public class BaseModuleManager implements ModuleManager {
         return false;
     }
 
+    private synchronized void addReloadedUriToRealm(URI uri) {
+        // The realm keeps the old version of the file open, so the new contents can only be found using another URL.
+        // Adding "./" to the path does not change the file, but makes sure the URL has not been seen before. The old
+        // URL cannot be removed and still gets searched first, so only classes new to the file come from the new one.
+        final int generation = reloads.adjustOrPutValue(uri, 1, 1);
+        final String path = uri.getRawPath();
+        final int index = path.lastIndexOf('/') + 1;
+
+        final StringBuilder builder = new StringBuilder(path.substring(0, index));
+        for (int i = 0; i < generation; i++) {
+            builder.append("./");
+        }
+
+        try {
+            getLoader().getRealm().addURL(new URL("file", "", builder.append(path.substring(index)).toString()));
+
+        } catch (MalformedURLException e) {
+            LOG.log(Level.WARNING, "Could not add changed file to the class realm: " + uri, e);
+        }
+    }
+
     private Map<URI, Collection<String>> getClasses(Collection<URI> uris, String packageName,
                                                     Map<URI, Collection<String>> classNames, Collection<String> list) {
         // Example for a JAR URI:
@@ -329,17 +706,25 @@ public class BaseModuleManager implements ModuleManager {
         //        - mountainblade
         //           - Test.class    <-- class
 
+        // Scan uncached JAR files up front if we may, the results get merged below in the order we have been given
+        final Map<URI, Future<Collection<String>>> scans = scanJars(uris);
+
         for (URI uri : uris) {
             if (URI_BLACKLIST.contains(uri)) {
                 continue;
             }
 
-            final File file;
-
-            // If the uri does not seem to be a jar file, do the directory walk
-            if (!uri.getScheme().equalsIgnoreCase("jar") && !uri.getSchemeSpecificPart().endsWith(".jar")) {
+            // If the uri does not seem to be a jar file, do the directory walk (unless the folder has been indexed)
+            if (!isJar(uri)) {
                 final File parent = new File(uri);
-                walkDirectory(parent, parent, packageName, classNames, list);
+                final File index = new File(parent, ModuleIndex.LOCATION);
+
+                if (index.isFile()) {
+                    readIndex(uri, index, packageName, classNames, list);
+                } else {
+                    walkDirectory(parent, packageName, classNames, list);
+                }
+
                 continue;
             }
 
@@ -347,126 +732,215 @@ public class BaseModuleManager implements ModuleManager {
             addUriToRealm(uri);
 
             // Check if we already have a cached version of the JAR file
-            final Collection<String> cache = JAR_CACHE.get(uri);
+            final ClassNameIndex cache = JAR_CACHE.get(uri);
 
             if (cache != null) {
-                if (packageName.isEmpty()) {
-                    classNames.put(uri, cache);
+                // Same as with a fresh scan: the whole JAR gets inspected, but only the package gets loaded. Otherwise
+                // the JAR would look like it did not contain any modules and get blacklisted.
+                list.addAll(cache.withPrefix(packageName));
+                classNames.put(uri, cache);
+                continue;
+            }
 
-                } else {
-                    final LinkedList<String> names = new LinkedList<>();
-                    for (String name : cache) {
-                        if (name.startsWith(packageName)) {
-                            names.add(name);
-                            list.add(name);
-                        }
-                    }
+            final Future<Collection<String>> scan = scans.get(uri);
+            final ClassNameIndex classes = new ClassNameIndex(scan != null ? getScanResult(uri, scan) : scanJar(uri));
+            list.addAll(classes.withPrefix(packageName));
 
-                    classNames.put(uri, names);
-                }
+            // Add processed classes to the cache, unless another manager has been faster
+            final ClassNameIndex existing = JAR_CACHE.putIfAbsent(uri, classes);
+            classNames.put(uri, existing != null ? existing : classes);
+        }
 
-                continue;
-            }
+        return classNames;
+    }
 
-            // Get the proper JAR file or folder from the URI
-            final Collection<String> classes = new LinkedList<>();
-            final String scheme = uri.getSchemeSpecificPart();
-            final int divider = scheme.indexOf("!/");
-            file = new File(divider < 0 ? scheme : scheme.substring(0, divider));
+    private Map<URI, Future<Collection<String>>> scanJars(Collection<URI> uris) {
+        final ExecutorService executor = discoveryExecutor;
+        if (executor == null) {
+            return Collections.emptyMap();
+        }
 
-            // Get appropriate class names by removing trailing .class and convert the file name to a usable class name
-            try (ZipInputStream zip = new ZipInputStream(new FileInputStream(file))) {
-                for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
-                    String name = entry.getName();
-                    if (!entry.isDirectory() && name.endsWith(".class")) {
-                        name = getProperClassName(name);
-                        classes.add(name);
-
-                        if (name.startsWith(packageName)) {
-                            list.add(name);
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                throw new RuntimeException("Could not fetch JAR file contents: " + uri, e);
+        final Map<URI, Future<Collection<String>>> scans = new THashMap<>();
+
+        for (final URI uri : uris) {
+            if (!isJar(uri) || URI_BLACKLIST.contains(uri) || JAR_CACHE.containsKey(uri) || scans.containsKey(uri)) {
+                continue;
             }
 
-            // Add processed classes to the cache
-            classNames.put(uri, classes);
-            JAR_CACHE.put(uri, classes);
+            scans.put(uri, executor.submit(new Callable<Collection<String>>() {
+                @Override
+                public Collection<String> call() throws Exception {
+                    return scanJar(uri);
+                }
+            }));
         }
 
-        return classNames;
+        return scans;
     }
 
-    private String getProperClassName(String name) {
-        return name.substring(0, name.length() - ".class".length()).replace("\\", "/").replace("/", ".");
+    private Collection<String> getScanResult(URI uri, Future<Collection<String>> scan) {
+        try {
+            return scan.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for JAR file scan: " + uri, e);
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new RuntimeException("Could not fetch JAR file contents: " + uri, e.getCause());
+        }
     }
 
-    private void walkDirectory(File root, File parent, String packageName, Map<URI, Collection<String>> names,
-                               Collection<String> list) {
-        final File[] listFiles = parent.isDirectory() ? parent.listFiles() : null;
-        if (listFiles == null) {
-            return;
+    private Collection<String> scanJar(URI uri) {
+        // Get the proper JAR file or folder from the URI
+        final Collection<String> classes = new LinkedList<>();
+        final File file = getJarFile(uri);
+
+        // Check if we scanned the file during an earlier run, otherwise read it and remember the results
+        final ScanCache scanCache = getScanCache();
+        final ScanCache.Entry persisted = scanCache != null ? scanCache.get(uri) : null;
+
+        if (persisted != null) {
+            classes.addAll(persisted.getClassNames());
+
+        } else {
+            readJar(uri, file, classes);
+
+            if (scanCache != null) {
+                scanCache.put(uri, classes);
+            }
         }
 
-        // Continue to look up valid files within the directory
-        loop: for (File file : listFiles) {
-            final String name = file.getName();
+        return classes;
+    }
 
-            for (String blacklisted : BLACKLIST) {
-                if (name.equalsIgnoreCase(blacklisted)) {
-                    continue loop;
+    private static File getJarFile(URI uri) {
+        final String scheme = uri.getSchemeSpecificPart();
+        final int divider = scheme.indexOf("!/");
+
+        return new File(divider < 0 ? scheme : scheme.substring(0, divider));
+    }
+
+    private static boolean isJar(URI uri) {
+        return uri.getScheme().equalsIgnoreCase("jar") || uri.getSchemeSpecificPart().endsWith(".jar");
+    }
+
+    private void readJar(URI uri, File file, Collection<String> classes) {
+        try {
+            // Only read the central directory, there's no need to drag all the entry data through a stream
+            final ZipDirectory directory = ZipDirectory.read(file);
+
+            // If the JAR has been indexed at compile time we can skip everything else
+            final int index = directory.indexOf(ModuleIndex.LOCATION);
+            if (index >= 0) {
+                try (InputStream stream = directory.open(index)) {
+                    classes.addAll(ModuleIndex.read(stream));
                 }
-            }
 
-            // Check if the current file is a directory, and if it is, check if its a classpath (and thus a root)
-            if (file.isDirectory()) {
-                walkDirectory(classpath.contains(parent.toURI()) ?
-                        parent.getAbsoluteFile() : root, file, packageName, names, list);
-                continue;
+                return;
             }
 
-            // Check for JAR files and do the whole thing over again
-            final URI uri = file.toURI();
-            if (name.endsWith(".jar")) {
-                getClasses(Collections.singleton(uri), packageName, names, list);
-                continue;
-            }
+            // Get appropriate class names by removing trailing .class and convert the file name to a usable class name
+            for (int i = 0; i < directory.size(); i++) {
+                final String name = directory.getName(i);
 
-            if (root == null) {
-                root = parent;
+                if (name.endsWith(".class")) {
+                    classes.add(getProperClassName(name));
+                }
             }
 
-            // If we have a root path check if we're in the right package
-            final String path = file.getAbsolutePath();
-            final String substring = path.substring(root.getAbsolutePath().length() + 1);
-            if (!substring.startsWith(packageName)) {
-                continue;
-            }
+            return;
+
+        } catch (ZipException e) {
+            LOG.log(Level.FINE, "Could not read central directory, falling back to reading all entries: " + uri, e);
+            classes.clear();
 
-            // Only add class files
-            if (name.endsWith(".class")) {
-                final URI rootUri = root.toURI();
-                Collection<String> classNames = names.get(rootUri);
-                if (classNames == null) {
-                    classNames = new LinkedList<>();
-                    names.put(rootUri, classNames);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not fetch JAR file contents: " + uri, e);
+        }
+
+        try (ZipInputStream zip = new ZipInputStream(new FileInputStream(file))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                String name = entry.getName();
+
+                // If the JAR has been indexed at compile time we can skip everything else
+                if (name.equals(ModuleIndex.LOCATION)) {
+                    classes.clear();
+                    classes.addAll(ModuleIndex.read(zip));
+                    break;
                 }
 
-                final String className = getProperClassName(substring);
+                if (!entry.isDirectory() && name.endsWith(".class")) {
+                    classes.add(getProperClassName(name));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not fetch JAR file contents: " + uri, e);
+        }
+    }
+
+    private void readIndex(URI root, File index, String packageName, Map<URI, Collection<String>> names,
+                           Collection<String> list) {
+        final Collection<String> classes;
+
+        try (FileInputStream stream = new FileInputStream(index)) {
+            classes = ModuleIndex.read(stream);
+
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read module index: " + index, e);
+        }
+
+        // Same as with the directory walk, the package name is matched against the relative path
+        final Collection<String> classNames = new LinkedList<>();
+        for (String className : classes) {
+            if (className.replace('.', File.separatorChar).startsWith(packageName)) {
                 classNames.add(className);
                 list.add(className);
+            }
+        }
+
+        names.put(root, classNames);
+        addUriToRealm(root);
+    }
+
+    private String getProperClassName(String name) {
+        return name.substring(0, name.length() - ".class".length()).replace("\\", "/").replace("/", ".");
+    }
 
-                addUriToRealm(rootUri);
+    private void walkDirectory(File directory, String packageName, Map<URI, Collection<String>> names,
+                               Collection<String> list) {
+        final DirectoryScanner.Result result = new DirectoryScanner(classpath, BLACKLIST).scan(directory, packageName);
+
+        for (Map.Entry<URI, Collection<String>> entry : result.getClasses().entrySet()) {
+            final Collection<String> classNames = names.get(entry.getKey());
+
+            if (classNames == null) {
+                names.put(entry.getKey(), entry.getValue());
+            } else {
+                classNames.addAll(entry.getValue());
             }
+
+            addUriToRealm(entry.getKey());
         }
+
+        list.addAll(result.getList());
+
+        // Check the JAR files we found and do the whole thing over again
+        getClasses(result.getJars(), packageName, names, list);
     }
 
     void blacklist(URI uri) {
         URI_BLACKLIST.add(uri);
     }
 
+    static boolean isBlacklisted(URI uri) {
+        return URI_BLACKLIST.contains(uri);
+    }
+
 
     // -------------------------------- General getters --------------------------------
 
@@ -490,40 +964,127 @@ public class BaseModuleManager implements ModuleManager {
     }
 
     protected void shutdown(Iterator<Module> iterator) {
-        while (iterator.hasNext()) {
-            final Module module = iterator.next();
+        final ExecutorService executor = shutdownExecutor;
 
-            // Get module entry
-            final ModuleRegistry.Entry entry = registry.getEntry(loader.getClassEntry(module.getClass()).getModule());
-            if (entry == null) {
-                LOG.warning("Unable to set state to shut down: Could not find entry for module: " + module);
-                continue;
+        if (executor != null && !ModuleScheduler.isRunning()) {
+            shutdownInParallel(iterator, executor);
+
+        } else {
+            while (iterator.hasNext()) {
+                // Lazy modules that have never been used do not need to be shut down
+                final Module module = LazyModule.release(iterator.next());
+
+                if (module != null) {
+                    shutdown(module);
+                }
             }
+        }
 
-            // Skip already shut down modules
-            final ModuleInformation information = entry.getInformation();
-            if (ModuleState.SHUTDOWN.equals(information.getState())) {
+        // Stop watching, we do not want to load anything anymore
+        disableWatchMode();
+
+        // And destroy what we can
+        for (Destroyable destroyable : destroyables) {
+            destroyable.destroy();
+        }
+
+        // Finally let go of our realm (if we created it), so it can be garbage collected along with all its classes
+        final ClassRealm realm = loader.getRealm();
+        if (realm.getWorld() == CLASS_WORLD) {
+            try {
+                CLASS_WORLD.disposeRealm(realm.getId());
+
+            } catch (NoSuchRealmException e) {
+                LOG.log(Level.FINE, "Class realm has already been disposed: " + realm.getId(), e);
+            }
+        }
+
+        synchronized (this) {
+            if (virtualThreads != null) {
+                virtualThreads.shutdown();
+                virtualThreads = null;
+            }
+        }
+    }
+
+    private void shutdownInParallel(Iterator<Module> iterator, ExecutorService executor) {
+        final List<Module> modules = new ArrayList<>();
+        final TObjectIntHashMap<Class<? extends Module>> indices = new TObjectIntHashMap<>(10, 0.5f, -1);
+
+        while (iterator.hasNext()) {
+            final Module module = LazyModule.release(iterator.next());
+            if (module == null) {
                 continue;
             }
 
-            // Call shutdown function
-            try {
-                LOG.fine("Shutting down " + module.getClass().getName());
-                Annotations.call(module, Shutdown.class, 0, new Class[]{ModuleManager.class}, this);
+            indices.put(loader.getClassEntry(module.getClass()).getModule(), modules.size());
+            modules.add(module);
+        }
 
-            } catch (IllegalAccessException | InvocationTargetException e) {
-                LOG.log(Level.WARNING, "Could not invoke shutdown method on module: " + module, e);
+        // Look up the modules each module depends on, so those stay up until we're done
+        final TIntArrayList[] dependencies = new TIntArrayList[modules.size()];
+
+        for (int i = 0; i < modules.size(); i++) {
+            final ModuleLoader.ClassEntry classEntry = loader.getClassEntry(modules.get(i).getClass());
+            dependencies[i] = new TIntArrayList();
+
+            for (Injector.Entry dependency : classEntry.getDependencies()) {
+                dependencies[i].add(indices.get(dependency.getModule()));
             }
 
-            // Set state to "shutdown"
-            if (information instanceof ModuleInformationImpl) {
-                ((ModuleInformationImpl) information).setState(ModuleState.SHUTDOWN);
+            for (Class<? extends Module> requirement : classEntry.getRequirements()) {
+                dependencies[i].add(indices.get(requirement));
             }
         }
 
-        // And destroy what we can
-        for (Destroyable destroyable : destroyables) {
-            destroyable.destroy();
+        new ModuleScheduler(executor).shutdown(modules, dependencies, new ModuleScheduler.Task() {
+            @Override
+            public CompletionStage<Boolean> run(int index) {
+                shutdown(modules.get(index));
+
+                // Modules we depend on need to shut down either way
+                return CompletableFuture.completedFuture(true);
+            }
+
+            @Override
+            public String describe(int index) {
+                return modules.get(index).getClass().getName();
+            }
+        });
+    }
+
+    private void shutdown(Module module) {
+        // Get module entry
+        final ModuleRegistry.Entry entry = registry.getEntry(loader.getClassEntry(module.getClass()).getModule());
+        if (entry == null) {
+            LOG.warning("Unable to set state to shut down: Could not find entry for module: " + module);
+            return;
+        }
+
+        // Skip already shut down modules
+        final ModuleInformation information = entry.getInformation();
+        if (ModuleState.SHUTDOWN.equals(information.getState())) {
+            return;
+        }
+
+        // Call shutdown function
+        try {
+            LOG.fine("Shutting down " + module.getClass().getName());
+            final AccessorGenerator.Accessor accessor = AccessorGenerator.get(module.getClass());
+            if (accessor != null) {
+                accessor.shutdown(module, this);
+
+            } else {
+                SHUTDOWN.call(module, this);
+            }
+
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            LOG.log(Level.WARNING, "Could not invoke shutdown method on module: " + module, e);
+        }
+
+        // Set state to "shutdown"
+        if (information instanceof ModuleInformationImpl) {
+            ((ModuleInformationImpl) information).setState(ModuleState.SHUTDOWN);
         }
     }
 
@@ -546,9 +1107,9 @@ public class BaseModuleManager implements ModuleManager {
         BLACKLIST.add(name);
     }
 
-    public static void enableThoroughSearch(boolean toggle) {
+    public static synchronized void enableThoroughSearch(boolean toggle) {
+        final List<URI> classpath = new LinkedList<>();
         thoroughSearchEnabled = toggle;
-        LOCAL_CLASSPATH.clear();
 
         try {
             if (toggle) {
@@ -565,20 +1126,146 @@ public class BaseModuleManager implements ModuleManager {
                         }
                     }
 
-                    LOCAL_CLASSPATH.add(url.toURI());
+                    classpath.add(url.toURI());
                 }
             } else {
                 // Only add the current folder / jar as root
                 final URL resource = ClassLoader.getSystemClassLoader().getResource(".");
                 if (resource != null) {
-                    LOCAL_CLASSPATH.add(resource.toURI());
+                    classpath.add(resource.toURI());
                 }
             }
         } catch (URISyntaxException ignore) {}
+
+        // Swap the whole list at once, so new managers never see a half-built classpath
+        localClasspath = Collections.unmodifiableList(classpath);
     }
 
     public static boolean thoroughSearchEnabled() {
         return thoroughSearchEnabled;
     }
 
+    /**
+     * Enables the persistent scan cache, which stores the results of scanning JAR files on disk so they do not need to
+     * be scanned again after a restart. This can also be done by setting the <code>modular.scanCache</code> system
+     * property to the path of the cache file.
+     *
+     * @param file    The file to store the cache in, or null to disable the cache
+     */
+    public static synchronized void enableScanCache(File file) {
+        scanCache = file != null ? new ScanCache(file) : null;
+    }
+
+    static synchronized ScanCache getScanCache() {
+        return scanCache;
+    }
+
+    /**
+     * Enables class profiles. The classes each module loads during its initialization get recorded for managers
+     * created afterwards and stored in the given file. On later starts those classes get loaded in the background while
+     * the modules before them are still being initialized. This can also be done by setting the
+     * <code>modular.classProfile</code> system property to the path of the file.
+     *
+     * @param file    The file to store the profiles in, or null to disable them
+     */
+    public static synchronized void enableClassProfiles(File file) {
+        if (classProfile != null) {
+            classProfile.save();
+        }
+
+        classProfile = file != null ? new ClassProfile(file) : null;
+    }
+
+    static synchronized ClassProfile getClassProfile() {
+        return classProfile;
+    }
+
+    /**
+     * Enables persistent load plans. The outcome of discovering, filtering and sorting modules gets stored on disk, so
+     * the next start with the same URIs, package and filters can go straight to creating the modules. Plans are
+     * checked against the JAR files and folders they have been created from and rebuilt once those change. This can
+     * also be done by setting the <code>modular.loadPlans</code> system property to the path of the file.
+     *
+     * @param file    The file to store the plans in, or null to disable them
+     */
+    public static synchronized void enableLoadPlans(File file) {
+        loadPlans = file != null ? new LoadPlanCache(file) : null;
+    }
+
+    static synchronized LoadPlanCache getLoadPlans() {
+        return loadPlans;
+    }
+
+    /**
+     * Enables the class list. Every class that gets loaded through the class realm of a manager created afterwards
+     * (while loading and initializing modules) will be recorded and written to the given file, as a class list for
+     * building a CDS archive. The JAR files involved are written to a second file with an additional
+     * <code>.jars</code> extension. This can also be done by setting the <code>modular.classList</code> system property
+     * to the path of the file.
+     *
+     * <p>The files get written when the JVM shuts down and when the class list gets disabled or moved to another file,
+     * use {@link #saveClassList()} to write them any earlier.</p>
+     *
+     * @param file    The file to write the class list to, or null to stop recording
+     */
+    public static synchronized void enableClassList(File file) {
+        if (classRecorder != null) {
+            classRecorder.save();
+        }
+
+        classRecorder = file != null ? new ClassRecorder(file) : null;
+
+        if (classRecorder != null && !classListHookAdded) {
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    saveClassList();
+                }
+            }, "modular-class-list"));
+
+            classListHookAdded = true;
+        }
+    }
+
+    static synchronized ClassRecorder getClassRecorder() {
+        return classRecorder;
+    }
+
+    private static void saveClassProfile() {
+        final ClassProfile profile = getClassProfile();
+
+        if (profile != null) {
+            profile.save();
+        }
+    }
+
+    /**
+     * Writes the class list (and the list of JAR files) recorded so far, if anything new has been recorded since it
+     * has last been written.
+     */
+    public static void saveClassList() {
+        final ClassRecorder recorder = getClassRecorder();
+
+        if (recorder != null) {
+            recorder.save();
+        }
+    }
+
+    /**
+     * Enables generated accessors. Instead of using reflection, a small class gets generated for every module
+     * implementation that creates the module, injects its fields and calls its initialize and shutdown methods
+     * directly. This pays off when lots of module instances get created. Generating the classes requires Java 15 or
+     * newer, otherwise (or if a class cannot be generated) reflection will be used. This can also be done by setting
+     * the <code>modular.generatedAccessors</code> system property.
+     *
+     * @param toggle    True to enable generated accessors, false to only use reflection
+     */
+    public static void enableGeneratedAccessors(boolean toggle) {
+        AccessorGenerator.setEnabled(toggle);
+    }
+
+    public static boolean generatedAccessorsEnabled() {
+        return AccessorGenerator.isEnabled();
+    }
+
 }
@@ -0,0 +1,609 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.THashSet;
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.annotations.Implementation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Represents a scanner that reads the headers of class files (constant pool, super types and annotations) without
+ * defining the classes, so we can tell module candidates apart before anything gets loaded into a class realm.
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class ClassFileScanner {
+    private static final Logger LOG = Logger.getLogger(ClassFileScanner.class.getName());
+
+    static final String MODULE = internalName(Module.class.getName());
+    static final String IMPLEMENTATION = 'L' + internalName(Implementation.class.getName()) + ';';
+
+    private static final String ANNOTATIONS_ATTRIBUTE = "RuntimeVisibleAnnotations";
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ANNOTATION = 0x2000;
+
+    /** Marker for classes whose header could not be read (e.g. because they could not be found) */
+    private static final ClassInfo MISSING = new ClassInfo(null, 0, null, new String[0], false, null);
+
+    private final ClassLoader loader;
+    private final Map<String, ClassInfo> infos;
+    private final Map<String, File> sources;
+    private final Map<String, Result> moduleTypes;
+
+
+    ClassFileScanner(ClassLoader loader) {
+        this.loader = loader;
+
+        this.infos = new THashMap<>();
+        this.sources = new THashMap<>();
+        this.moduleTypes = new THashMap<>();
+    }
+
+    /**
+     * Reads the class file headers for the given classes from the given location (a JAR file or classpath folder).
+     *
+     * @param location      The location the classes have been found in
+     * @param classNames    The fully qualified names of the classes to read
+     */
+    void index(URI location, Collection<String> classNames) {
+        final String scheme = location.getSchemeSpecificPart();
+
+        if (location.getScheme().equalsIgnoreCase("jar") || scheme.endsWith(".jar")) {
+            final int divider = scheme.indexOf("!/");
+            final String path = divider < 0 ? scheme : scheme.substring(0, divider);
+
+            final File file = location.getScheme().equalsIgnoreCase("jar") ? new File(URI.create(path)) :
+                    new File(location);
+
+            try (ZipFile zip = new ZipFile(file)) {
+                for (String className : classNames) {
+                    final String internalName = internalName(className);
+                    if (infos.containsKey(internalName)) {
+                        continue;
+                    }
+
+                    final ZipEntry entry = zip.getEntry(internalName + ".class");
+                    if (entry != null) {
+                        try (InputStream stream = zip.getInputStream(entry)) {
+                            store(internalName, stream, file);
+                        }
+                    }
+                }
+
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.log(Level.FINE, "Could not read class headers from JAR file: " + location, e);
+            }
+
+            return;
+        }
+
+        final File root = new File(location);
+        for (String className : classNames) {
+            final String internalName = internalName(className);
+            if (infos.containsKey(internalName)) {
+                continue;
+            }
+
+            final File file = new File(root, internalName + ".class");
+
+            try (InputStream stream = new FileInputStream(file)) {
+                store(internalName, stream, file);
+
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Could not read class header: " + className, e);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the given class could be a module implementation, meaning that it is neither an interface nor an
+     * annotation and that it derives from {@link net.mountainblade.modular.Module}. If we cannot tell for sure (e.g.
+     * because a super type could not be read), the class will be treated as a candidate.
+     *
+     * @param className    The fully qualified class name
+     * @return True if the class should be loaded to be checked, false if it definitely is no module
+     */
+    boolean isCandidate(String className) {
+        final ClassInfo info = getInfo(internalName(className));
+        if (info == MISSING) {
+            return true;
+        }
+
+        if ((info.access & (ACC_INTERFACE | ACC_ANNOTATION)) != 0) {
+            return false;
+        }
+
+        return resolve(info.name) != Result.NO;
+    }
+
+    /**
+     * Gets the parsed header of the given class.
+     *
+     * @param className    The fully qualified class name
+     * @return The class header, or null if it could not be read
+     */
+    ClassInfo getClassInfo(String className) {
+        final ClassInfo info = getInfo(internalName(className));
+        return info == MISSING ? null : info;
+    }
+
+    /**
+     * Gets the files (JAR files or class files) the given class and all of its super types have been read from.
+     *
+     * @param className    The fully qualified class name
+     * @return The files, excluding the ones of the JDK
+     */
+    Collection<File> getSources(String className) {
+        final Collection<File> files = new THashSet<>();
+        collectSources(internalName(className), files, new THashSet<String>());
+
+        return files;
+    }
+
+    private void collectSources(String internalName, Collection<File> files, Collection<String> visited) {
+        if (internalName == null || MODULE.equals(internalName) || internalName.startsWith("java/") ||
+                !visited.add(internalName)) {
+            return;
+        }
+
+        final File source = sources.get(internalName);
+        if (source != null) {
+            files.add(source);
+        }
+
+        final ClassInfo info = infos.get(internalName);
+        if (info == null || info == MISSING) {
+            return;
+        }
+
+        collectSources(info.superName, files, visited);
+
+        for (String anInterface : info.interfaces) {
+            collectSources(anInterface, files, visited);
+        }
+    }
+
+    /**
+     * Forgets everything that has been read from the given location, as well as all verdicts that might depend on it.
+     *
+     * @param location    The JAR file or classpath folder that has changed
+     */
+    void invalidate(File location) {
+        final String folder = location.getPath() + File.separator;
+        final Iterator<Map.Entry<String, File>> iterator = sources.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            final Map.Entry<String, File> entry = iterator.next();
+            final File source = entry.getValue();
+
+            if (source.equals(location) || source.getPath().startsWith(folder)) {
+                infos.remove(entry.getKey());
+                iterator.remove();
+            }
+        }
+
+        // Classes we could not find before might be part of the location now
+        infos.values().removeAll(Collections.singleton(MISSING));
+        moduleTypes.clear();
+    }
+
+    void clear() {
+        infos.clear();
+        sources.clear();
+        moduleTypes.clear();
+    }
+
+    private Result resolve(String internalName) {
+        if (internalName == null) {
+            return Result.NO;
+        }
+
+        if (MODULE.equals(internalName)) {
+            return Result.YES;
+        }
+
+        // Nothing in the java namespace can ever be one of our modules
+        if (internalName.startsWith("java/")) {
+            return Result.NO;
+        }
+
+        Result result = moduleTypes.get(internalName);
+        if (result != null) {
+            return result;
+        }
+
+        // Mark as unknown first, so broken (circular) hierarchies cannot send us into an endless loop
+        moduleTypes.put(internalName, Result.UNKNOWN);
+
+        final ClassInfo info = getInfo(internalName);
+        if (info == MISSING) {
+            return Result.UNKNOWN;
+        }
+
+        result = resolve(info.superName);
+
+        for (int i = 0; result != Result.YES && i < info.interfaces.length; i++) {
+            final Result interfaceResult = resolve(info.interfaces[i]);
+
+            if (interfaceResult != Result.NO) {
+                result = interfaceResult;
+            }
+        }
+
+        moduleTypes.put(internalName, result);
+        return result;
+    }
+
+    private ClassInfo getInfo(String internalName) {
+        ClassInfo info = infos.get(internalName);
+        if (info != null) {
+            return info;
+        }
+
+        // Not indexed yet, so look it up the same way the realm would
+        final URL resource = loader.getResource(internalName + ".class");
+
+        if (resource != null) {
+            try {
+                // Do not keep (possibly outdated) JAR files open in the global cache
+                final URLConnection connection = resource.openConnection();
+                connection.setUseCaches(false);
+
+                try (InputStream stream = connection.getInputStream()) {
+                    return store(internalName, stream, toFile(resource));
+                }
+
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Could not read class header: " + internalName, e);
+            }
+        }
+
+        infos.put(internalName, MISSING);
+        return MISSING;
+    }
+
+    private ClassInfo store(String internalName, InputStream stream, File source) throws IOException {
+        ClassInfo info;
+
+        try {
+            info = parse(readFully(stream));
+
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            LOG.log(Level.FINE, "Could not parse class file: " + internalName, e);
+            info = MISSING;
+        }
+
+        infos.put(internalName, info);
+        if (source != null) {
+            sources.put(internalName, source);
+        }
+
+        return info;
+    }
+
+    private static File toFile(URL resource) {
+        try {
+            final URI uri = resource.toURI();
+            return "file".equalsIgnoreCase(uri.getScheme()) ? new File(uri) : ScanCache.toFile(uri);
+
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static ClassInfo parse(byte[] bytes) {
+        final Reader reader = new Reader(bytes);
+        if (reader.u4() != 0xCAFEBABE) {
+            throw new IllegalArgumentException("Not a class file");
+        }
+
+        // Skip version information
+        reader.skip(4);
+
+        // Read the constant pool, but only remember where things are
+        final int count = reader.u2();
+        final int[] offsets = new int[count];
+        final String[] strings = new String[count];
+
+        for (int i = 1; i < count; i++) {
+            final int tag = reader.u1();
+            offsets[i] = reader.position;
+
+            switch (tag) {
+                case 1: // Utf8
+                    strings[i] = reader.utf8();
+                    break;
+
+                case 7: case 8: case 16: case 19: case 20: // Class, String, MethodType, Module, Package
+                    reader.skip(2);
+                    break;
+
+                case 15: // MethodHandle
+                    reader.skip(3);
+                    break;
+
+                case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: // 4 byte entries
+                    reader.skip(4);
+                    break;
+
+                case 5: case 6: // Long and double take up two slots
+                    reader.skip(8);
+                    i++;
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Unknown constant pool tag: " + tag);
+            }
+        }
+
+        final int access = reader.u2();
+        final String name = className(reader, offsets, strings, reader.u2());
+        final String superName = className(reader, offsets, strings, reader.u2());
+
+        final String[] interfaces = new String[reader.u2()];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaces[i] = className(reader, offsets, strings, reader.u2());
+        }
+
+        // Skip fields and methods, they have the same layout
+        for (int members = 0; members < 2; members++) {
+            for (int i = reader.u2(); i > 0; i--) {
+                reader.skip(6);
+                skipAttributes(reader);
+            }
+        }
+
+        // And finally look for our implementation annotation
+        boolean implementation = false;
+        String module = null;
+
+        for (int i = reader.u2(); i > 0; i--) {
+            final String attribute = strings[reader.u2()];
+            final int length = reader.u4();
+            final int end = reader.position + length;
+
+            if (ANNOTATIONS_ATTRIBUTE.equals(attribute)) {
+                for (int j = reader.u2(); j > 0; j--) {
+                    final String type = strings[reader.u2()];
+
+                    if (!IMPLEMENTATION.equals(type)) {
+                        skipAnnotationValues(reader);
+                        continue;
+                    }
+
+                    implementation = true;
+
+                    for (int k = reader.u2(); k > 0; k--) {
+                        final String element = strings[reader.u2()];
+
+                        if ("module".equals(element) && reader.peek() == 'c') {
+                            reader.skip(1);
+                            final String descriptor = strings[reader.u2()];
+                            module = descriptor.substring(1, descriptor.length() - 1);
+
+                        } else {
+                            skipElementValue(reader);
+                        }
+                    }
+                }
+            }
+
+            reader.position = end;
+        }
+
+        return new ClassInfo(name, access, superName, interfaces, implementation, module);
+    }
+
+    private static String className(Reader reader, int[] offsets, String[] strings, int index) {
+        if (index == 0) {
+            return null;
+        }
+
+        final int position = reader.position;
+        reader.position = offsets[index];
+        final String name = strings[reader.u2()];
+        reader.position = position;
+
+        return name;
+    }
+
+    private static void skipAttributes(Reader reader) {
+        for (int i = reader.u2(); i > 0; i--) {
+            reader.skip(2);
+            reader.skip(reader.u4());
+        }
+    }
+
+    private static void skipAnnotationValues(Reader reader) {
+        for (int i = reader.u2(); i > 0; i--) {
+            reader.skip(2);
+            skipElementValue(reader);
+        }
+    }
+
+    private static void skipElementValue(Reader reader) {
+        final int tag = reader.u1();
+
+        switch (tag) {
+            case 'e':
+                reader.skip(4);
+                break;
+
+            case '@':
+                reader.skip(2);
+                skipAnnotationValues(reader);
+                break;
+
+            case '[':
+                for (int i = reader.u2(); i > 0; i--) {
+                    skipElementValue(reader);
+                }
+                break;
+
+            default:
+                reader.skip(2);
+        }
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(4096);
+        final byte[] buffer = new byte[4096];
+
+        for (int read = stream.read(buffer); read >= 0; read = stream.read(buffer)) {
+            output.write(buffer, 0, read);
+        }
+
+        return output.toByteArray();
+    }
+
+    static String internalName(String className) {
+        return className.replace('.', '/');
+    }
+
+
+    private enum Result {
+        YES, NO, UNKNOWN
+    }
+
+    /**
+     * Represents the header information of a single class file.
+     */
+    static final class ClassInfo {
+        private final String name;
+        private final int access;
+        private final String superName;
+        private final String[] interfaces;
+        private final boolean implementation;
+        private final String module;
+
+
+        ClassInfo(String name, int access, String superName, String[] interfaces, boolean implementation,
+                  String module) {
+            this.name = name;
+            this.access = access;
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.implementation = implementation;
+            this.module = module;
+        }
+
+        /** The internal name (using slashes) of the class */
+        String getName() {
+            return name;
+        }
+
+        /** The internal name of the superclass, null for java.lang.Object */
+        String getSuperName() {
+            return superName;
+        }
+
+        /** The internal names of all directly implemented interfaces */
+        String[] getInterfaces() {
+            return interfaces;
+        }
+
+        /** Whether or not the class has been annotated with {@link Implementation} */
+        boolean isImplementation() {
+            return implementation;
+        }
+
+        /** The internal name of the module specified in the {@link Implementation} annotation, if any */
+        String getModule() {
+            return module;
+        }
+
+    }
+
+    private static final class Reader {
+        private final byte[] bytes;
+        private int position;
+
+
+        private Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int peek() {
+            return bytes[position] & 0xFF;
+        }
+
+        int u1() {
+            return bytes[position++] & 0xFF;
+        }
+
+        int u2() {
+            return (u1() << 8) | u1();
+        }
+
+        int u4() {
+            return (u2() << 16) | u2();
+        }
+
+        void skip(int length) {
+            if (length < 0 || position + length > bytes.length) {
+                throw new IndexOutOfBoundsException("Unexpected end of class file");
+            }
+
+            position += length;
+        }
+
+        String utf8() {
+            final int length = u2();
+            final char[] chars = new char[length];
+            final int end = position + length;
+            int count = 0;
+
+            // Modified UTF-8, as described in the class file specification
+            while (position < end) {
+                final int a = u1();
+
+                if (a < 0x80) {
+                    chars[count++] = (char) a;
+
+                } else if ((a & 0xE0) == 0xC0) {
+                    chars[count++] = (char) (((a & 0x1F) << 6) | (u1() & 0x3F));
+
+                } else {
+                    chars[count++] = (char) (((a & 0x0F) << 12) | ((u1() & 0x3F) << 6) | (u1() & 0x3F));
+                }
+            }
+
+            return new String(chars, 0, count);
+        }
+
+    }
+
+}
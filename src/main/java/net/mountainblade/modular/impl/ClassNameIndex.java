@@ -0,0 +1,265 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Represents an immutable, compact collection of class names that can be queried by prefix.
+ *
+ * <p>Every package name is stored once (sorted, including its trailing dot) and the simple class names are packed into
+ * a single character array, sorted within their package. This way all classes under a given prefix can be found with a
+ * couple of binary searches, and only the resulting names need to be materialized.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class ClassNameIndex extends AbstractCollection<String> {
+    private static final Comparator<String> PACKAGE_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            // Sort by package first (the same way the package names are sorted), then by the simple name
+            final int packageA = a.lastIndexOf('.') + 1;
+            final int packageB = b.lastIndexOf('.') + 1;
+
+            for (int i = 0, length = Math.min(packageA, packageB); i < length; i++) {
+                final int difference = a.charAt(i) - b.charAt(i);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+
+            return packageA != packageB ? packageA - packageB : a.compareTo(b);
+        }
+    };
+
+    private final String[] packages;
+    private final int[] packageStarts;
+    private final char[] chars;
+    private final int[] offsets;
+
+
+    /**
+     * Creates a new index, duplicate names are only stored once.
+     *
+     * @param classNames    The fully qualified class names
+     */
+    ClassNameIndex(Collection<String> classNames) {
+        final String[] sorted = classNames.toArray(new String[classNames.size()]);
+        Arrays.sort(sorted, PACKAGE_ORDER);
+
+        final List<String> packageList = new ArrayList<>();
+        final List<Integer> startList = new ArrayList<>();
+        final int[] offsets = new int[sorted.length + 1];
+        final StringBuilder builder = new StringBuilder(sorted.length * 16);
+
+        int count = 0;
+        String previous = null;
+
+        for (String className : sorted) {
+            if (className.equals(previous)) {
+                continue;
+            }
+
+            final String packageName = getPackage(className);
+            if (packageList.isEmpty() || !packageList.get(packageList.size() - 1).equals(packageName)) {
+                packageList.add(packageName);
+                startList.add(count);
+            }
+
+            builder.append(className, packageName.length(), className.length());
+            offsets[++count] = builder.length();
+            previous = className;
+        }
+
+        this.packages = packageList.toArray(new String[packageList.size()]);
+        this.packageStarts = new int[packages.length + 1];
+        this.chars = new char[builder.length()];
+        this.offsets = Arrays.copyOf(offsets, count + 1);
+
+        for (int i = 0; i < packages.length; i++) {
+            packageStarts[i] = startList.get(i);
+        }
+
+        packageStarts[packages.length] = count;
+        builder.getChars(0, builder.length(), chars, 0);
+    }
+
+    @Override
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof String)) {
+            return false;
+        }
+
+        final String className = (String) o;
+        final int packageIndex = Arrays.binarySearch(packages, getPackage(className));
+
+        return packageIndex >= 0 &&
+                findClass(packageIndex, className.substring(packages[packageIndex].length())) >= 0;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int packageIndex;
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < size();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                while (packageStarts[packageIndex + 1] <= index) {
+                    packageIndex++;
+                }
+
+                return getClassName(packageIndex, index++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Gets all class names starting with the given prefix, just like {@link String#startsWith(String)} would.
+     *
+     * @param prefix    The prefix, usually a package name
+     * @return A new list with the matching class names
+     */
+    List<String> withPrefix(String prefix) {
+        final List<String> result = new ArrayList<>();
+
+        // Packages that are a prefix of the given string, only part of their classes might match
+        for (int end = prefix.lastIndexOf('.'); end >= -1; end = end < 0 ? -2 : prefix.lastIndexOf('.', end - 1)) {
+            final String packageName = prefix.substring(0, end + 1);
+            final int packageIndex = packageName.length() < prefix.length() ?
+                    Arrays.binarySearch(packages, packageName) : -1;
+
+            if (packageIndex >= 0) {
+                final String simplePrefix = prefix.substring(packageName.length());
+
+                for (int i = findFirst(packageIndex, simplePrefix); i < packageStarts[packageIndex + 1]; i++) {
+                    if (!startsWith(i, simplePrefix)) {
+                        break;
+                    }
+
+                    result.add(getClassName(packageIndex, i));
+                }
+            }
+        }
+
+        // And the packages that start with the prefix, those are sorted next to each other
+        int packageIndex = Arrays.binarySearch(packages, prefix);
+        for (packageIndex = packageIndex < 0 ? -packageIndex - 1 : packageIndex; packageIndex < packages.length;
+             packageIndex++) {
+            if (!packages[packageIndex].startsWith(prefix)) {
+                break;
+            }
+
+            for (int i = packageStarts[packageIndex]; i < packageStarts[packageIndex + 1]; i++) {
+                result.add(getClassName(packageIndex, i));
+            }
+        }
+
+        return result;
+    }
+
+    private String getClassName(int packageIndex, int index) {
+        final String packageName = packages[packageIndex];
+        final int length = offsets[index + 1] - offsets[index];
+
+        return new StringBuilder(packageName.length() + length).append(packageName)
+                .append(chars, offsets[index], length).toString();
+    }
+
+    private int findClass(int packageIndex, String simpleName) {
+        final int index = findFirst(packageIndex, simpleName);
+        return index < packageStarts[packageIndex + 1] && compare(index, simpleName) == 0 ? index : -1;
+    }
+
+    private int findFirst(int packageIndex, String simpleName) {
+        int low = packageStarts[packageIndex];
+        int high = packageStarts[packageIndex + 1];
+
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+
+            if (compare(middle, simpleName) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private int compare(int index, String simpleName) {
+        final int start = offsets[index];
+        final int length = offsets[index + 1] - start;
+        final int min = Math.min(length, simpleName.length());
+
+        for (int i = 0; i < min; i++) {
+            final int difference = chars[start + i] - simpleName.charAt(i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+
+        return length - simpleName.length();
+    }
+
+    private boolean startsWith(int index, String prefix) {
+        final int start = offsets[index];
+        if (offsets[index + 1] - start < prefix.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (chars[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String getPackage(String className) {
+        return className.substring(0, className.lastIndexOf('.') + 1);
+    }
+
+}
@@ -0,0 +1,334 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.TLinkedHashSet;
+import org.codehaus.plexus.classworlds.realm.ClassRealm;
+import org.codehaus.plexus.classworlds.strategy.Strategy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Represents a persistent profile of the classes each module's initialize method loads through a class realm. On later
+ * starts, those classes get loaded on background threads while the modules before them are still being initialized,
+ * so defining them no longer adds to the (mostly serial) initialization chain.
+ *
+ * <p>Profiles are keyed by the name of the module implementation. Classes that got loaded ahead of time do not show up
+ * when recording again, so a profile only ever grows by what has been recorded; classes that could not be found while
+ * preloading get removed from it though.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class ClassProfile {
+    private static final Logger LOG = Logger.getLogger(ClassProfile.class.getName());
+
+    private static final int MAGIC = 0x4D4F4443;
+    private static final int VERSION = 1;
+    private static final int THREADS = 2;
+
+    private final File file;
+    private final Map<String, Collection<String>> profiles;
+    private final ThreadLocal<Collection<String>> recording;
+    private boolean dirty;
+
+
+    ClassProfile(File file) {
+        this.file = file;
+        this.profiles = new THashMap<>();
+        this.recording = new ThreadLocal<>();
+
+        load();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Starts recording the classes loaded through the loader's realm.
+     *
+     * @param loader    The module loader
+     */
+    void install(ModuleLoader loader) {
+        final ClassRealm realm = loader.getRealm();
+
+        if (!RecordingStrategy.isInstalled(realm, Recorder.class)) {
+            loader.setLoadingStrategy(new Recorder(realm.getStrategy()));
+        }
+    }
+
+    /**
+     * Starts recording the classes loaded on the current thread.
+     *
+     * @return The classes recorded so far, in case a module gets initialized while initializing another one
+     */
+    Collection<String> startRecording() {
+        final Collection<String> previous = recording.get();
+        recording.set(new TLinkedHashSet<String>());
+
+        return previous;
+    }
+
+    /**
+     * Stops recording and adds the recorded classes to the module's profile.
+     *
+     * @param module      The name of the module implementation
+     * @param previous    The return value of {@link #startRecording()}
+     */
+    void stopRecording(String module, Collection<String> previous) {
+        final Collection<String> recorded = recording.get();
+
+        if (previous != null) {
+            recording.set(previous);
+        } else {
+            recording.remove();
+        }
+
+        if (recorded == null || recorded.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            Collection<String> classNames = profiles.get(module);
+
+            if (classNames == null) {
+                classNames = new TLinkedHashSet<>();
+                profiles.put(module, classNames);
+            }
+
+            dirty |= classNames.addAll(recorded);
+        }
+    }
+
+    synchronized List<String> get(String module) {
+        final Collection<String> classNames = profiles.get(module);
+        return classNames != null ? new ArrayList<>(classNames) : new ArrayList<String>();
+    }
+
+    /**
+     * Starts loading the profiled classes of the given modules in the background. Classes get loaded in the order of
+     * the modules (without being initialized), using the class loader of each module's implementation.
+     *
+     * @param order    The modules in the order they are going to be initialized in
+     * @return The running preload, or null if there is nothing to load
+     */
+    Preload preload(List<ModuleLoader.ClassEntry> order) {
+        final List<String> modules = new ArrayList<>();
+        final List<ClassLoader> classLoaders = new ArrayList<>();
+        final List<String> classNames = new ArrayList<>();
+
+        for (ModuleLoader.ClassEntry entry : order) {
+            final String module = entry.getImplementation().getName();
+
+            for (String className : get(module)) {
+                modules.add(module);
+                classLoaders.add(entry.getImplementation().getClassLoader());
+                classNames.add(className);
+            }
+        }
+
+        if (classNames.isEmpty()) {
+            return null;
+        }
+
+        final Preload preload = new Preload(modules, classLoaders, classNames);
+        preload.start();
+
+        return preload;
+    }
+
+    private synchronized void remove(String module, String className) {
+        final Collection<String> classNames = profiles.get(module);
+        dirty |= classNames != null && classNames.remove(className);
+    }
+
+    /**
+     * Writes the profiles to disk if anything changed.
+     */
+    synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            LOG.warning("Could not create folder for the class profiles: " + parent);
+            return;
+        }
+
+        try {
+            final File temp = File.createTempFile(file.getName(), ".tmp", parent);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(profiles.size());
+
+                for (Map.Entry<String, Collection<String>> entry : profiles.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+
+                    for (String className : entry.getValue()) {
+                        out.writeUTF(className);
+                    }
+                }
+            }
+
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not write class profiles: " + file, e);
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.info("Ignoring class profiles with unknown format: " + file);
+                return;
+            }
+
+            final int size = in.readInt();
+
+            for (int i = 0; i < size; i++) {
+                final String module = in.readUTF();
+                final String[] classNames = new String[in.readInt()];
+
+                for (int j = 0; j < classNames.length; j++) {
+                    classNames[j] = in.readUTF();
+                }
+
+                profiles.put(module, new TLinkedHashSet<>(Arrays.asList(classNames)));
+            }
+
+        } catch (IOException e) {
+            profiles.clear();
+            LOG.log(Level.INFO, "Could not read class profiles, starting without any: " + file, e);
+        }
+    }
+
+
+    /**
+     * Represents the loading strategy that adds every class to the profile that is being recorded on the current
+     * thread.
+     */
+    private final class Recorder extends RecordingStrategy {
+
+        Recorder(Strategy strategy) {
+            super(strategy);
+        }
+
+        @Override
+        protected void record(Class<?> theClass) {
+            final Collection<String> classNames = recording.get();
+
+            if (classNames != null) {
+                classNames.add(theClass.getName());
+            }
+        }
+
+    }
+
+    /**
+     * Represents a running preload. All threads share the same position, so the classes of earlier modules always get
+     * loaded first.
+     */
+    final class Preload implements Runnable {
+        private final List<String> modules;
+        private final List<ClassLoader> classLoaders;
+        private final List<String> classNames;
+        private final AtomicInteger position;
+        private final Collection<Thread> threads;
+        private volatile boolean cancelled;
+
+
+        private Preload(List<String> modules, List<ClassLoader> classLoaders, List<String> classNames) {
+            this.modules = modules;
+            this.classLoaders = classLoaders;
+            this.classNames = classNames;
+            this.position = new AtomicInteger();
+            this.threads = new ArrayList<>(THREADS);
+        }
+
+        private void start() {
+            for (int i = 0; i < Math.min(THREADS, classNames.size()); i++) {
+                final Thread thread = new Thread(this, "modular-preload-" + i);
+                thread.setDaemon(true);
+                thread.start();
+
+                threads.add(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = position.getAndIncrement(); i < classNames.size() && !cancelled;
+                 i = position.getAndIncrement()) {
+                try {
+                    Class.forName(classNames.get(i), false, classLoaders.get(i));
+
+                } catch (ClassNotFoundException | LinkageError e) {
+                    LOG.log(Level.FINE, "Could not preload class, dropping it: " + classNames.get(i), e);
+                    remove(modules.get(i), classNames.get(i));
+                }
+            }
+        }
+
+        /**
+         * Stops loading any more classes, the ones currently being loaded will still be finished.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Waits until all classes have been loaded (or the preload has been cancelled).
+         *
+         * @throws InterruptedException when the current thread got interrupted while waiting
+         */
+        void await() throws InterruptedException {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+    }
+
+}
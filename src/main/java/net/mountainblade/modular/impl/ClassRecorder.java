@@ -0,0 +1,329 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.hash.TLinkedHashSet;
+import org.codehaus.plexus.classworlds.realm.ClassRealm;
+import org.codehaus.plexus.classworlds.strategy.Strategy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Represents a recorder for all classes that get loaded through the class realms of module managers, which includes
+ * everything needed to discover, create and initialize the modules. The recorded classes get written out as a class
+ * list for building a CDS archive (<code>java -Xshare:dump -XX:SharedClassListFile=...</code>), so the next start can
+ * map them from the archive instead of loading and verifying them again.
+ *
+ * <p>Classes of the boot, platform and application class loaders are listed by name only. Classes defined by a realm
+ * are listed using the syntax for custom class loaders, which requires them to come from a JAR file: classes from
+ * folders, as well as those whose super class or interfaces could not be listed, are left out. All JAR files involved
+ * are written to a second file (next to the class list, with an additional <code>.jars</code> extension), one path per
+ * line, as the application's part has to be on the class path when dumping the archive.</p>
+ *
+ * <p>Only the names, super classes, interfaces and JAR files of the classes get kept (captured when they are recorded),
+ * so recording does not keep class realms alive after their managers have been shut down. The files get written when
+ * the JVM shuts down or when asked to, not after every load.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class ClassRecorder {
+    private static final Logger LOG = Logger.getLogger(ClassRecorder.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final Map<String, Descriptor> descriptors;
+    private boolean dirty;
+
+
+    ClassRecorder(File file) {
+        this.file = file;
+        this.descriptors = new LinkedHashMap<>();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    File getJarsFile() {
+        return new File(file.getPath() + ".jars");
+    }
+
+    /**
+     * Starts recording all classes loaded through the loader's realm.
+     *
+     * @param loader    The module loader
+     */
+    void install(ModuleLoader loader) {
+        final ClassRealm realm = loader.getRealm();
+
+        if (!RecordingStrategy.isInstalled(realm, Recorder.class)) {
+            loader.setLoadingStrategy(new Recorder(realm.getStrategy()));
+        }
+    }
+
+    /**
+     * Records the given class, along with the super classes and interfaces it needs to be listed.
+     *
+     * @param theClass    The class
+     */
+    synchronized void record(Class<?> theClass) {
+        // Arrays, primitives and hidden classes (lambdas and the like) cannot be listed
+        final String name = theClass.getName();
+        if (theClass.isArray() || theClass.isPrimitive() || name.indexOf('/') >= 0 || descriptors.containsKey(name)) {
+            return;
+        }
+
+        final File jar = getJarFile(theClass);
+        final String jarPath = jar != null ? jar.getAbsolutePath() : null;
+
+        if (isBuiltin(theClass.getClassLoader())) {
+            descriptors.put(name, new Descriptor(true, jarPath, null, new String[0]));
+            dirty = true;
+            return;
+        }
+
+        // Interfaces do not have a super class, but the class list wants one anyway
+        final Class<?> superClass = theClass.isInterface() ? Object.class : theClass.getSuperclass();
+        final Class<?>[] interfaces = theClass.getInterfaces();
+        final String[] interfaceNames = new String[interfaces.length];
+
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaceNames[i] = interfaces[i].getName();
+        }
+
+        final String superName = superClass != null ? superClass.getName() : null;
+        descriptors.put(name, new Descriptor(false, jarPath, superName, interfaceNames));
+        dirty = true;
+
+        if (superClass != null) {
+            record(superClass);
+        }
+
+        for (Class<?> anInterface : interfaces) {
+            record(anInterface);
+        }
+    }
+
+    /**
+     * Writes the class list and the list of JAR files to disk, if anything has been recorded since the last time.
+     */
+    void save() {
+        final Map<String, Descriptor> snapshot;
+
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+
+            snapshot = new LinkedHashMap<>(descriptors);
+            dirty = false;
+        }
+
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            LOG.warning("Could not create folder for the class list: " + parent);
+            return;
+        }
+
+        final ClassList list = new ClassList(snapshot);
+        for (String name : snapshot.keySet()) {
+            list.add(name);
+        }
+
+        write(file, list.lines);
+        write(getJarsFile(), list.jars);
+    }
+
+    private static void write(File target, Collection<String> lines) {
+        try {
+            final File temp = File.createTempFile(target.getName(), ".tmp", target.getAbsoluteFile().getParentFile());
+
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF_8))) {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            }
+
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not write class list: " + target, e);
+        }
+    }
+
+    static boolean isBuiltin(ClassLoader classLoader) {
+        for (ClassLoader current = ClassLoader.getSystemClassLoader(); current != null; current = current.getParent()) {
+            if (current == classLoader) {
+                return true;
+            }
+        }
+
+        return classLoader == null;
+    }
+
+    static File getJarFile(Class<?> theClass) {
+        final CodeSource codeSource = theClass.getProtectionDomain().getCodeSource();
+        final URL location = codeSource != null ? codeSource.getLocation() : null;
+
+        if (location == null || !"file".equals(location.getProtocol())) {
+            return null;
+        }
+
+        try {
+            final File file = new File(location.toURI());
+            return file.isFile() ? file : null;
+
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Represents what is needed to list a class, without keeping the class (and thus its class loader) alive.
+     */
+    private static final class Descriptor {
+        private final boolean builtin;
+        private final String jar;
+        private final String superName;
+        private final String[] interfaceNames;
+
+
+        Descriptor(boolean builtin, String jar, String superName, String[] interfaceNames) {
+            this.builtin = builtin;
+            this.jar = jar;
+            this.superName = superName;
+            this.interfaceNames = interfaceNames;
+        }
+
+    }
+
+    /**
+     * Represents the class list being written. Every class gets an ID, and the super classes and interfaces of classes
+     * of custom class loaders get listed (and referenced) before the classes themselves.
+     */
+    private static final class ClassList {
+        private final Map<String, Descriptor> descriptors;
+        private final TObjectIntHashMap<String> ids = new TObjectIntHashMap<>(100, 0.5f, -1);
+        private final Collection<String> lines = new ArrayList<>();
+        private final Collection<String> jars = new TLinkedHashSet<>();
+
+
+        ClassList(Map<String, Descriptor> descriptors) {
+            this.descriptors = descriptors;
+        }
+
+        int add(String name) {
+            if (ids.containsKey(name)) {
+                return ids.get(name);
+            }
+
+            final Descriptor descriptor = name != null ? descriptors.get(name) : null;
+            if (descriptor == null) {
+                return -1;
+            }
+
+            final String internalName = name.replace('.', '/');
+
+            if (descriptor.builtin) {
+                if (descriptor.jar != null) {
+                    jars.add(descriptor.jar);
+                }
+
+                return assign(name, internalName, "");
+            }
+
+            // The archive can only load classes of custom class loaders from JAR files
+            if (descriptor.jar == null) {
+                LOG.finer("Leaving class out of the class list: " + name);
+                return -1;
+            }
+
+            final int superId = add(descriptor.superName);
+            if (superId < 0) {
+                return -1;
+            }
+
+            final StringBuilder builder = new StringBuilder(" super: ").append(superId);
+
+            if (descriptor.interfaceNames.length > 0) {
+                builder.append(" interfaces:");
+
+                for (String interfaceName : descriptor.interfaceNames) {
+                    final int interfaceId = add(interfaceName);
+
+                    if (interfaceId < 0) {
+                        return -1;
+                    }
+
+                    builder.append(' ').append(interfaceId);
+                }
+            }
+
+            builder.append(" source: ").append(descriptor.jar);
+            jars.add(descriptor.jar);
+
+            return assign(name, internalName, builder.toString());
+        }
+
+        private int assign(String name, String internalName, String suffix) {
+            final int id = ids.size();
+
+            ids.put(name, id);
+            lines.add(internalName + " id: " + id + suffix);
+
+            return id;
+        }
+
+    }
+
+    /**
+     * Represents the loading strategy that adds every class to the list.
+     */
+    private final class Recorder extends RecordingStrategy {
+
+        Recorder(Strategy strategy) {
+            super(strategy);
+        }
+
+        @Override
+        protected void record(Class<?> theClass) {
+            ClassRecorder.this.record(theClass);
+        }
+
+    }
+
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents a dependency graph that can be sorted in topological order, so all dependencies of a node come before the
+ * node itself.
+ * <p/>
+ * Nodes are identified by the index they have been added at and edges are kept in two plain int lists. For sorting,
+ * those get packed into a compressed sparse row layout (the outgoing edges of node <code>n</code> are the targets
+ * between <code>offsets[n]</code> and <code>offsets[n + 1]</code>), so sorting takes O(V + E) without creating an
+ * object per node or edge. Nodes without dependencies get sorted in the order they have been added in and every other
+ * node follows as soon as its last dependency has been placed, which makes the order the same on every run. Sorting
+ * does not change the graph, so nodes and edges can still be added and the graph can be sorted again.
+ * <p/>
+ * <a href="http://en.wikipedia.org/wiki/Topological_sorting">Read more at Wikipedia!</a>
+ *
+ * @param <E> The element type
+ * @author spaceemotion
+ * @version 1.0
+ */
+public class DependencyGraph<E> {
+    private final List<E> elements;
+    private final TObjectIntHashMap<E> indices;
+    private final TIntArrayList from;
+    private final TIntArrayList to;
+
+    private int[] offsets;
+    private int[] targets;
+
+
+    public DependencyGraph() {
+        this(10);
+    }
+
+    public DependencyGraph(int capacity) {
+        this.elements = new ArrayList<>(capacity);
+        this.indices = new TObjectIntHashMap<>(capacity, 0.5f, -1);
+        this.from = new TIntArrayList(capacity);
+        this.to = new TIntArrayList(capacity);
+    }
+
+    /**
+     * Adds the given element to the graph, unless it is already part of it.
+     *
+     * @param element The element to add
+     * @return The index of the element's node
+     */
+    public int add(E element) {
+        int index = indices.get(element);
+
+        if (index < 0) {
+            index = elements.size();
+            elements.add(element);
+            indices.put(element, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Gets the index of the given element's node.
+     *
+     * @param element The element
+     * @return The index, or -1 if the element is not part of the graph
+     */
+    public int indexOf(E element) {
+        return indices.get(element);
+    }
+
+    public E get(int index) {
+        return elements.get(index);
+    }
+
+    public int size() {
+        return elements.size();
+    }
+
+    public int edges() {
+        return from.size();
+    }
+
+    /**
+     * Marks the first node as a requirement of the second one, which places it <b>before</b> the second one.
+     *
+     * @param dependency The index of the node that is required
+     * @param dependent  The index of the node that requires it
+     */
+    public void addEdge(int dependency, int dependent) {
+        if (dependency < 0 || dependency >= elements.size() || dependent < 0 || dependent >= elements.size()) {
+            throw new IndexOutOfBoundsException("Unknown node: " + dependency + " -> " + dependent);
+        }
+
+        from.add(dependency);
+        to.add(dependent);
+        offsets = null;
+    }
+
+    /**
+     * Marks the first element as a requirement of the second one, adding both to the graph if necessary.
+     *
+     * @param dependency The element that is required
+     * @param dependent  The element that requires it
+     */
+    public void addEdge(E dependency, E dependent) {
+        addEdge(add(dependency), add(dependent));
+    }
+
+    /**
+     * Sorts the nodes in topological order.
+     *
+     * @return The indices of all nodes, in topological order
+     * @throws CycleException Gets thrown when a dependency cycle has been detected
+     */
+    public int[] sort() throws CycleException {
+        compile();
+
+        final int size = elements.size();
+        final int[] inDegrees = new int[size];
+
+        for (int i = 0; i < targets.length; i++) {
+            inDegrees[targets[i]]++;
+        }
+
+        // The order doubles as the queue: everything before "tail" has been placed, "head" is the next one to visit
+        final int[] order = new int[size];
+        int head = 0;
+        int tail = 0;
+
+        for (int node = 0; node < size; node++) {
+            if (inDegrees[node] == 0) {
+                order[tail++] = node;
+            }
+        }
+
+        while (head < tail) {
+            final int node = order[head++];
+
+            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                if (--inDegrees[targets[i]] == 0) {
+                    order[tail++] = targets[i];
+                }
+            }
+        }
+
+        if (tail < size) {
+            final List<E> cycle = new ArrayList<>();
+
+            for (int node = 0; node < size; node++) {
+                if (inDegrees[node] > 0) {
+                    cycle.add(elements.get(node));
+                }
+            }
+
+            throw new CycleException("Cycle found between: " + cycle);
+        }
+
+        return order;
+    }
+
+    /**
+     * Sorts the elements in topological order.
+     *
+     * @return All elements, in topological order
+     * @throws CycleException Gets thrown when a dependency cycle has been detected
+     */
+    public List<E> sortElements() throws CycleException {
+        final int[] order = sort();
+        final List<E> sorted = new ArrayList<>(order.length);
+
+        for (int node : order) {
+            sorted.add(elements.get(node));
+        }
+
+        return sorted;
+    }
+
+    private void compile() {
+        if (offsets != null && offsets.length == elements.size() + 1) {
+            return;
+        }
+
+        final int size = elements.size();
+        final int edges = from.size();
+
+        // Count the outgoing edges of every node, then turn the counts into offsets
+        offsets = new int[size + 1];
+
+        for (int i = 0; i < edges; i++) {
+            offsets[from.getQuick(i) + 1]++;
+        }
+
+        for (int node = 0; node < size; node++) {
+            offsets[node + 1] += offsets[node];
+        }
+
+        // Fill in the targets, keeping the order the edges have been added in
+        targets = new int[edges];
+        final int[] positions = new int[size];
+        System.arraycopy(offsets, 0, positions, 0, size);
+
+        for (int i = 0; i < edges; i++) {
+            targets[positions[from.getQuick(i)]++] = to.getQuick(i);
+        }
+    }
+
+
+    public static class CycleException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public CycleException(String message) {
+            super(message);
+        }
+
+    }
+
+}
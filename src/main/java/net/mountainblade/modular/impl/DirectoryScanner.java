@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.set.hash.THashSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Represents a scanner for exploded classpath folders.
+ *
+ * <p>Sub-directories are walked in parallel on the common fork-join pool. The results get merged in file name order,
+ * so the outcome is the same no matter how the work has been split up.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class DirectoryScanner {
+    private static final Logger LOG = Logger.getLogger(DirectoryScanner.class.getName());
+
+    private final Collection<Path> roots;
+    private final Collection<String> blacklist;
+
+
+    /**
+     * Creates a new scanner.
+     *
+     * @param classpath    The classpath folders, every one of them will act as root for the classes below it
+     * @param blacklist    The file names to skip (case insensitive)
+     */
+    DirectoryScanner(Collection<URI> classpath, Collection<String> blacklist) {
+        this.roots = new THashSet<>();
+        this.blacklist = new THashSet<>();
+
+        for (URI uri : classpath) {
+            if ("file".equalsIgnoreCase(uri.getScheme())) {
+                roots.add(Paths.get(uri).toAbsolutePath());
+            }
+        }
+
+        for (String name : blacklist) {
+            this.blacklist.add(name.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Walks the given directory.
+     *
+     * @param directory      The directory to walk
+     * @param packageName    The package path the classes need to be in (relative to their root, using the system
+     *                       dependent separator)
+     * @return The result of the walk
+     */
+    Result scan(File directory, String packageName) {
+        final Path path = directory.toPath().toAbsolutePath();
+        return ForkJoinPool.commonPool().invoke(new WalkTask(path, path, packageName));
+    }
+
+    private static String getClassName(String path) {
+        return path.substring(0, path.length() - ".class".length()).replace('\\', '.').replace('/', '.');
+    }
+
+
+    /**
+     * Represents the result of a directory walk.
+     */
+    static final class Result {
+        private final Map<URI, Collection<String>> classes = new LinkedHashMap<>();
+        private final Collection<String> list = new LinkedList<>();
+        private final Collection<URI> jars = new LinkedList<>();
+
+
+        /** The classes that have been found, mapped by the root they belong to */
+        Map<URI, Collection<String>> getClasses() {
+            return classes;
+        }
+
+        /** All found class names in the order they have been found */
+        Collection<String> getList() {
+            return list;
+        }
+
+        /** All JAR files that have been found during the walk */
+        Collection<URI> getJars() {
+            return jars;
+        }
+
+        private void addClass(URI root, String className) {
+            Collection<String> classNames = classes.get(root);
+            if (classNames == null) {
+                classNames = new LinkedList<>();
+                classes.put(root, classNames);
+            }
+
+            classNames.add(className);
+            list.add(className);
+        }
+
+        private void merge(Result other) {
+            for (Map.Entry<URI, Collection<String>> entry : other.classes.entrySet()) {
+                final Collection<String> classNames = classes.get(entry.getKey());
+
+                if (classNames == null) {
+                    classes.put(entry.getKey(), entry.getValue());
+                } else {
+                    classNames.addAll(entry.getValue());
+                }
+            }
+
+            list.addAll(other.list);
+            jars.addAll(other.jars);
+        }
+
+    }
+
+    private final class WalkTask extends RecursiveTask<Result> {
+        private final Path root;
+        private final Path directory;
+        private final String packageName;
+
+
+        private WalkTask(Path root, Path directory, String packageName) {
+            this.root = root;
+            this.directory = directory;
+            this.packageName = packageName;
+        }
+
+        @Override
+        protected Result compute() {
+            final Result result = new Result();
+            final List<Path> children = new ArrayList<>();
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path child : stream) {
+                    final Path fileName = child.getFileName();
+
+                    if (fileName != null && !blacklist.contains(fileName.toString().toLowerCase(Locale.ROOT))) {
+                        children.add(child);
+                    }
+                }
+
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Could not list directory contents: " + directory, e);
+                return result;
+            }
+
+            // Sort so we always end up with the same order, no matter what the file system gives us
+            Collections.sort(children);
+
+            // If this directory is on the classpath, it becomes the root for everything below
+            final Path subRoot = roots.contains(directory) ? directory : root;
+            final List<WalkTask> tasks = new ArrayList<>();
+
+            for (Path child : children) {
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS) || Files.isDirectory(child)) {
+                    tasks.add(new WalkTask(subRoot, child, packageName));
+                    continue;
+                }
+
+                final String name = child.getFileName().toString();
+
+                // JAR files will be handled by the caller
+                if (name.endsWith(".jar")) {
+                    result.jars.add(child.toUri());
+                    continue;
+                }
+
+                // Only add class files that are in the right package
+                if (!name.endsWith(".class")) {
+                    continue;
+                }
+
+                final String path = root.relativize(child).toString();
+                if (path.startsWith(packageName)) {
+                    result.addClass(root.toUri(), getClassName(path));
+                }
+            }
+
+            // Split the work up if there's more than one sub-directory, then merge in order
+            if (tasks.size() == 1) {
+                result.merge(tasks.get(0).compute());
+
+            } else if (!tasks.isEmpty()) {
+                invokeAll(tasks);
+
+                for (WalkTask task : tasks) {
+                    result.merge(task.join());
+                }
+            }
+
+            return result;
+        }
+
+    }
+
+}
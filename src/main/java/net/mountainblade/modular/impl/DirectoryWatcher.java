@@ -0,0 +1,281 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Filter;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Represents a background watcher for module directories.
+ *
+ * <p>Whenever JAR files get added or changed within a watched directory (or one of its sub-directories), those files
+ * are handed back to the manager to load the modules they contain. Events are collected until the directory has been
+ * quiet for the given debounce time, so copying a bunch of files only results in a single load.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class DirectoryWatcher implements Runnable {
+    private static final Logger LOG = Logger.getLogger(DirectoryWatcher.class.getName());
+
+    /** How many debounce periods we wait at most, in case the directory never calms down */
+    private static final int MAX_DELAY = 10;
+
+    private final BaseModuleManager manager;
+    private final Collection<String> blacklist;
+    private final long debounce;
+
+    private final WatchService service;
+    private final Map<WatchKey, Target> keys;
+    private final Map<Path, Target> pending;
+
+    private volatile boolean running;
+    private long pendingSince;
+
+
+    /**
+     * Creates a new watcher and starts its (daemon) thread.
+     *
+     * @param manager      The manager to load the changed files with
+     * @param blacklist    The file names to skip (case insensitive)
+     * @param debounce     The time in milliseconds the directories need to be quiet before changes get loaded
+     * @throws IOException when the file system could not be watched
+     */
+    DirectoryWatcher(BaseModuleManager manager, Collection<String> blacklist, long debounce) throws IOException {
+        this.manager = manager;
+        this.blacklist = blacklist;
+        this.debounce = Math.max(1, debounce);
+
+        this.service = FileSystems.getDefault().newWatchService();
+        this.keys = new ConcurrentHashMap<>();
+        this.pending = new LinkedHashMap<>();
+
+        this.running = true;
+
+        final Thread thread = new Thread(this, "modular-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts watching the given directory and all of its sub-directories.
+     *
+     * @param directory    The directory
+     * @param root         The package root to load the modules with
+     * @param filters      The filters to load the modules with
+     * @throws IOException when the directory could not be watched
+     */
+    void watch(Path directory, String root, Filter[] filters) throws IOException {
+        register(directory, new Target(root, filters), false);
+    }
+
+    /**
+     * Stops watching and ends the background thread.
+     */
+    void close() {
+        running = false;
+
+        try {
+            service.close();
+
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Could not close watch service", e);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                // Wait for the first event, then keep collecting until things calm down
+                final WatchKey key = pending.isEmpty() ?
+                        service.take() : service.poll(debounce, TimeUnit.MILLISECONDS);
+
+                if (key == null) {
+                    flush();
+                    continue;
+                }
+
+                final Target target = keys.get(key);
+                if (target != null) {
+                    handle((Path) key.watchable(), key, target);
+                }
+
+                if (!key.reset()) {
+                    keys.remove(key);
+                }
+
+                // Do not wait forever if files keep on changing
+                if (!pending.isEmpty() && System.currentTimeMillis() - pendingSince >= debounce * MAX_DELAY) {
+                    flush();
+                }
+            }
+
+        } catch (InterruptedException | ClosedWatchServiceException ignore) {
+            // We're done
+        }
+    }
+
+    private void handle(Path directory, WatchKey key, Target target) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // We lost some events, so just take a look at everything
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                queue(directory, target);
+                continue;
+            }
+
+            final Path path = directory.resolve((Path) event.context());
+            if (isBlacklisted(path)) {
+                continue;
+            }
+
+            if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    queue(path, target);
+                }
+
+            } else if (isJar(path)) {
+                add(path, target);
+            }
+        }
+    }
+
+    private void queue(Path directory, Target target) {
+        try {
+            // New directories need to be watched as well, also pick up the files that got in there before we did
+            register(directory, target, true);
+
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not watch directory: " + directory, e);
+        }
+    }
+
+    private void register(Path directory, final Target target, final boolean addFiles) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (isBlacklisted(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                keys.put(dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY), target);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (addFiles && isJar(file) && !isBlacklisted(file)) {
+                    add(file, target);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void add(Path path, Target target) {
+        if (pending.isEmpty()) {
+            pendingSince = System.currentTimeMillis();
+        }
+
+        pending.put(path, target);
+    }
+
+    private void flush() {
+        // Group the files by the way they should be loaded
+        final Map<Target, Collection<URI>> groups = new LinkedHashMap<>();
+
+        for (Map.Entry<Path, Target> entry : pending.entrySet()) {
+            Collection<URI> uris = groups.get(entry.getValue());
+            if (uris == null) {
+                uris = new LinkedList<>();
+                groups.put(entry.getValue(), uris);
+            }
+
+            uris.add(entry.getKey().toUri());
+        }
+
+        pending.clear();
+
+        for (Map.Entry<Target, Collection<URI>> entry : groups.entrySet()) {
+            try {
+                manager.reload(entry.getValue(), entry.getKey().root, entry.getKey().filters);
+
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Could not load modules from changed files: " + entry.getValue(), e);
+            }
+        }
+    }
+
+    private boolean isBlacklisted(Path path) {
+        final Path fileName = path.getFileName();
+        if (fileName == null) {
+            return false;
+        }
+
+        final String name = fileName.toString();
+        for (String blacklisted : blacklist) {
+            if (name.equalsIgnoreCase(blacklisted)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isJar(Path path) {
+        return path.getFileName() != null && path.getFileName().toString().endsWith(".jar");
+    }
+
+
+    /**
+     * Represents the way modules from a watched directory should be loaded.
+     */
+    private static final class Target {
+        private final String root;
+        private final Filter[] filters;
+
+
+        private Target(String root, Filter[] filters) {
+            this.root = root;
+            this.filters = filters;
+        }
+
+    }
+
+}
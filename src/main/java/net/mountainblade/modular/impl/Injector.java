@@ -19,14 +19,23 @@ import net.mountainblade.modular.Module;
 import net.mountainblade.modular.ModuleInformation;
 import net.mountainblade.modular.annotations.Inject;
 
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,7 +48,7 @@ import java.util.logging.Logger;
 public final class Injector extends Destroyable {
     private static final Logger LOG = Logger.getLogger(Injector.class.getName());
 
-    private final Map<Class<? extends Module>, Collection<Entry>> cache;
+    private final ConcurrentMap<Class<? extends Module>, Plan> cache;
     private final List<Support> supports;
 
     private final ModuleRegistry registry;
@@ -83,10 +92,14 @@ public final class Injector extends Destroyable {
     }
 
     public Collection<Entry> discover(Class<? extends Module> implementationClass) {
-        Collection<Entry> entries = cache.get(implementationClass);
+        return getPlan(implementationClass).list;
+    }
+
+    private Plan getPlan(Class<? extends Module> implementationClass) {
+        Plan plan = cache.get(implementationClass);
 
-        if (entries == null) {
-            entries = new LinkedList<>();
+        if (plan == null) {
+            final Collection<Entry> entries = new LinkedList<>();
 
             // Discover normal class fields
             discover(implementationClass, entries, implementationClass.getDeclaredFields());
@@ -99,11 +112,13 @@ public final class Injector extends Destroyable {
                 superClass = superClass.getSuperclass();
             }
 
-            // Add our entries to the cache
-            cache.put(implementationClass, entries);
+            // Add our plan to the cache, if somebody else has been faster we use theirs
+            final Plan created = new Plan(entries, discoverConstructor(implementationClass));
+            plan = cache.putIfAbsent(implementationClass, created);
+            plan = plan == null ? created : plan;
         }
 
-        return entries;
+        return plan;
     }
 
     @SuppressWarnings("unchecked")
@@ -160,6 +175,35 @@ public final class Injector extends Destroyable {
         }
     }
 
+    private Creator discoverConstructor(Class<? extends Module> implementationClass) {
+        Constructor<?> injectable = null;
+
+        for (Constructor<?> constructor : implementationClass.getDeclaredConstructors()) {
+            if (constructor.getAnnotation(Inject.class) == null) {
+                continue;
+            }
+
+            if (injectable != null) {
+                LOG.warning("Found more than one injectable constructor, using the first one: " + implementationClass);
+                break;
+            }
+
+            injectable = constructor;
+        }
+
+        if (injectable == null) {
+            return null;
+        }
+
+        try {
+            return new Creator(implementationClass, injectable);
+
+        } catch (InjectFailedException | IllegalAccessException e) {
+            LOG.log(Level.WARNING, "Error with injectable constructor for implementation, creating it will fail", e);
+            return null;
+        }
+    }
+
     private void checkModuleField(Class<? extends Module> implementationClass, Class<?> fieldType)
             throws InjectFailedException {
         if (fieldType.equals(Module.class)) {
@@ -171,14 +215,41 @@ public final class Injector extends Destroyable {
         }
     }
 
+    /**
+     * Creates a new instance of the given implementation using its injectable constructor, which is the one annotated
+     * with {@link Inject}. Its parameters get resolved just like injected fields.
+     *
+     * @param moduleEntry            The registry entry of the new module
+     * @param implementationClass    The implementation
+     * @return The new module, or null if the implementation has no injectable constructor
+     * @throws InjectFailedException when a parameter could not be resolved
+     * @throws InvocationTargetException when the constructor threw an exception
+     */
+    public Module construct(ModuleRegistry.Entry moduleEntry, Class<? extends Module> implementationClass)
+            throws InjectFailedException, InvocationTargetException {
+        final Creator creator = getPlan(implementationClass).creator;
+        return creator != null ? creator.create(moduleEntry, implementationClass) : null;
+    }
+
+    /**
+     * Gets the modules the injectable constructor of the given implementation depends on.
+     *
+     * @param implementationClass    The implementation
+     * @return The modules, empty if there is no injectable constructor
+     */
+    public Collection<Class<? extends Module>> getConstructorDependencies(Class<? extends Module> implementationClass) {
+        final Creator creator = getPlan(implementationClass).creator;
+        return creator != null ? creator.dependencies : Collections.<Class<? extends Module>>emptyList();
+    }
+
     public void inject(ModuleRegistry.Entry moduleEntry, Module module, ModuleLoader loader)
             throws InjectFailedException {
-        final Class<? extends Module> implementationClass = module.getClass();
+        final Entry[] entries = getPlan(module.getClass()).entries;
 
         // Loop through the entries and inject the dependencies
-        for (Entry entry : discover(implementationClass)) {
-            if (entry != null && !entry.apply(moduleEntry, module, loader)) {
-                throw new InjectFailedException("Failed to inject dependencies: " + entry.getModule());
+        for (int i = 0; i < entries.length; i++) {
+            if (!entries[i].apply(moduleEntry, module, loader)) {
+                throw new InjectFailedException("Failed to inject dependencies: " + entries[i].getModule());
             }
         }
     }
@@ -188,6 +259,172 @@ public final class Injector extends Destroyable {
         cache.clear();
     }
 
+    /**
+     * Gets the registry keys for a dependency of the given type: the type itself and all of its superclasses that are
+     * still modules.
+     *
+     * @param type    The type of the dependency
+     * @return The keys, in the order they should be looked up in
+     */
+    @SuppressWarnings("unchecked")
+    static Class<? extends Module>[] getKeys(Class<?> type) {
+        final List<Class<? extends Module>> keys = new ArrayList<>();
+        Class<?> superclass = type;
+
+        do {
+            keys.add((Class<? extends Module>) superclass);
+            superclass = superclass.getSuperclass();
+
+        } while (superclass != null && Module.class.isAssignableFrom(superclass));
+
+        return keys.toArray(new Class[keys.size()]);
+    }
+
+
+    /**
+     * Represents the immutable injection plan of an implementation class, which gets compiled once.
+     */
+    private static final class Plan {
+        private final Entry[] entries;
+        private final Collection<Entry> list;
+        private final Creator creator;
+
+
+        private Plan(Collection<Entry> entries, Creator creator) {
+            this.creator = creator;
+
+            final List<Entry> list = new ArrayList<>(entries.size());
+
+            for (Entry entry : entries) {
+                if (entry != null) {
+                    list.add(entry);
+                }
+            }
+
+            this.entries = list.toArray(new Entry[list.size()]);
+            this.list = Collections.unmodifiableList(Arrays.asList(this.entries));
+        }
+
+    }
+
+    /**
+     * Represents an injectable constructor along with its resolved parameters.
+     */
+    private final class Creator {
+        private final MethodHandle constructor;
+        private final Parameter[] parameters;
+        private final Collection<Class<? extends Module>> dependencies;
+
+
+        @SuppressWarnings("unchecked")
+        private Creator(Class<? extends Module> implementationClass, Constructor<?> constructor)
+                throws InjectFailedException, IllegalAccessException {
+            final Class<?>[] types = constructor.getParameterTypes();
+            final Annotation[][] annotations = constructor.getParameterAnnotations();
+            final Collection<Class<? extends Module>> dependencies = new LinkedList<>();
+
+            this.parameters = new Parameter[types.length];
+
+            for (int i = 0; i < types.length; i++) {
+                checkModuleField(implementationClass, types[i]);
+
+                // Parameters can be marked as optional as well
+                boolean optional = false;
+                for (Annotation annotation : annotations[i]) {
+                    if (annotation instanceof Inject) {
+                        optional = ((Inject) annotation).optional();
+                    }
+                }
+
+                if (Logger.class.equals(types[i])) {
+                    parameters[i] = new Parameter(Parameter.LOGGER, null, optional);
+
+                } else if (ModuleInformation.class.equals(types[i])) {
+                    parameters[i] = new Parameter(Parameter.INFORMATION, null, optional);
+
+                } else if (Module.class.isAssignableFrom(types[i])) {
+                    parameters[i] = new Parameter(Parameter.MODULE, getKeys(types[i]), optional);
+                    dependencies.add((Class<? extends Module>) types[i]);
+
+                } else {
+                    throw new InjectFailedException("Constructor parameter is not a module or special type: " +
+                            types[i]);
+                }
+            }
+
+            // Spread the arguments, so creating a module is just a single call
+            constructor.setAccessible(true);
+            this.constructor = MethodHandles.lookup().unreflectConstructor(constructor)
+                    .asType(MethodType.methodType(Object.class, types))
+                    .asSpreader(Object[].class, types.length);
+            this.dependencies = Collections.unmodifiableCollection(dependencies);
+        }
+
+        private Module create(ModuleRegistry.Entry moduleEntry, Class<? extends Module> implementationClass)
+                throws InjectFailedException, InvocationTargetException {
+            final Object[] arguments = new Object[parameters.length];
+
+            for (int i = 0; i < parameters.length; i++) {
+                final Parameter parameter = parameters[i];
+
+                switch (parameter.kind) {
+                    case Parameter.LOGGER:
+                        Logger logger = moduleEntry.getLogger();
+
+                        if (logger == null) {
+                            logger = Logger.getLogger(implementationClass.getName());
+                            moduleEntry.setLogger(logger);
+                        }
+
+                        arguments[i] = logger;
+                        break;
+
+                    case Parameter.INFORMATION:
+                        arguments[i] = moduleEntry.getInformation();
+                        break;
+
+                    default:
+                        for (int j = 0; j < parameter.keys.length && arguments[i] == null; j++) {
+                            arguments[i] = registry.getModule(parameter.keys[j]);
+                        }
+                }
+
+                if (arguments[i] == null && !parameter.optional) {
+                    throw new InjectFailedException("Failed to resolve constructor parameter #" + i + " of " +
+                            implementationClass);
+                }
+            }
+
+            try {
+                return (Module) (Object) constructor.invokeExact(arguments);
+
+            } catch (Throwable throwable) {
+                throw new InvocationTargetException(throwable);
+            }
+        }
+
+    }
+
+    /**
+     * Represents a parameter of an injectable constructor.
+     */
+    private static final class Parameter {
+        private static final int LOGGER = 0;
+        private static final int INFORMATION = 1;
+        private static final int MODULE = 2;
+
+        private final int kind;
+        private final Class<? extends Module>[] keys;
+        private final boolean optional;
+
+
+        private Parameter(int kind, Class<? extends Module>[] keys, boolean optional) {
+            this.kind = kind;
+            this.keys = keys;
+            this.optional = optional;
+        }
+
+    }
 
     private static class Support {
         private final EntryConstructor constructor;
@@ -212,6 +449,9 @@ public final class Injector extends Destroyable {
         private final Class<? extends Module> module;
         private final Inject annotation;
         private final Field field;
+        private final MethodHandle setter;
+        private final AccessorGenerator.Accessor accessor;
+        private final int accessorIndex;
 
 
         protected Entry(String type, Inject annotation, Class<? extends Module> module, Field field) {
@@ -220,6 +460,13 @@ public final class Injector extends Destroyable {
             this.annotation = annotation;
             this.module = module;
             this.field = field;
+            this.setter = getSetter(field);
+
+            // Let the generated accessor of the declaring class write the field if it can reach it, everything else
+            // (like private fields of abstract super classes) uses the setter or plain reflection instead
+            final AccessorGenerator.Accessor generated = AccessorGenerator.get(field.getDeclaringClass());
+            this.accessorIndex = generated != null ? generated.indexOf(field) : -1;
+            this.accessor = accessorIndex >= 0 ? generated : null;
         }
 
         public final Class<? extends Module> getModule() {
@@ -239,18 +486,41 @@ public final class Injector extends Destroyable {
         protected boolean injectField(Module module, Object object) {
             if (object != null) {
                 try {
-                    field.setAccessible(true);
-                    field.set(module, object);
+                    if (accessor != null) {
+                        accessor.set(module, accessorIndex, object);
+
+                    } else if (setter != null) {
+                        setter.invokeExact((Object) module, object);
+
+                    } else {
+                        field.setAccessible(true);
+                        field.set(module, object);
+                    }
+
                     return true;
 
-                } catch (IllegalAccessException e) {
-                    LOG.log(Level.SEVERE, "Could not inject module with " + type, e);
+                } catch (Throwable throwable) {
+                    LOG.log(Level.SEVERE, "Could not inject module with " + type, throwable);
                 }
             }
 
             return getAnnotation().optional();
         }
 
+        private static MethodHandle getSetter(Field field) {
+            try {
+                // Bind the field once, in the form of (Object, Object) -> void, so every injection is a plain call
+                field.setAccessible(true);
+                return MethodHandles.lookup().unreflectSetter(field)
+                        .asType(MethodType.methodType(void.class, Object.class, Object.class));
+
+            } catch (IllegalAccessException | RuntimeException e) {
+                // Final fields and the like, we'll try again using plain reflection (and fail with a proper message)
+                LOG.log(Level.FINE, "Could not create setter for field: " + field, e);
+                return null;
+            }
+        }
+
     }
 
     public final class LoggerEntry extends Entry {
@@ -289,29 +559,23 @@ public final class Injector extends Destroyable {
 
     public final class ModuleEntry extends Entry {
 
+        private final Class<? extends Module>[] keys;
+
+
         protected ModuleEntry(Inject annotation, Class<? extends Module> module, Field field) {
             super("module dependency", annotation, module, field);
+
+            // Resolve the registry keys up front
+            this.keys = getKeys(field.getType());
         }
 
         @Override
-        @SuppressWarnings("unchecked")
         protected boolean apply(ModuleRegistry.Entry moduleEntry, Module module, ModuleLoader loader) {
-            Class<?> superclass = getField().getType();
-            Module dependency;
+            Module dependency = null;
 
-            do {
-                dependency = registry.getModule((Class<? extends Module>) superclass);
-
-                // Exit when the superclass is not a module anymore
-                final Class<?> fieldTypeSuperclass = superclass.getSuperclass();
-                if (fieldTypeSuperclass == null || !Module.class.isAssignableFrom(fieldTypeSuperclass)) {
-                    break;
-                }
-
-                // Continue with new superclass
-                superclass = fieldTypeSuperclass;
-
-            } while (dependency == null);
+            for (int i = 0; i < keys.length && dependency == null; i++) {
+                dependency = registry.getModule(keys[i]);
+            }
 
             return injectField(module, dependency);
         }
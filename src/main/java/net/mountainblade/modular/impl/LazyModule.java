@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.ModuleManager;
+import net.mountainblade.modular.ModuleState;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Represents the handler behind the proxy of a lazy module (see
+ * {@link net.mountainblade.modular.annotations.Implementation#lazy()}).
+ *
+ * <p>The proxy gets registered in place of the actual module. The module itself only gets created, injected and
+ * initialized once a method gets called on the proxy for the first time, or once the module gets looked up by its
+ * implementation class. From then on all calls get passed on to it, and the registry hands out the actual module.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class LazyModule implements InvocationHandler {
+    private final ModuleManager manager;
+    private final ModuleLoader loader;
+    private final ModuleLoader.ClassEntry classEntry;
+    private final ModuleInformationImpl information;
+    private final ModuleRegistry.Entry moduleEntry;
+
+    private volatile Module instance;
+    private boolean closed;
+
+
+    private LazyModule(ModuleManager manager, ModuleLoader loader, ModuleLoader.ClassEntry classEntry,
+                       ModuleInformationImpl information, ModuleRegistry.Entry moduleEntry) {
+        this.manager = manager;
+        this.loader = loader;
+        this.classEntry = classEntry;
+        this.information = information;
+        this.moduleEntry = moduleEntry;
+    }
+
+    /**
+     * Creates a new proxy for the given module. The module class needs to be an interface.
+     *
+     * @param manager        The manager to initialize the module with
+     * @param loader         The loader to initialize the module with
+     * @param classEntry     The module's class entry
+     * @param information    The module's information
+     * @param moduleEntry    The module's registry entry
+     * @return The proxy
+     */
+    static Module newProxy(ModuleManager manager, ModuleLoader loader, ModuleLoader.ClassEntry classEntry,
+                           ModuleInformationImpl information, ModuleRegistry.Entry moduleEntry) {
+        return (Module) Proxy.newProxyInstance(classEntry.getImplementation().getClassLoader(),
+                new Class[]{classEntry.getModule()},
+                new LazyModule(manager, loader, classEntry, information, moduleEntry));
+    }
+
+    /**
+     * Gets the actual module behind the given one, creating it if needed.
+     *
+     * @param module    The module, which might be a lazy proxy
+     * @return The actual module
+     */
+    static Module resolve(Module module) {
+        final LazyModule lazy = of(module);
+        return lazy == null ? module : lazy.getInstance();
+    }
+
+    /**
+     * Releases the given module when shutting down. Lazy modules that have never been used are simply marked as shut
+     * down, since there is nothing to shut down yet.
+     *
+     * @param module    The module, which might be a lazy proxy
+     * @return The actual module to shut down, or null if there is none
+     */
+    static Module release(Module module) {
+        final LazyModule lazy = of(module);
+        return lazy == null ? module : lazy.close();
+    }
+
+    private static LazyModule of(Module module) {
+        if (module == null || !Proxy.isProxyClass(module.getClass())) {
+            return null;
+        }
+
+        final InvocationHandler handler = Proxy.getInvocationHandler(module);
+        return handler instanceof LazyModule ? (LazyModule) handler : null;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        // Do not wake the module for the basic object methods, those are used by collections and the like
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+
+                case "toString":
+                    return "Lazy module: " + classEntry.getImplementation().getName();
+            }
+        }
+
+        try {
+            return method.invoke(getInstance(), args);
+
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Module getInstance() {
+        Module module = instance;
+
+        if (module == null) {
+            synchronized (this) {
+                module = instance;
+
+                if (module == null) {
+                    module = instance = create();
+                }
+            }
+        }
+
+        return module;
+    }
+
+    private Module create() {
+        if (closed) {
+            throw new IllegalStateException("Module has already been shut down: " + classEntry.getImplementation());
+        }
+
+        try {
+            final Module module = loader.newInstance(classEntry.getImplementation(), moduleEntry);
+
+            // Initialize just like any other module would, but wait for it since somebody needs it right now
+            final CompletionStage<?> initialization = loader.injectAndInitialize(manager, module, information,
+                    moduleEntry, loader);
+
+            if (initialization != null) {
+                initialization.toCompletableFuture().get();
+            }
+
+            // The proxy stays registered as the module, lookups get the real thing from now on
+            information.setState(ModuleState.READY);
+            moduleEntry.setModule(module);
+
+            return module;
+
+        } catch (NoSuchMethodException | InvocationTargetException | InstantiationException |
+                IllegalAccessException e) {
+            throw new IllegalStateException("Could not instantiate lazy module: " + classEntry.getImplementation(), e);
+
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not initialize lazy module: " + classEntry.getImplementation(),
+                    e.getCause());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while initializing lazy module: " +
+                    classEntry.getImplementation(), e);
+        }
+    }
+
+    private synchronized Module close() {
+        closed = true;
+
+        if (instance == null) {
+            information.setState(ModuleState.SHUTDOWN);
+        }
+
+        return instance;
+    }
+
+}
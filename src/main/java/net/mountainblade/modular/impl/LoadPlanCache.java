@@ -0,0 +1,418 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import net.mountainblade.modular.Filter;
+import net.mountainblade.modular.Module;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Represents a persistent cache for load plans: the sorted modules (and their dependencies) that a call to
+ * {@link BaseModuleManager#loadModules(Collection, String, Filter...)} came up with. With a valid plan the modules can
+ * be instantiated right away, without scanning, filtering or sorting anything.
+ *
+ * <p>Plans are keyed by the URIs, the package root and the filters they have been created with. Only the built-in
+ * filters are known to decide the same way whenever they have been configured the same way, so loading with any other
+ * filter does not use plans at all. Every plan stores a fingerprint of all locations involved: the size,
+ * modification time and {@link ZipDirectory#checksum(File) central directory checksum} of JAR files, and the names,
+ * sizes and modification times of all files within folders. Once any of those change, the plan gets discarded and
+ * built again.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class LoadPlanCache {
+    private static final Logger LOG = Logger.getLogger(LoadPlanCache.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x4D4F4450;
+    private static final int VERSION = 2;
+
+    private final File file;
+    private final Map<String, Plan> plans;
+    private boolean dirty;
+
+
+    LoadPlanCache(File file) {
+        this.file = file;
+        this.plans = new THashMap<>();
+
+        load();
+    }
+
+    /**
+     * Gets the plan for the given inputs, but only if none of the locations it has been created from changed since.
+     *
+     * @param uris       The URIs
+     * @param root       The package root
+     * @param filters    The filters
+     * @return The valid plan or null if there is none
+     */
+    synchronized Plan get(Collection<URI> uris, String root, Filter[] filters) {
+        final String key = getKey(uris, root, filters);
+        final Plan plan = key != null ? plans.get(key) : null;
+
+        if (plan == null) {
+            return null;
+        }
+
+        for (int i = 0; i < plan.locations.length; i++) {
+            if (fingerprint(plan.locations[i]) != plan.fingerprints[i]) {
+                LOG.fine("Load plan is out of date, since its location changed: " + plan.locations[i]);
+
+                plans.remove(key);
+                dirty = true;
+                return null;
+            }
+        }
+
+        return plan;
+    }
+
+    /**
+     * Stores the plan for the given inputs.
+     *
+     * @param uris            The URIs
+     * @param root            The package root
+     * @param filters         The filters
+     * @param locations       All locations that have been looked at, including the ones found within folders
+     * @param order           The modules in topological order
+     * @param requirements    The modules each module depends on
+     */
+    synchronized void put(Collection<URI> uris, String root, Filter[] filters, Collection<URI> locations,
+                          List<ModuleLoader.ClassEntry> order,
+                          Map<ModuleLoader.ClassEntry, Collection<ModuleLoader.ClassEntry>> requirements) {
+        final String key = getKey(uris, root, filters);
+        if (key == null) {
+            return;
+        }
+
+        final TObjectIntHashMap<ModuleLoader.ClassEntry> indices = new TObjectIntHashMap<>(order.size(), 0.5f, -1);
+        final String[] classNames = new String[order.size()];
+        final int[][] dependencies = new int[order.size()][];
+
+        for (int i = 0; i < order.size(); i++) {
+            indices.put(order.get(i), i);
+            classNames[i] = order.get(i).getImplementation().getName();
+        }
+
+        for (int i = 0; i < order.size(); i++) {
+            final Collection<ModuleLoader.ClassEntry> required = requirements.get(order.get(i));
+            final List<Integer> list = new ArrayList<>();
+
+            if (required != null) {
+                for (ModuleLoader.ClassEntry requirement : required) {
+                    if (indices.get(requirement) >= 0) {
+                        list.add(indices.get(requirement));
+                    }
+                }
+            }
+
+            dependencies[i] = new int[list.size()];
+            for (int j = 0; j < dependencies[i].length; j++) {
+                dependencies[i][j] = list.get(j);
+            }
+        }
+
+        // The given URIs come first, so new files in plugin folders get noticed as well
+        final List<URI> all = new ArrayList<>(uris);
+        for (URI location : locations) {
+            if (!all.contains(location)) {
+                all.add(location);
+            }
+        }
+
+        final URI[] locationArray = all.toArray(new URI[all.size()]);
+        final long[] fingerprints = new long[locationArray.length];
+
+        for (int i = 0; i < locationArray.length; i++) {
+            fingerprints[i] = fingerprint(locationArray[i]);
+        }
+
+        plans.put(key, new Plan(locationArray, fingerprints, classNames, dependencies));
+        dirty = true;
+    }
+
+    /**
+     * Writes the cache to disk if anything changed.
+     */
+    synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            LOG.warning("Could not create folder for the load plans: " + parent);
+            return;
+        }
+
+        try {
+            final File temp = File.createTempFile(file.getName(), ".tmp", parent);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(plans.size());
+
+                for (Map.Entry<String, Plan> entry : plans.entrySet()) {
+                    final Plan plan = entry.getValue();
+
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(plan.locations.length);
+
+                    for (int i = 0; i < plan.locations.length; i++) {
+                        out.writeUTF(plan.locations[i].toString());
+                        out.writeLong(plan.fingerprints[i]);
+                    }
+
+                    out.writeInt(plan.classNames.length);
+
+                    for (int i = 0; i < plan.classNames.length; i++) {
+                        out.writeUTF(plan.classNames[i]);
+                        out.writeInt(plan.dependencies[i].length);
+
+                        for (int dependency : plan.dependencies[i]) {
+                            out.writeInt(dependency);
+                        }
+                    }
+                }
+            }
+
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not write load plans: " + file, e);
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.info("Ignoring load plans with unknown format: " + file);
+                return;
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                final String key = in.readUTF();
+
+                final URI[] locations = new URI[in.readInt()];
+                final long[] fingerprints = new long[locations.length];
+
+                for (int j = 0; j < locations.length; j++) {
+                    locations[j] = URI.create(in.readUTF());
+                    fingerprints[j] = in.readLong();
+                }
+
+                final String[] classNames = new String[in.readInt()];
+                final int[][] dependencies = new int[classNames.length][];
+
+                for (int j = 0; j < classNames.length; j++) {
+                    classNames[j] = in.readUTF();
+                    dependencies[j] = new int[in.readInt()];
+
+                    for (int k = 0; k < dependencies[j].length; k++) {
+                        dependencies[j][k] = in.readInt();
+                    }
+                }
+
+                plans.put(key, new Plan(locations, fingerprints, classNames, dependencies));
+            }
+
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.log(Level.INFO, "Could not read load plans, starting without any: " + file, e);
+            plans.clear();
+        }
+    }
+
+    private static String getKey(Collection<URI> uris, String root, Filter[] filters) {
+        final StringBuilder builder = new StringBuilder(root);
+
+        for (URI uri : uris) {
+            builder.append('\n').append(uri);
+        }
+
+        builder.append('\n');
+
+        for (Filter filter : filters) {
+            // Other filters might decide differently without us being able to tell
+            if (filter.getClass() != Filter.InstanceOf.class && filter.getClass() != Filter.AnnotationPresent.class) {
+                return null;
+            }
+
+            builder.append(filter).append(';');
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Calculates the fingerprint of the given JAR file or folder.
+     *
+     * @param uri    The location
+     * @return The fingerprint, or zero if there is nothing at that location
+     */
+    static long fingerprint(URI uri) {
+        final File jar = ScanCache.toFile(uri);
+        final CRC32 crc = new CRC32();
+
+        try {
+            if (jar != null) {
+                if (!jar.isFile()) {
+                    return 0;
+                }
+
+                update(crc, jar.length(), jar.lastModified(), ZipDirectory.checksum(jar));
+                return crc.getValue();
+            }
+
+            if (!"file".equalsIgnoreCase(uri.getScheme()) || !new File(uri).isDirectory()) {
+                return 0;
+            }
+
+            // Walk the whole tree, but only look at the file attributes, not the contents
+            final Path root = new File(uri).toPath();
+
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    crc.update(root.relativize(file).toString().toLowerCase(Locale.ROOT).getBytes(UTF_8));
+                    update(crc, attrs.size(), attrs.lastModifiedTime().toMillis(), 0);
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+            return crc.getValue();
+
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Could not fingerprint location: " + uri, e);
+            return 0;
+        }
+    }
+
+    private static void update(CRC32 crc, long size, long lastModified, long hash) {
+        crc.update(ByteBuffer.allocate(24).putLong(size).putLong(lastModified).putLong(hash).array());
+    }
+
+
+    /**
+     * Represents a stored load plan.
+     */
+    static final class Plan {
+        private final URI[] locations;
+        private final long[] fingerprints;
+        private final String[] classNames;
+        private final int[][] dependencies;
+
+
+        private Plan(URI[] locations, long[] fingerprints, String[] classNames, int[][] dependencies) {
+            this.locations = locations;
+            this.fingerprints = fingerprints;
+            this.classNames = classNames;
+            this.dependencies = dependencies;
+        }
+
+        /**
+         * Gets the locations the plan has been created from, which need to be on the classpath.
+         *
+         * @return The locations
+         */
+        URI[] getLocations() {
+            return locations;
+        }
+
+        /**
+         * Gets the modules in topological order, along with the modules each one of them depends on.
+         *
+         * @param loader          The loader to load the classes with
+         * @param requirements    The map to put the dependencies of each module into
+         * @return The modules, or null if one of them could not be loaded anymore
+         */
+        @SuppressWarnings("unchecked")
+        List<ModuleLoader.ClassEntry> restore(ModuleLoader loader,
+                                              Map<ModuleLoader.ClassEntry, Collection<ModuleLoader.ClassEntry>>
+                                                      requirements) {
+            final List<ModuleLoader.ClassEntry> order = new ArrayList<>(classNames.length);
+
+            for (String className : classNames) {
+                try {
+                    final Class<?> aClass = loader.getRealm().loadClass(className);
+                    final ModuleLoader.ClassEntry classEntry = loader.isValidModuleClass(aClass) ?
+                            loader.getClassEntry((Class<? extends Module>) aClass) : null;
+
+                    if (classEntry == null) {
+                        return null;
+                    }
+
+                    order.add(classEntry);
+
+                } catch (ClassNotFoundException | LinkageError e) {
+                    LOG.log(Level.FINE, "Could not load planned module: " + className, e);
+                    return null;
+                }
+            }
+
+            for (int i = 0; i < order.size(); i++) {
+                final Collection<ModuleLoader.ClassEntry> required = new ArrayList<>(dependencies[i].length);
+
+                for (int dependency : dependencies[i]) {
+                    required.add(order.get(dependency));
+                }
+
+                if (!required.isEmpty()) {
+                    requirements.put(order.get(i), required);
+                }
+            }
+
+            return order;
+        }
+
+    }
+
+}
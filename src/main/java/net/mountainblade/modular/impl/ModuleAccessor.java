@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.ModuleManager;
+
+/**
+ * Represents a generated accessor for a module implementation, which creates, injects and initializes modules without
+ * using reflection. Implementations get generated at runtime (see {@link BaseModuleManager#enableGeneratedAccessors}),
+ * this interface only needs to be public so the generated classes can implement it.
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+public interface ModuleAccessor {
+
+    /**
+     * Creates a new instance of the module.
+     *
+     * @return The new module
+     */
+    Module create();
+
+    /**
+     * Sets the value of the field with the given index.
+     *
+     * @param module    The module
+     * @param index     The index of the field
+     * @param value     The value
+     */
+    void set(Module module, int index, Object value);
+
+    /**
+     * Calls the initialize method of the module.
+     *
+     * @param module     The module
+     * @param manager    The manager
+     * @return What the method returned
+     */
+    Object initialize(Module module, ModuleManager manager);
+
+    /**
+     * Calls the shutdown method of the module.
+     *
+     * @param module     The module
+     * @param manager    The manager
+     * @return What the method returned
+     */
+    Object shutdown(Module module, ModuleManager manager);
+
+}
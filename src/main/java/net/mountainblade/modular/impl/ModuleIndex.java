@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * Represents the compile-time module index, a plain list of class names (one per line) that contain modular
+ * annotations. The index gets generated by the annotation processor in the <code>modular-processor</code> artifact
+ * and lets us skip scanning archives and folders that contain one.
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+public final class ModuleIndex {
+    /** The location of the index inside a JAR file or classpath folder */
+    public static final String LOCATION = "META-INF/modular/index";
+
+    /** The charset the index is written in */
+    public static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** Lines starting with this character will be ignored */
+    public static final char COMMENT = '#';
+
+
+    private ModuleIndex() {
+        // Private constructor, this is a helper class
+    }
+
+    /**
+     * Reads all class names from the given index.
+     *
+     * @param stream    The stream to read the index from
+     * @return The list of class names in the index
+     * @throws IOException when the index could not be read
+     */
+    public static Collection<String> read(InputStream stream) throws IOException {
+        final Collection<String> classNames = new LinkedList<>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(stream, CHARSET));
+
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            line = line.trim();
+
+            if (!line.isEmpty() && line.charAt(0) != COMMENT) {
+                classNames.add(line);
+            }
+        }
+
+        return classNames;
+    }
+
+}
@@ -31,7 +31,7 @@ class ModuleInformationImpl implements ModuleInformation {
     private final Collection<String> authors;
     private final Version version;
 
-    private ModuleState state;
+    private volatile ModuleState state;
 
 
     ModuleInformationImpl(Implementation annotation) {
@@ -15,6 +15,7 @@
  */
 package net.mountainblade.modular.impl;
 
+import com.google.common.cache.CacheBuilder;
 import gnu.trove.map.hash.THashMap;
 import gnu.trove.set.hash.THashSet;
 import gnu.trove.set.hash.TLinkedHashSet;
@@ -28,14 +29,28 @@ import net.mountainblade.modular.annotations.Requires;
 import org.codehaus.plexus.classworlds.realm.ClassRealm;
 import org.codehaus.plexus.classworlds.strategy.Strategy;
 
+import java.io.File;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -47,24 +62,39 @@ import java.util.logging.Logger;
  */
 public final class ModuleLoader extends Destroyable {
     private static final Logger LOG = Logger.getLogger(ModuleLoader.class.getName());
+    static final Annotations.Lifecycle INITIALIZE =
+            Annotations.lifecycle(Initialize.class, 0, ModuleManager.class);
 
-    /** A map containing all meta data about the indexed classes */
-    private static final Map<Class<?>, ClassEntry> CLASS_CACHE = new THashMap<>();
-
-    /** A set of classes that have been skipped as they contain no information (and should be skipped in the future) */
-    private static final Collection<Class<?>> INVALID_CACHE = new THashSet<>();
+    /** The maximum number of classes each of the caches may hold, zero or less means there's no limit */
+    private static final long CACHE_SIZE = Long.getLong("modular.classCacheSize", 0);
 
     private final ClassRealm realm;
     private final ModuleRegistry registry;
     private final Injector injector;
+    private final ClassFileScanner scanner;
+
+    /** A map containing all meta data about the indexed classes, only lives as long as the realm does */
+    private final ConcurrentMap<Class<?>, ClassEntry> classCache;
+
+    /** A set of classes that have been skipped as they contain no information (and should be skipped in the future) */
+    private final Collection<Class<?>> invalidCache;
+
+    /** The modules that are being loaded right now, by their implementation */
+    private final ConcurrentMap<Class<? extends Module>, CompletableFuture<Module>> loading;
 
     private final Collection<Class<?>> ignores;
+    private volatile ExecutorService executor;
 
 
     public ModuleLoader(ClassRealm realm, ModuleRegistry registry, Injector injector) {
         this.realm = realm;
         this.registry = registry;
         this.injector = injector;
+        this.scanner = new ClassFileScanner(realm);
+
+        this.classCache = newCache();
+        this.invalidCache = Collections.newSetFromMap(ModuleLoader.<Class<?>, Boolean>newCache());
+        this.loading = new ConcurrentHashMap<>();
 
         ignores = new THashSet<>();
     }
@@ -112,55 +142,131 @@ public final class ModuleLoader extends Destroyable {
         return ignores.add(ignore);
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Sets the executor used to load classes and extract their meta data during the filter phase. Without one all
+     * classes get loaded on the calling thread.
+     *
+     * @param executor    The executor, or null
+     */
+    void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
     Collection<ClassEntry> filter(BaseModuleManager manager, Map<URI, Collection<String>> classNames,
                                   Collection<String> list) {
-        final Collection<Class<? extends Module>> candidates = new TLinkedHashSet<>();
-        final Collection<ClassEntry> moduleClasses = new LinkedList<>();
+        final Map<URI, List<String>> loadable = new LinkedHashMap<>();
+        final Map<URI, List<String>> outside = new THashMap<>();
+        final Collection<URI> validLocations = new THashSet<>();
 
-        // Walk over each location first, then build the list of potential modules
+        final ScanCache cache = BaseModuleManager.getScanCache();
+
+        // Walk over each location first and check which classes could be modules at all
         for (Map.Entry<URI, Collection<String>> entry : classNames.entrySet()) {
-            boolean hasValidModule = false;
+            final ScanCache.Entry cacheEntry = cache != null ? cache.get(entry.getKey()) : null;
+            final List<String> names = new ArrayList<>();
+            final List<String> others = new ArrayList<>();
+            boolean indexed = false;
 
             for (String className : entry.getValue()) {
-                try {
-                    final Class<?> aClass = realm.loadClass(className);
+                Boolean candidate = cacheEntry != null ? cacheEntry.isCandidate(className) : null;
 
-                    // We can safely ignore any interfaces, since we only want to get implementations
-                    if (isValidModuleClass(aClass)) {
-                        hasValidModule = true;
+                if (candidate == null) {
+                    // Read the class headers first, so we only need to load the classes that could actually be modules
+                    if (!indexed) {
+                        scanner.index(entry.getKey(), entry.getValue());
+                        indexed = true;
+                    }
 
-                        if (list.contains(className)) {
-                            candidates.add((Class<? extends Module>) aClass);
-                        }
+                    candidate = scanner.isCandidate(className);
+
+                    if (cacheEntry != null) {
+                        cacheEntry.setCandidate(className, candidate, scanner.getSources(className));
                     }
+                }
+
+                if (!candidate) {
+                    continue;
+                }
+
+                // Classes outside of the requested package only tell us if the location contains modules at all
+                if (!list.contains(className)) {
+                    others.add(className);
+                    continue;
+                }
+
+                names.add(className);
+            }
+
+            loadable.put(entry.getKey(), names);
+            outside.put(entry.getKey(), others);
+        }
+
+        // Then load the potential modules (possibly in parallel), but keep them in the order we found them
+        final List<String> allNames = new ArrayList<>();
+        for (List<String> names : loadable.values()) {
+            allNames.addAll(names);
+        }
+
+        final List<Class<? extends Module>> loaded = map(allNames, new Mapper<String, Class<? extends Module>>() {
+            @Override
+            public Class<? extends Module> apply(String className) {
+                return loadModuleClass(className);
+            }
+        });
+
+        final Collection<Class<? extends Module>> candidates = new TLinkedHashSet<>();
+        final Iterator<Class<? extends Module>> iterator = loaded.iterator();
 
-                } catch (ClassNotFoundException e1) {
-                    LOG.log(Level.WARNING, "Could not load class: " + className, e1);
+        for (Map.Entry<URI, List<String>> entry : loadable.entrySet()) {
+            for (int i = entry.getValue().size(); i > 0; i--) {
+                final Class<? extends Module> aClass = iterator.next();
 
-                } catch (NoClassDefFoundError e) {
-                    if (!BaseModuleManager.thoroughSearchEnabled()) {
-                        LOG.log(Level.INFO, "Could not load class that was available at compile time for: " + className +
-                                "! This often seems to be a problem with shading, please check the classes / build script", e);
+                if (aClass != null) {
+                    validLocations.add(entry.getKey());
+                    candidates.add(aClass);
+                }
+            }
+
+            // The header only makes a guess, so the classes outside of the package need to load as modules as well
+            if (!validLocations.contains(entry.getKey())) {
+                for (String className : outside.get(entry.getKey())) {
+                    if (loadModuleClass(className) != null) {
+                        validLocations.add(entry.getKey());
+                        break;
                     }
                 }
             }
 
             // If the whole URI did not contain a single valid module, blacklist that one
-            if (!hasValidModule) {
+            if (!validLocations.contains(entry.getKey())) {
                 manager.blacklist(entry.getKey());
             }
         }
 
         // Go through each candidate to search if we got one that got overwritten by a subclass, that's the sole purpose
         // of all this ordering and looping - to detect if an implementation became obsolete by a sub-implementation
+        final Collection<Class<?>> superclasses = new THashSet<>(candidates.size());
         for (Class<? extends Module> candidate : candidates) {
-            if (candidateIsObsolete(candidate, candidates)) {
-                continue;
+            superclasses.add(candidate.getSuperclass());
+        }
+
+        final List<Class<? extends Module>> implementations = new ArrayList<>(candidates.size());
+        for (Class<? extends Module> candidate : candidates) {
+            if (!superclasses.contains(candidate)) {
+                implementations.add(candidate);
+            }
+        }
+
+        // Try to get class entries and add them to our classes
+        final List<ClassEntry> classEntries = map(implementations, new Mapper<Class<? extends Module>, ClassEntry>() {
+            @Override
+            public ClassEntry apply(Class<? extends Module> implementation) {
+                return getClassEntry(implementation);
             }
+        });
 
-            // Try to get class entry and add to our classes
-            final ClassEntry classEntry = getClassEntry(candidate);
+        final Collection<ClassEntry> moduleClasses = new LinkedList<>();
+        for (ClassEntry classEntry : classEntries) {
             if (classEntry != null) {
                 moduleClasses.add(classEntry);
             }
@@ -169,57 +275,226 @@ public final class ModuleLoader extends Destroyable {
         return moduleClasses;
     }
 
-    boolean isValidModuleClass(Class<?> aClass) {
-        return !aClass.isInterface() && !Module.class.equals(aClass) && Module.class.isAssignableFrom(aClass);
+    @SuppressWarnings("unchecked")
+    private Class<? extends Module> loadModuleClass(String className) {
+        try {
+            final Class<?> aClass = realm.loadClass(className);
+
+            // We can safely ignore any interfaces, since we only want to get implementations
+            if (isValidModuleClass(aClass)) {
+                return (Class<? extends Module>) aClass;
+            }
+
+        } catch (ClassNotFoundException e1) {
+            LOG.log(Level.WARNING, "Could not load class: " + className, e1);
+
+        } catch (NoClassDefFoundError e) {
+            if (!BaseModuleManager.thoroughSearchEnabled()) {
+                LOG.log(Level.INFO, "Could not load class that was available at compile time for: " + className +
+                        "! This often seems to be a problem with shading, please check the classes / build script", e);
+            }
+        }
+
+        return null;
     }
 
-    private boolean candidateIsObsolete(Class<? extends Module> candidate, Collection<Class<? extends Module>> others) {
-        for (Class<? extends Module> other : others) {
-            if (other.getSuperclass() == candidate) {
-                return true;
+    private <T, R> List<R> map(final List<T> input, final Mapper<T, R> mapper) {
+        final ExecutorService executor = this.executor;
+        final int size = input.size();
+
+        @SuppressWarnings("unchecked")
+        final R[] results = (R[]) new Object[size];
+
+        if (executor == null || size < 2) {
+            for (int i = 0; i < size; i++) {
+                results[i] = mapper.apply(input.get(i));
+            }
+
+            return Arrays.asList(results);
+        }
+
+        // Split the work into a couple of slices per core, so the tasks do not get too small
+        final int slices = Math.min(size, Runtime.getRuntime().availableProcessors() * 4);
+        final List<Future<?>> futures = new ArrayList<>(slices);
+
+        for (int slice = 0; slice < slices; slice++) {
+            final int from = (int) ((long) size * slice / slices);
+            final int to = (int) ((long) size * (slice + 1) / slices);
+
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = from; i < to; i++) {
+                        results[i] = mapper.apply(input.get(i));
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while loading module classes", e);
+
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+
+                throw new RuntimeException("Could not load module classes", e.getCause());
             }
         }
 
-        return false;
+        return Arrays.asList(results);
+    }
+
+    boolean isValidModuleClass(Class<?> aClass) {
+        return !aClass.isInterface() && !Module.class.equals(aClass) && Module.class.isAssignableFrom(aClass);
     }
 
     public Module loadModule(ModuleManager moduleManager, ClassEntry classEntry) {
+        return await(loadModuleAsync(moduleManager, classEntry));
+    }
+
+    /**
+     * Loads the given module without waiting for an asynchronous initialization (see {@link Initialize}) to finish.
+     * The module only gets registered (and thus set to ready) once its initialization has completed.
+     *
+     * @param moduleManager    The manager to initialize the module with
+     * @param classEntry       The module to load
+     * @return A future that completes with the module, or null if it could not be loaded
+     */
+    public CompletableFuture<Module> loadModuleAsync(ModuleManager moduleManager, ClassEntry classEntry) {
+        final Class<? extends Module> implementation = classEntry.getImplementation();
+
         // Try to get "from cache" first. We do not allow two modules be activated at the same time, so lets use that
-        Module module = registry.getModule(classEntry.getImplementation());
+        Module module = getLoadedModule(implementation);
         if (module != null) {
-            return module;
+            return CompletableFuture.completedFuture(module);
+        }
+
+        // Modules that are still being initialized (asynchronously, for example) have a future we can wait for
+        final ModuleRegistry.Entry existing = registry.getEntry(classEntry.getModule());
+        final CompletableFuture<Module> initializing = existing != null ? existing.getFuture() : null;
+
+        if (initializing != null && existing.getModule() == null) {
+            return initializing;
         }
 
+        // Only one caller gets to create the module, everyone else waits for it
+        final CompletableFuture<Module> future = new CompletableFuture<>();
+        final CompletableFuture<Module> pending = loading.putIfAbsent(implementation, future);
+
+        if (pending != null) {
+            return pending;
+        }
+
+        final CompletableFuture<Module> result;
+
+        try {
+            // The module might have been finished right before we got our turn
+            module = getLoadedModule(implementation);
+            result = module != null ? CompletableFuture.completedFuture(module) :
+                    createModule(moduleManager, classEntry, future);
+
+        } catch (RuntimeException | Error e) {
+            loading.remove(implementation, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+
+        result.whenComplete(new BiConsumer<Module, Throwable>() {
+            @Override
+            public void accept(Module loaded, Throwable throwable) {
+                loading.remove(implementation, future);
+
+                if (throwable != null) {
+                    future.completeExceptionally(throwable);
+                } else {
+                    future.complete(loaded);
+                }
+            }
+        });
+
+        return future;
+    }
+
+    private Module getLoadedModule(Class<? extends Module> implementation) {
+        final ModuleRegistry.Entry existing = registry.getEntry(implementation);
+        return existing == null ? null : existing.getModule();
+    }
+
+    private CompletableFuture<Module> createModule(ModuleManager moduleManager, ClassEntry classEntry,
+                                                   CompletableFuture<Module> future) {
+        Module module;
+
         // Seems like we haven't loaded that module before, so let's get started
         final ModuleInformationImpl information = new ModuleInformationImpl(classEntry.getAnnotation());
         final ModuleRegistry.Entry moduleEntry = registry.createEntry(classEntry.getModule(), information);
+        moduleEntry.setFuture(future);
+
+        // Lazy modules only get a stand-in for now, we can only do that for interfaces though
+        if (classEntry.getAnnotation().lazy()) {
+            if (classEntry.getModule().isInterface()) {
+                module = LazyModule.newProxy(moduleManager, this, classEntry, information, moduleEntry);
+                moduleEntry.setModule(module);
+
+                registry.addModule(classEntry.getModule(), moduleEntry, false);
+                registry.addModule(classEntry.getImplementation(), moduleEntry, true);
+
+                return CompletableFuture.completedFuture(module);
+            }
+
+            LOG.fine("Loading lazy module right away, since it does not implement a module interface: " +
+                    classEntry.getImplementation().getName());
+        }
 
         try {
             // Instantiate module
-            final Constructor<? extends Module> constructor = classEntry.getImplementation().getDeclaredConstructor();
-            constructor.setAccessible(true);
-            module = constructor.newInstance();
+            module = newInstance(classEntry.getImplementation(), moduleEntry);
 
             // Set to load and initialize the module
-            injectAndInitialize(moduleManager, module, information, moduleEntry, this);
+            final CompletionStage<?> initialization = injectAndInitialize(moduleManager, module, information,
+                    moduleEntry, this);
 
             // Set to ready and add to registry, but also add the instance in "ghost mode"
-            registerEntry(classEntry, module, information, moduleEntry);
-
-            return module;
+            return register(classEntry, module, information, moduleEntry, initialization);
 
         } catch (NoSuchMethodException e) {
             LOG.log(Level.WARNING, "Could not find module constructor", e);
 
         } catch (InvocationTargetException | InstantiationException | IllegalAccessException e) {
             LOG.log(Level.WARNING, "Could not instantiate module implementation", e);
+
+        } catch (RuntimeException | Error e) {
+            unregister(classEntry, information, moduleEntry);
+            throw e;
         }
 
-        return null;
+        unregister(classEntry, information, moduleEntry);
+        return CompletableFuture.completedFuture(null);
     }
 
-    public void injectAndInitialize(ModuleManager manager, Module module, ModuleInformationImpl information,
-                                    ModuleRegistry.Entry moduleEntry, ModuleLoader loader) {
+    /**
+     * Injects the dependencies into the given module and calls its initialize method.
+     *
+     * @param manager        The manager to initialize the module with
+     * @param module         The module
+     * @param information    The module's information
+     * @param moduleEntry    The module's registry entry
+     * @param loader         The loader to load missing dependencies with
+     * @return The stage returned by the initialize method if it initializes asynchronously, null otherwise
+     */
+    public CompletionStage<?> injectAndInitialize(ModuleManager manager, Module module,
+                                                  ModuleInformationImpl information, ModuleRegistry.Entry moduleEntry,
+                                                  ModuleLoader loader) {
         try {
             // Set to loading state
             information.setState(ModuleState.LOADING);
@@ -228,7 +503,8 @@ public final class ModuleLoader extends Destroyable {
             injector.inject(moduleEntry, module, loader);
 
             // Call initialize method
-            Annotations.call(module, Initialize.class, 0, new Class[]{ModuleManager.class}, manager);
+            final Object result = initialize(manager, module);
+            return result instanceof CompletionStage ? (CompletionStage<?>) result : null;
 
         } catch (InjectFailedException e) {
             throw new RuntimeException("Could not load module implementation", e);
@@ -238,6 +514,69 @@ public final class ModuleLoader extends Destroyable {
         }
     }
 
+    /**
+     * Calls the initialize method of the given module, if it has one.
+     *
+     * @param manager    The manager to initialize the module with
+     * @param module     The module
+     * @return The result of the method, or null if there is none
+     * @throws InvocationTargetException when the method threw an exception
+     * @throws IllegalAccessException when the method could not be accessed
+     */
+    Object initialize(ModuleManager manager, Module module) throws InvocationTargetException, IllegalAccessException {
+        final AccessorGenerator.Accessor accessor = AccessorGenerator.get(module.getClass());
+        final ClassProfile profile = BaseModuleManager.getClassProfile();
+
+        if (profile == null) {
+            return accessor != null ? accessor.initialize(module, manager) : INITIALIZE.call(module, manager);
+        }
+
+        // Remember what the module loads, so it can be preloaded the next time
+        final Collection<String> previous = profile.startRecording();
+
+        try {
+            return accessor != null ? accessor.initialize(module, manager) : INITIALIZE.call(module, manager);
+
+        } finally {
+            profile.stopRecording(module.getClass().getName(), previous);
+        }
+    }
+
+    /**
+     * Creates a new instance of the given module implementation, using its injectable constructor (if it has one) or
+     * its default constructor.
+     *
+     * @param implementation    The module implementation
+     * @param moduleEntry       The registry entry of the new module
+     * @return The new instance
+     * @throws NoSuchMethodException when there is no default constructor
+     * @throws InvocationTargetException when the constructor threw an exception
+     * @throws InstantiationException when the implementation is abstract
+     * @throws IllegalAccessException when the constructor could not be accessed
+     */
+    Module newInstance(Class<? extends Module> implementation, ModuleRegistry.Entry moduleEntry)
+            throws NoSuchMethodException, InvocationTargetException, InstantiationException, IllegalAccessException {
+        try {
+            final Module module = injector.construct(moduleEntry, implementation);
+            if (module != null) {
+                return module;
+            }
+
+        } catch (InjectFailedException e) {
+            throw new RuntimeException("Could not load module implementation", e);
+        }
+
+        final AccessorGenerator.Accessor accessor = AccessorGenerator.get(implementation);
+        if (accessor != null) {
+            return accessor.create();
+        }
+
+        final Constructor<? extends Module> constructor = implementation.getDeclaredConstructor();
+        constructor.setAccessible(true);
+
+        return constructor.newInstance();
+    }
+
     public void registerEntry(ClassEntry classEntry, Module module, ModuleInformationImpl information,
                               ModuleRegistry.Entry moduleEntry) {
         information.setState(ModuleState.READY);
@@ -247,64 +586,153 @@ public final class ModuleLoader extends Destroyable {
         registry.addModule(classEntry.getImplementation(), moduleEntry, true);
     }
 
+    /**
+     * Removes the registry entry of a module that could not be loaded, so it does not look like it is still loading
+     * and can be loaded again later on.
+     *
+     * @param classEntry     The module's class entry
+     * @param information    The module's information
+     * @param moduleEntry    The module's registry entry
+     */
+    void unregister(ClassEntry classEntry, ModuleInformationImpl information, ModuleRegistry.Entry moduleEntry) {
+        information.setState(ModuleState.UNKNOWN);
+        moduleEntry.setFuture(null);
+
+        registry.removeEntry(classEntry.getModule(), moduleEntry);
+    }
+
+    /**
+     * Registers the given module as soon as its initialization has completed.
+     *
+     * @param classEntry        The module's class entry
+     * @param module            The module
+     * @param information       The module's information
+     * @param moduleEntry       The module's registry entry
+     * @param initialization    The stage of an asynchronous initialization, or null if it is done already
+     * @return A future that completes with the module, or null if the initialization failed
+     */
+    CompletableFuture<Module> register(final ClassEntry classEntry, final Module module,
+                                       final ModuleInformationImpl information,
+                                       final ModuleRegistry.Entry moduleEntry, CompletionStage<?> initialization) {
+        if (initialization == null) {
+            registerEntry(classEntry, module, information, moduleEntry);
+            return CompletableFuture.completedFuture(module);
+        }
+
+        final CompletableFuture<Module> future = new CompletableFuture<>();
+        initialization.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object result, Throwable throwable) {
+                if (throwable != null) {
+                    LOG.log(Level.WARNING, "Could not initialize module: " + module, throwable);
+                    unregister(classEntry, information, moduleEntry);
+                    future.complete(null);
+                    return;
+                }
+
+                registerEntry(classEntry, module, information, moduleEntry);
+                future.complete(module);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Waits for the given module to be loaded.
+     *
+     * @param future    The future of the module
+     * @return The module, or null if it could not be loaded
+     */
+    static Module await(Future<Module> future) {
+        try {
+            return future.get();
+
+        } catch (InterruptedException e) {
+            LOG.log(Level.WARNING, "Interrupted while waiting for module to initialize", e);
+            Thread.currentThread().interrupt();
+
+        } catch (ExecutionException e) {
+            LOG.log(Level.WARNING, "Could not load module", e.getCause());
+        }
+
+        return null;
+    }
+
     public ClassEntry getClassEntry(Class<? extends Module> implClass) {
         // Early checking for null, against module, and if we already checked and saw that it's invalid
         if (implClass == null || Module.class.equals(implClass) || Implementation.Default.class.equals(implClass) ||
-                Inject.Current.class.equals(implClass) || INVALID_CACHE.contains(implClass)) {
+                Inject.Current.class.equals(implClass) || invalidCache.contains(implClass)) {
             return null;
         }
 
         // Check lookup first
-        ClassEntry classEntry = CLASS_CACHE.get(implClass);
+        ClassEntry classEntry = classCache.get(implClass);
 
         // If we found nothing, take the hard route
         if (classEntry == null) {
             // We do not allow interface or annotation modules - that would not work and is thus just ... silly
             if (implClass.isInterface() || implClass.isAnnotation()) {
-                INVALID_CACHE.add(implClass);
+                invalidCache.add(implClass);
                 return null;
             }
 
             // Return null for classes that don't have the annotation
             final Implementation implementation = implClass.getAnnotation(Implementation.class);
             if (implementation == null) {
-                INVALID_CACHE.add(implClass);
+                invalidCache.add(implClass);
                 return null;
             }
 
             // Get correct module class
-            final Class<? extends Module> module;
-
-            if (!implementation.module().equals(Implementation.Default.class)) {
-                // The developer already provided the wanted class so we'll gladly use that instead
-                // We also ignore the ignore list - ba dum tss - here, since the dev. explicitly specified it
-                module = implementation.module();
+            final Class<? extends Module> module = getModuleClass(implClass, implementation);
 
-            } else {
-                // Well, no things found, so we have to discover the module class on our own
-                module = getModuleClassRecursively(implClass);
-
-                if (module == null) {
-                    INVALID_CACHE.add(implClass);
-                    return null;
-                }
+            if (module == null) {
+                invalidCache.add(implClass);
+                return null;
             }
 
             // Find requirements
             final Collection<Class<? extends Module>> requirements = new LinkedList<>();
             getRequirementsRecursively(implClass, requirements);
 
+            // The modules passed to the constructor need to be there before we can even create the module
+            requirements.addAll(injector.getConstructorDependencies(implClass));
+
             // Get dependencies via the injector, create new class entry and add to cache so we don't need to this again
             classEntry = new ClassEntry(module, implClass, implementation, injector.discover(implClass), requirements);
-            CLASS_CACHE.put(implClass, classEntry);
+
+            // Another thread might have been faster, in that case use its entry so everyone works with the same one
+            final ClassEntry existing = classCache.putIfAbsent(implClass, classEntry);
+            if (existing != null) {
+                return existing;
+            }
 
             // Also add the module, so we can get our dependencies right
-            CLASS_CACHE.put(module, classEntry);
+            classCache.put(module, classEntry);
         }
 
         return classEntry;
     }
 
+    /**
+     * Gets the module class (the one the module gets registered with) of the given implementation.
+     *
+     * @param implClass         The implementation
+     * @param implementation    The implementation annotation
+     * @return The module class, or null if there is none
+     */
+    Class<? extends Module> getModuleClass(Class<? extends Module> implClass, Implementation implementation) {
+        if (!implementation.module().equals(Implementation.Default.class)) {
+            // The developer already provided the wanted class so we'll gladly use that instead
+            // We also ignore the ignore list - ba dum tss - here, since the dev. explicitly specified it
+            return implementation.module();
+        }
+
+        // Well, no things found, so we have to discover the module class on our own
+        return getModuleClassRecursively(implClass);
+    }
+
     private void getRequirementsRecursively(Class<?> aClass, Collection<Class<? extends Module>> list) {
         final Requires[] requirements = aClass.getDeclaredAnnotationsByType(Requires.class);
         for (Requires requirement : requirements) {
@@ -325,9 +753,34 @@ public final class ModuleLoader extends Destroyable {
         }
     }
 
+    /**
+     * Forgets the class headers that have been read from the given location, so they get read again.
+     *
+     * @param uri    The JAR file or classpath folder that has changed
+     */
+    void invalidate(URI uri) {
+        if ("file".equalsIgnoreCase(uri.getScheme())) {
+            scanner.invalidate(new File(uri));
+        }
+    }
+
     @Override
     public void destroy() {
         injector.destroy();
+        scanner.clear();
+
+        // Do not keep any classes around, otherwise the realm could never be collected
+        classCache.clear();
+        invalidCache.clear();
+        loading.clear();
+    }
+
+    private static <K, V> ConcurrentMap<K, V> newCache() {
+        if (CACHE_SIZE <= 0) {
+            return new ConcurrentHashMap<>();
+        }
+
+        return CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).<K, V>build().asMap();
     }
 
     @SuppressWarnings("unchecked")
@@ -363,6 +816,12 @@ public final class ModuleLoader extends Destroyable {
     }
 
 
+    private interface Mapper<T, R> {
+
+        R apply(T input);
+
+    }
+
     public final static class ClassEntry {
         private final Class<? extends Module> module;
         private final Class<? extends Module> implementation;
@@ -21,6 +21,7 @@ import net.mountainblade.modular.ModuleInformation;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 /**
@@ -42,7 +43,13 @@ public class ModuleRegistry extends Destroyable {
     @SuppressWarnings("unchecked")
     public <M extends Module> M getModule(Class<M> moduleClass) {
         Entry entry = getEntry(moduleClass);
-        return entry == null ? null : (M) entry.getModule();
+        if (entry == null) {
+            return null;
+        }
+
+        // Lazy modules can only stand in for their interface, so we need the real thing for anything else
+        final Module module = entry.getModule();
+        return (M) (moduleClass.isInstance(module) ? module : LazyModule.resolve(module));
     }
 
     public ModuleInformation getInformation(Class<? extends Module> moduleClass) {
@@ -54,14 +61,15 @@ public class ModuleRegistry extends Destroyable {
         return Collections.unmodifiableCollection(getModuleCollection());
     }
 
-    protected void addGhostModule(Class<? extends Module> moduleClass, Module module, ModuleInformation information) {
+    protected synchronized void addGhostModule(Class<? extends Module> moduleClass, Module module,
+                                               ModuleInformation information) {
         Entry entry = new Entry(information, moduleClass);
         entry.setModule(module);
 
         addModule(moduleClass, entry, true);
     }
 
-    protected void addModule(Class<? extends Module> moduleClass, Entry entry, boolean ghost) {
+    protected synchronized void addModule(Class<? extends Module> moduleClass, Entry entry, boolean ghost) {
         getRegistry().put(moduleClass, entry);
 
         // If we're "ghosting" we just wanted to add the module to the registration, but it is not a "real" module
@@ -70,7 +78,7 @@ public class ModuleRegistry extends Destroyable {
         }
     }
 
-    protected  Entry createEntry(Class<? extends Module> moduleClass, ModuleInformation information) {
+    protected synchronized Entry createEntry(Class<? extends Module> moduleClass, ModuleInformation information) {
         if (moduleClass == null) {
             return null;
         }
@@ -81,12 +89,24 @@ public class ModuleRegistry extends Destroyable {
         return entry;
     }
 
-    protected Entry getEntry(Class<? extends Module> moduleClass) {
+    /**
+     * Removes the given entry, unless the module class has been registered with another one in the meantime.
+     *
+     * @param moduleClass    The module class
+     * @param entry          The entry to remove
+     */
+    protected synchronized void removeEntry(Class<? extends Module> moduleClass, Entry entry) {
+        if (moduleClass != null && getRegistry().get(moduleClass) == entry) {
+            getRegistry().remove(moduleClass);
+        }
+    }
+
+    protected synchronized Entry getEntry(Class<? extends Module> moduleClass) {
         return moduleClass == null ? null : getRegistry().get(moduleClass);
     }
 
     @Override
-    protected void destroy() {
+    protected synchronized void destroy() {
         getRegistry().clear();
         getModuleCollection().clear();
     }
@@ -103,8 +123,9 @@ public class ModuleRegistry extends Destroyable {
     public static final class Entry {
         private final ModuleInformation information;
         private final Class<? extends Module> moduleClass;
-        private Module module;
-        private Logger logger;
+        private volatile Module module;
+        private volatile Logger logger;
+        private volatile CompletableFuture<Module> future;
 
 
         protected Entry(ModuleInformation information, Class<? extends Module> moduleClass) {
@@ -136,6 +157,20 @@ public class ModuleRegistry extends Destroyable {
             this.logger = logger;
         }
 
+        /**
+         * Gets the future of the module while it is being loaded, which completes once the module has been registered
+         * (or could not be loaded).
+         *
+         * @return The future, or null if the module is not being loaded by a module loader
+         */
+        public CompletableFuture<Module> getFuture() {
+            return future;
+        }
+
+        protected void setFuture(CompletableFuture<Module> future) {
+            this.future = future;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -0,0 +1,361 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import net.mountainblade.modular.Module;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Represents a scheduler that runs module lifecycle calls in parallel, following their dependencies.
+ *
+ * <p>Every module gets submitted to the executor as soon as all of the modules it has to wait for are done (think of a
+ * wave going through the dependency graph). When loading, a module waits for its dependencies. When shutting down, it
+ * waits for the modules that depend on it. If a module fails to load, all modules depending on it (directly or not)
+ * get cancelled, while everything else carries on.</p>
+ *
+ * <p>Waiting for a wave blocks the calling thread. A module that loads (or shuts down) other modules from within its
+ * own lifecycle call must therefore not start a wave of its own, since it would keep one of the executor's threads
+ * busy while waiting for others, which a bounded executor might never hand out. Managers check
+ * {@link #isRunning()} and do nested calls one after another on the calling thread instead.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class ModuleScheduler {
+    private static final Logger LOG = Logger.getLogger(ModuleScheduler.class.getName());
+
+    private static final int WAITING = 0;
+    private static final int SCHEDULED = 1;
+    private static final int DONE = 2;
+    private static final int CANCELLED = 3;
+
+    /** Whether the current thread is running a lifecycle call of a wave */
+    private static final ThreadLocal<Boolean> RUNNING = new ThreadLocal<>();
+
+    private final ExecutorService executor;
+
+
+    ModuleScheduler(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Checks whether the current thread is running a lifecycle call that has been scheduled by a wave.
+     *
+     * @return True if it is, false otherwise
+     */
+    static boolean isRunning() {
+        return RUNNING.get() != null;
+    }
+
+    /**
+     * Loads the given modules and waits until all of them are either loaded or cancelled.
+     *
+     * @param manager         The manager to load the modules with
+     * @param loader          The loader to load the modules with
+     * @param order           The modules in topological order
+     * @param requirements    The modules each module depends on
+     * @return The loaded modules, in the given order
+     */
+    Collection<Module> load(final BaseModuleManager manager, final ModuleLoader loader,
+                            final List<ModuleLoader.ClassEntry> order,
+                            Map<ModuleLoader.ClassEntry, Collection<ModuleLoader.ClassEntry>> requirements) {
+        final Module[] modules = new Module[order.size()];
+        final Wave wave = new Wave(order.size(), new Task() {
+            @Override
+            public CompletionStage<Boolean> run(final int index) {
+                // Modules that initialize asynchronously do not keep the thread busy while we wait for them
+                return loader.loadModuleAsync(manager, order.get(index)).thenApply(new Function<Module, Boolean>() {
+                    @Override
+                    public Boolean apply(Module module) {
+                        modules[index] = module;
+                        return module != null;
+                    }
+                });
+            }
+
+            @Override
+            public String describe(int index) {
+                return order.get(index).getImplementation().getName();
+            }
+        });
+
+        final TObjectIntHashMap<ModuleLoader.ClassEntry> indices = new TObjectIntHashMap<>(order.size(), 0.5f, -1);
+        for (int i = 0; i < order.size(); i++) {
+            indices.put(order.get(i), i);
+        }
+
+        // We only care about the dependencies we need to load ourselves
+        for (int i = 0; i < order.size(); i++) {
+            final Collection<ModuleLoader.ClassEntry> required = requirements.get(order.get(i));
+
+            if (required != null) {
+                for (ModuleLoader.ClassEntry requirement : required) {
+                    wave.addEdge(indices.get(requirement), i);
+                }
+            }
+        }
+
+        wave.run();
+
+        final Collection<Module> loaded = new LinkedList<>();
+        for (Module module : modules) {
+            if (module != null) {
+                loaded.add(module);
+            }
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Runs the given shut down calls and waits until all of them are done. A module only gets shut down after all the
+     * modules depending on it have been shut down.
+     *
+     * @param modules         The modules
+     * @param dependencies    The indices of the modules each module depends on
+     * @param task            The task that shuts down the module with the given index
+     */
+    void shutdown(List<Module> modules, TIntArrayList[] dependencies, Task task) {
+        final Wave wave = new Wave(modules.size(), task);
+
+        for (int i = 0; i < modules.size(); i++) {
+            for (int j = 0; j < dependencies[i].size(); j++) {
+                wave.addEdge(i, dependencies[i].get(j));
+            }
+        }
+
+        wave.run();
+    }
+
+    /**
+     * Creates an executor that runs every task on its own virtual thread. Virtual threads are only available since
+     * Java 21, so we look them up reflectively and fall back to an (unbounded) pool of cached daemon threads.
+     *
+     * @return The new executor
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            LOG.fine("Virtual threads are not available, falling back to cached platform threads");
+        }
+
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "modular-lifecycle-" + count.incrementAndGet());
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+
+    /**
+     * Represents a lifecycle call for a single module.
+     */
+    interface Task {
+
+        /**
+         * Runs the call for the module with the given index.
+         *
+         * @param index    The index of the module
+         * @return A stage completing with true if everything went fine, or false to cancel the modules waiting for it
+         */
+        CompletionStage<Boolean> run(int index);
+
+        /**
+         * Describes the module with the given index, used for logging.
+         *
+         * @param index    The index of the module
+         * @return The description
+         */
+        String describe(int index);
+
+    }
+
+    /**
+     * Represents the state of a single run through the graph.
+     */
+    private final class Wave {
+        private final Task task;
+        private final TIntArrayList[] dependents;
+        private final AtomicIntegerArray pending;
+        private final AtomicIntegerArray states;
+        private final CountDownLatch latch;
+
+
+        private Wave(int size, Task task) {
+            this.task = task;
+            this.dependents = new TIntArrayList[size];
+            this.pending = new AtomicIntegerArray(size);
+            this.states = new AtomicIntegerArray(size);
+            this.latch = new CountDownLatch(size);
+
+            for (int i = 0; i < size; i++) {
+                dependents[i] = new TIntArrayList();
+            }
+        }
+
+        private void addEdge(int before, int after) {
+            if (before >= 0 && after >= 0 && before != after && !dependents[before].contains(after)) {
+                dependents[before].add(after);
+                pending.incrementAndGet(after);
+            }
+        }
+
+        private void run() {
+            for (int i = 0; i < dependents.length; i++) {
+                if (pending.get(i) == 0 && states.compareAndSet(i, WAITING, SCHEDULED)) {
+                    submit(i);
+                }
+            }
+
+            boolean interrupted = false;
+
+            while (true) {
+                try {
+                    latch.await();
+                    break;
+
+                } catch (InterruptedException e) {
+                    // The modules are on their way already, so we wait for them no matter what
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void submit(final int index) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        execute(index);
+                    }
+                });
+
+            } catch (RejectedExecutionException e) {
+                LOG.log(Level.WARNING, "Could not schedule module: " + task.describe(index), e);
+                fail(index);
+            }
+        }
+
+        private void execute(final int index) {
+            CompletionStage<Boolean> stage;
+
+            RUNNING.set(Boolean.TRUE);
+
+            try {
+                stage = task.run(index);
+
+            } catch (RuntimeException | Error e) {
+                // Errors (like failing static initializers) must not keep the wave waiting for this module forever
+                LOG.log(Level.WARNING, "Error while running lifecycle call for module: " + task.describe(index), e);
+                stage = CompletableFuture.completedFuture(false);
+
+            } finally {
+                RUNNING.remove();
+            }
+
+            stage.whenComplete(new BiConsumer<Boolean, Throwable>() {
+                @Override
+                public void accept(Boolean success, Throwable throwable) {
+                    if (throwable != null) {
+                        LOG.log(Level.WARNING, "Error while running lifecycle call for module: " +
+                                task.describe(index), throwable);
+                    }
+
+                    finish(index, throwable == null && Boolean.TRUE.equals(success));
+                }
+            });
+        }
+
+        private void finish(int index, boolean success) {
+            if (!success) {
+                fail(index);
+                return;
+            }
+
+            states.set(index, DONE);
+
+            // Start everything that only waited for us
+            for (int i = 0; i < dependents[index].size(); i++) {
+                final int dependent = dependents[index].get(i);
+
+                if (pending.decrementAndGet(dependent) == 0 && states.compareAndSet(dependent, WAITING, SCHEDULED)) {
+                    submit(dependent);
+                }
+            }
+
+            latch.countDown();
+        }
+
+        private void fail(int index) {
+            states.set(index, CANCELLED);
+            latch.countDown();
+
+            final LinkedList<Integer> queue = new LinkedList<>();
+            queue.add(index);
+
+            while (!queue.isEmpty()) {
+                final TIntArrayList next = dependents[queue.removeFirst()];
+
+                for (int i = 0; i < next.size(); i++) {
+                    final int dependent = next.get(i);
+
+                    if (states.compareAndSet(dependent, WAITING, CANCELLED)) {
+                        LOG.warning("Cancelled " + task.describe(dependent) + ", since " + task.describe(index) +
+                                " did not finish properly");
+
+                        latch.countDown();
+                        queue.add(dependent);
+                    }
+                }
+            }
+        }
+
+    }
+
+}
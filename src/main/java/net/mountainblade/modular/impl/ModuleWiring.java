@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.ModuleInformation;
+import net.mountainblade.modular.ModuleManager;
+
+import java.util.logging.Logger;
+
+/**
+ * Represents a wiring plan that creates, injects and initializes a fixed set of modules in a fixed order.
+ *
+ * <p>Wirings get generated by the annotation processor in the <code>modular-processor</code> artifact (when the
+ * <code>modular.wiring</code> option is set), which sorts the modules of a compilation at build time and writes plain
+ * constructor calls, field assignments and initialize calls wherever it can reach the members from the wiring's
+ * package. Running a wiring via {@link BaseModuleManager#loadWiring(ModuleWiring)} skips scanning, filtering,
+ * dependency discovery and sorting altogether.</p>
+ *
+ * <p>Generated code should look like this for every module:</p>
+ * <pre>
+ * if (context.begin(ExampleImpl.class)) {
+ *     final ExampleImpl module = new ExampleImpl(context.get(Other.class, false));
+ *     module.logger = context.getLogger();
+ *
+ *     if (!context.finish(module, module.init(context.getManager()))) {
+ *         return;
+ *     }
+ * }
+ * </pre>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+public interface ModuleWiring {
+    /** The location of the file naming the generated wiring class, inside a JAR file or classpath folder */
+    String LOCATION = "META-INF/modular/wiring";
+
+    /**
+     * Creates, injects and initializes all modules, in order.
+     *
+     * @param context    The context to wire the modules with
+     * @throws Exception when a module could not be wired, which stops the wiring
+     */
+    void wire(Context context) throws Exception;
+
+
+    /**
+     * Represents the manager side of a wiring. Modules get wired one after another: each one starts with a call to
+     * {@link #begin(Class)} and ends with a call to {@link #finish(Module, Object)}, everything in between belongs to
+     * the current module.
+     */
+    interface Context {
+
+        /**
+         * Gets the manager the modules get wired with.
+         *
+         * @return The manager
+         */
+        ModuleManager getManager();
+
+        /**
+         * Loads the given class, used for types the wiring cannot reference directly.
+         *
+         * @param className    The binary name of the class
+         * @return The class
+         * @throws ClassNotFoundException when the class could not be found
+         */
+        Class<? extends Module> type(String className) throws ClassNotFoundException;
+
+        /**
+         * Starts wiring the given module implementation.
+         *
+         * @param implementation    The implementation
+         * @return True if the module needs to be wired, false if it has already been loaded
+         */
+        boolean begin(Class<? extends Module> implementation);
+
+        /**
+         * Loads the given module implementation just like a scanned one would, used for modules that need special
+         * treatment (like lazy ones).
+         *
+         * @param implementation    The implementation
+         * @return True if the module could be loaded
+         */
+        boolean load(Class<? extends Module> implementation);
+
+        /**
+         * Gets a dependency of the current module.
+         *
+         * @param type        The type of the dependency
+         * @param optional    Whether the dependency is optional
+         * @param <M>         The type of the dependency
+         * @return The dependency, or null if it is optional and could not be found
+         * @throws InjectFailedException when a required dependency could not be found
+         */
+        <M extends Module> M get(Class<M> type, boolean optional) throws InjectFailedException;
+
+        /**
+         * Gets the logger of the current module.
+         *
+         * @return The logger
+         */
+        Logger getLogger();
+
+        /**
+         * Gets the information of a module.
+         *
+         * @param module    The module, or null for the current one
+         * @return The information
+         * @throws InjectFailedException when the module is not known
+         */
+        ModuleInformation getInformation(Class<? extends Module> module) throws InjectFailedException;
+
+        /**
+         * Creates the current module using reflection, for constructors the wiring cannot reach.
+         *
+         * @return The new module
+         * @throws Exception when the module could not be created
+         */
+        Module create() throws Exception;
+
+        /**
+         * Injects all fields of the given module using reflection, for fields the wiring cannot reach.
+         *
+         * @param module    The module
+         * @throws InjectFailedException when a dependency could not be injected
+         */
+        void inject(Module module) throws InjectFailedException;
+
+        /**
+         * Calls the initialize method of the given module using reflection, for methods the wiring cannot reach.
+         *
+         * @param module    The module
+         * @return The result of the method, or null if there is none
+         * @throws Exception when the method failed
+         */
+        Object initialize(Module module) throws Exception;
+
+        /**
+         * Finishes wiring the current module and registers it, as soon as an asynchronous initialization (see
+         * {@link net.mountainblade.modular.annotations.Initialize}) has completed.
+         *
+         * @param module            The module
+         * @param initialization    The result of the initialize method, or null
+         * @return True if the module is ready, false if the wiring should stop
+         */
+        boolean finish(Module module, Object initialization);
+
+    }
+
+}
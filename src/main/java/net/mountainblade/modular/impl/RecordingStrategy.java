@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import org.codehaus.plexus.classworlds.realm.ClassRealm;
+import org.codehaus.plexus.classworlds.strategy.Strategy;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Enumeration;
+
+/**
+ * Represents a loading strategy that gets told about every class it returns and otherwise does whatever the original
+ * strategy of the realm did. A realm only asks its strategy after its parent could not find a class, so only the
+ * classes defined by the realm itself (or one of its imports) will be seen.
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+abstract class RecordingStrategy implements Strategy {
+    private final Strategy strategy;
+
+
+    RecordingStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Gets called for every class that has been loaded using this strategy.
+     *
+     * @param theClass    The loaded class
+     */
+    protected abstract void record(Class<?> theClass);
+
+    @Override
+    public Class<?> loadClass(String name) throws ClassNotFoundException {
+        final Class<?> theClass = strategy.loadClass(name);
+        record(theClass);
+
+        return theClass;
+    }
+
+    @Override
+    public URL getResource(String name) {
+        return strategy.getResource(name);
+    }
+
+    @Override
+    public Enumeration<URL> getResources(String name) throws IOException {
+        return strategy.getResources(name);
+    }
+
+    @Override
+    public ClassRealm getRealm() {
+        return strategy.getRealm();
+    }
+
+    /**
+     * Checks whether a strategy of the given type is part of the realm's current strategy chain.
+     *
+     * @param realm    The class realm
+     * @param type     The type of recording strategy
+     * @return True if the realm already uses a strategy of that type
+     */
+    static boolean isInstalled(ClassRealm realm, Class<? extends RecordingStrategy> type) {
+        Strategy current = realm.getStrategy();
+
+        while (current instanceof RecordingStrategy) {
+            if (type.isInstance(current)) {
+                return true;
+            }
+
+            current = ((RecordingStrategy) current).strategy;
+        }
+
+        return false;
+    }
+
+}
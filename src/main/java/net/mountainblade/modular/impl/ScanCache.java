@@ -0,0 +1,403 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Represents a persistent cache for the results of scanning JAR files, so they survive restarts of the JVM.
+ *
+ * <p>For every JAR file we store the class names it contains and whether or not those classes are module candidates.
+ * Entries are keyed by the path of the file, its size, its modification time and a
+ * {@link ZipDirectory#checksum(File) checksum of its central directory}, so changed files are detected and rescanned
+ * automatically. The size and modification time get checked every time an entry is used, the checksum only once.</p>
+ *
+ * <p>Candidate results for classes whose super types live in other archives (or class folders) also remember the
+ * size and modification time of those files. Once one of them changes, all of these results get checked again.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class ScanCache {
+    private static final Logger LOG = Logger.getLogger(ScanCache.class.getName());
+
+    private static final int MAGIC = 0x4D4F4453;
+    private static final int VERSION = 2;
+
+    private static final byte UNKNOWN = 0;
+    private static final byte CANDIDATE = 1;
+    private static final byte NO_CANDIDATE = 2;
+    private static final byte RESULT = 3;
+    private static final byte EXTERNAL = 4;
+
+    private final File file;
+    private final Map<String, Entry> entries;
+    private boolean dirty;
+
+
+    ScanCache(File file) {
+        this.file = file;
+        this.entries = new THashMap<>();
+
+        load();
+    }
+
+    /**
+     * Gets the cached entry for the given JAR file, but only if the file did not change since it has been stored.
+     * Candidate results that depend on other files which changed in the meantime will be forgotten.
+     *
+     * @param uri    The URI of the JAR file
+     * @return The valid cache entry or null if there is none
+     */
+    synchronized Entry get(URI uri) {
+        final File jar = toFile(uri);
+        if (jar == null) {
+            return null;
+        }
+
+        final String path = jar.getAbsolutePath();
+        final Entry entry = entries.get(path);
+        if (entry == null) {
+            return null;
+        }
+
+        // Check the cheap things every time, but only hash once (and only if those did not change)
+        boolean valid = entry.size == jar.length() && entry.lastModified == jar.lastModified();
+        if (valid && !entry.validated) {
+            valid = entry.hash == hash(jar);
+        }
+
+        if (!valid) {
+            entries.remove(path);
+            dirty = true;
+            return null;
+        }
+
+        entry.validated = true;
+        entry.checkDependencies();
+
+        return entry;
+    }
+
+    /**
+     * Stores the class names of the given JAR file.
+     *
+     * @param uri           The URI of the JAR file
+     * @param classNames    All classes within that file
+     */
+    synchronized void put(URI uri, Collection<String> classNames) {
+        final File jar = toFile(uri);
+        if (jar == null) {
+            return;
+        }
+
+        final Entry entry = new Entry(jar.getAbsolutePath(), jar.length(), jar.lastModified(), hash(jar),
+                classNames.toArray(new String[classNames.size()]), null);
+        entry.validated = true;
+
+        entries.put(jar.getAbsolutePath(), entry);
+        dirty = true;
+    }
+
+    /**
+     * Forgets everything about the given JAR file, so it gets scanned again.
+     *
+     * @param uri    The URI of the JAR file
+     */
+    synchronized void invalidate(URI uri) {
+        final File jar = toFile(uri);
+
+        if (jar != null && entries.remove(jar.getAbsolutePath()) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the cache to disk if anything changed.
+     */
+    synchronized void save() {
+        boolean changed = dirty;
+        for (Entry entry : entries.values()) {
+            changed |= entry.changed;
+        }
+
+        if (!changed) {
+            return;
+        }
+
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            LOG.warning("Could not create folder for the scan cache: " + parent);
+            return;
+        }
+
+        try {
+            final File temp = File.createTempFile(file.getName(), ".tmp", parent);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+
+                for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                    final Entry entry = mapEntry.getValue();
+
+                    out.writeUTF(mapEntry.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.lastModified);
+                    out.writeLong(entry.hash);
+                    out.writeInt(entry.classNames.length);
+
+                    for (String className : entry.classNames) {
+                        out.writeUTF(className);
+                    }
+
+                    synchronized (entry) {
+                        out.write(entry.verdicts);
+                        out.writeInt(entry.dependencies.size());
+
+                        for (Map.Entry<String, long[]> dependency : entry.dependencies.entrySet()) {
+                            out.writeUTF(dependency.getKey());
+                            out.writeLong(dependency.getValue()[0]);
+                            out.writeLong(dependency.getValue()[1]);
+                        }
+
+                        entry.changed = false;
+                    }
+                }
+            }
+
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not write scan cache: " + file, e);
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.info("Ignoring scan cache with unknown format: " + file);
+                return;
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                final String path = in.readUTF();
+                final long size = in.readLong();
+                final long lastModified = in.readLong();
+                final long hash = in.readLong();
+
+                final String[] classNames = new String[in.readInt()];
+                for (int j = 0; j < classNames.length; j++) {
+                    classNames[j] = in.readUTF();
+                }
+
+                final byte[] verdicts = new byte[classNames.length];
+                in.readFully(verdicts);
+
+                final Entry entry = new Entry(path, size, lastModified, hash, classNames, verdicts);
+                for (int j = in.readInt(); j > 0; j--) {
+                    entry.dependencies.put(in.readUTF(), new long[]{in.readLong(), in.readLong()});
+                }
+
+                entries.put(path, entry);
+            }
+
+        } catch (IOException e) {
+            LOG.log(Level.INFO, "Could not read scan cache, starting with an empty one: " + file, e);
+            entries.clear();
+        }
+    }
+
+    private static long hash(File jar) {
+        try {
+            return ZipDirectory.checksum(jar);
+
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Could not hash JAR file: " + jar, e);
+            return 0;
+        }
+    }
+
+    static File toFile(URI uri) {
+        final String scheme = uri.getSchemeSpecificPart();
+
+        if (uri.getScheme().equalsIgnoreCase("jar")) {
+            final int divider = scheme.indexOf("!/");
+
+            try {
+                return new File(URI.create(divider < 0 ? scheme : scheme.substring(0, divider)));
+
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        return scheme.endsWith(".jar") && uri.getScheme().equalsIgnoreCase("file") ? new File(uri) : null;
+    }
+
+
+    /**
+     * Represents the cached scan result of a single JAR file.
+     */
+    static final class Entry {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final long hash;
+        private final String[] classNames;
+        private final byte[] verdicts;
+        private final Map<String, long[]> dependencies;
+
+        private TObjectIntHashMap<String> indices;
+        private boolean validated;
+        private boolean changed;
+
+
+        private Entry(String path, long size, long lastModified, long hash, String[] classNames, byte[] verdicts) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.classNames = classNames;
+            this.verdicts = verdicts != null ? verdicts : new byte[classNames.length];
+            this.dependencies = new THashMap<>();
+        }
+
+        /**
+         * Gets all class names within the JAR file.
+         *
+         * @return The class names
+         */
+        Collection<String> getClassNames() {
+            return Collections.unmodifiableList(Arrays.asList(classNames));
+        }
+
+        /**
+         * Checks whether the given class has been marked as a module candidate before.
+         *
+         * @param className    The class name
+         * @return True or false if known, null if we do not know (yet)
+         */
+        synchronized Boolean isCandidate(String className) {
+            final int index = indexOf(className);
+            if (index < 0 || (verdicts[index] & RESULT) == UNKNOWN) {
+                return null;
+            }
+
+            return (verdicts[index] & RESULT) == CANDIDATE;
+        }
+
+        /**
+         * Stores the module candidate check result for the given class.
+         *
+         * @param className    The class name
+         * @param candidate    True if the class is a candidate
+         * @param sources      The files the class and its super types have been read from
+         */
+        synchronized void setCandidate(String className, boolean candidate, Collection<File> sources) {
+            final int index = indexOf(className);
+            if (index < 0) {
+                return;
+            }
+
+            byte verdict = candidate ? CANDIDATE : NO_CANDIDATE;
+
+            for (File source : sources) {
+                final String sourcePath = source.getAbsolutePath();
+                if (sourcePath.equals(path)) {
+                    continue;
+                }
+
+                verdict |= EXTERNAL;
+
+                if (!dependencies.containsKey(sourcePath)) {
+                    dependencies.put(sourcePath, new long[]{source.length(), source.lastModified()});
+                }
+            }
+
+            verdicts[index] = verdict;
+            changed = true;
+        }
+
+        /**
+         * Forgets all candidate results that depend on other files, if any of those files changed.
+         */
+        synchronized void checkDependencies() {
+            boolean valid = true;
+
+            for (Map.Entry<String, long[]> dependency : dependencies.entrySet()) {
+                final File file = new File(dependency.getKey());
+
+                if (file.length() != dependency.getValue()[0] || file.lastModified() != dependency.getValue()[1]) {
+                    valid = false;
+                    break;
+                }
+            }
+
+            if (valid) {
+                return;
+            }
+
+            for (int i = 0; i < verdicts.length; i++) {
+                if ((verdicts[i] & EXTERNAL) != 0) {
+                    verdicts[i] = UNKNOWN;
+                }
+            }
+
+            dependencies.clear();
+            changed = true;
+        }
+
+        private int indexOf(String className) {
+            if (indices == null) {
+                indices = new TObjectIntHashMap<>(classNames.length, 0.5f, -1);
+
+                for (int i = 0; i < classNames.length; i++) {
+                    indices.put(classNames[i], i);
+                }
+            }
+
+            return indices.get(className);
+        }
+
+    }
+
+}
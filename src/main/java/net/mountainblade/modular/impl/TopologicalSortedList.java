@@ -30,7 +30,9 @@ import java.util.Iterator;
  *
  * @author spaceemotion
  * @author p000ison
+ * @deprecated Use {@link DependencyGraph} instead, which sorts in a stable order and keeps the graph intact
  */
+@Deprecated
 public class TopologicalSortedList<E> extends TLinkedList<TopologicalSortedList.Node<E>> {
 
     /**
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.ModuleInformation;
+import net.mountainblade.modular.ModuleManager;
+import net.mountainblade.modular.ModuleState;
+import net.mountainblade.modular.annotations.Implementation;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.concurrent.CompletionStage;
+import java.util.logging.Logger;
+
+/**
+ * Represents the context a {@link ModuleWiring} runs in. It creates the registry entries and registers the wired
+ * modules, just like the loader would, but without discovering anything.
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class WiringContext implements ModuleWiring.Context {
+    private final BaseModuleManager manager;
+    private final ModuleLoader loader;
+    private final ModuleRegistry registry;
+    private final Collection<Module> modules;
+
+    private ModuleLoader.ClassEntry classEntry;
+    private ModuleInformationImpl information;
+    private ModuleRegistry.Entry moduleEntry;
+
+
+    WiringContext(BaseModuleManager manager) {
+        this.manager = manager;
+        this.loader = manager.getLoader();
+        this.registry = manager.getRegistry();
+        this.modules = new LinkedList<>();
+    }
+
+    /**
+     * Gets the modules that have been wired so far, in order.
+     *
+     * @return The modules
+     */
+    Collection<Module> getModules() {
+        return modules;
+    }
+
+    /**
+     * Removes the registry entry of the module that is being wired right now, if it has not been registered yet.
+     * Gets called when the wiring failed halfway through a module.
+     */
+    void rollback() {
+        if (moduleEntry != null && moduleEntry.getModule() == null) {
+            loader.unregister(classEntry, information, moduleEntry);
+        }
+    }
+
+    @Override
+    public ModuleManager getManager() {
+        return manager;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Class<? extends Module> type(String className) throws ClassNotFoundException {
+        return (Class<? extends Module>) Class.forName(className, false, loader.getRealm());
+    }
+
+    @Override
+    public boolean begin(Class<? extends Module> implementation) {
+        final Implementation annotation = implementation.getAnnotation(Implementation.class);
+        final Class<? extends Module> module = annotation != null ?
+                loader.getModuleClass(implementation, annotation) : null;
+
+        if (module == null) {
+            throw new IllegalArgumentException("Not a module implementation: " + implementation);
+        }
+
+        // Modules that have already been loaded stay the way they are
+        final ModuleRegistry.Entry existing = registry.getEntry(implementation);
+        if (existing != null && existing.getModule() != null) {
+            modules.add(existing.getModule());
+            return false;
+        }
+
+        // We only need the classes to register the module, there's nothing to discover
+        final Collection<Injector.Entry> none = Collections.emptyList();
+        classEntry = new ModuleLoader.ClassEntry(module, implementation, annotation, none,
+                Collections.<Class<? extends Module>>emptyList());
+
+        information = new ModuleInformationImpl(annotation);
+        information.setState(ModuleState.LOADING);
+        moduleEntry = registry.createEntry(module, information);
+
+        return true;
+    }
+
+    @Override
+    public boolean load(Class<? extends Module> implementation) {
+        final Module module = loader.loadModule(manager, loader.getClassEntry(implementation));
+
+        if (module != null) {
+            modules.add(module);
+        }
+
+        return module != null;
+    }
+
+    @Override
+    public <M extends Module> M get(Class<M> type, boolean optional) throws InjectFailedException {
+        final Class<? extends Module>[] keys = Injector.getKeys(type);
+        Module dependency = null;
+
+        for (int i = 0; i < keys.length && dependency == null; i++) {
+            dependency = registry.getModule(keys[i]);
+        }
+
+        if (dependency == null && !optional) {
+            throw new InjectFailedException("Failed to resolve dependency " + type.getName() + " of " +
+                    classEntry.getImplementation());
+        }
+
+        return type.cast(dependency);
+    }
+
+    @Override
+    public Logger getLogger() {
+        Logger logger = moduleEntry.getLogger();
+
+        if (logger == null) {
+            logger = Logger.getLogger(classEntry.getImplementation().getName());
+            moduleEntry.setLogger(logger);
+        }
+
+        return logger;
+    }
+
+    @Override
+    public ModuleInformation getInformation(Class<? extends Module> module) throws InjectFailedException {
+        final ModuleRegistry.Entry entry = module != null ? registry.getEntry(module) : moduleEntry;
+
+        if (entry == null) {
+            throw new InjectFailedException("Failed to resolve information of " + module.getName() + " for " +
+                    classEntry.getImplementation());
+        }
+
+        return entry.getInformation();
+    }
+
+    @Override
+    public Module create() throws Exception {
+        return loader.newInstance(classEntry.getImplementation(), moduleEntry);
+    }
+
+    @Override
+    public void inject(Module module) throws InjectFailedException {
+        manager.getInjector().inject(moduleEntry, module, loader);
+    }
+
+    @Override
+    public Object initialize(Module module) throws Exception {
+        return loader.initialize(manager, module);
+    }
+
+    @Override
+    public boolean finish(Module module, Object initialization) {
+        final CompletionStage<?> stage = initialization instanceof CompletionStage ?
+                (CompletionStage<?>) initialization : null;
+
+        if (ModuleLoader.await(loader.register(classEntry, module, information, moduleEntry, stage)) == null) {
+            return false;
+        }
+
+        modules.add(module);
+        return true;
+    }
+
+}
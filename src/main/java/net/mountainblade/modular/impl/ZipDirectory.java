@@ -0,0 +1,334 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Represents the central directory of a ZIP (JAR) file.
+ *
+ * <p>The central directory sits at the end of the archive and lists all entries, so we can get every entry name
+ * without having to touch (or inflate) any of the actual entry data.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class ZipDirectory {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int END_SIGNATURE = 0x06054B50;
+    private static final int END_LENGTH = 22;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064B50;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+    private static final int ZIP64_END_SIGNATURE = 0x06064B50;
+    private static final int ENTRY_SIGNATURE = 0x02014B50;
+    private static final int LOCAL_SIGNATURE = 0x04034B50;
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    private static final long MAGIC_32 = 0xFFFFFFFFL;
+
+    private final File file;
+    private final String[] names;
+    private final long[] offsets;
+    private final long[] sizes;
+    private final int[] methods;
+
+
+    private ZipDirectory(File file, String[] names, long[] offsets, long[] sizes, int[] methods) {
+        this.file = file;
+        this.names = names;
+        this.offsets = offsets;
+        this.sizes = sizes;
+        this.methods = methods;
+    }
+
+    /**
+     * Gets the number of entries in the archive.
+     *
+     * @return The number of entries
+     */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * Gets the name of the entry at the given position (in central directory order).
+     *
+     * @param index    The position of the entry
+     * @return The entry name, directories end with a slash
+     */
+    String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Gets the position of the entry with the given name.
+     *
+     * @param name    The entry name
+     * @return The position, or -1 if there is no such entry
+     */
+    int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Opens the entry at the given position. Only this entry will be read from the file.
+     *
+     * @param index    The position of the entry
+     * @return A stream with the (inflated) data of the entry
+     * @throws IOException when the entry could not be read
+     */
+    InputStream open(int index) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer header = read(channel, offsets[index], 30);
+            if (header.getInt(0) != LOCAL_SIGNATURE) {
+                throw new ZipException("Invalid local header for entry: " + names[index]);
+            }
+
+            final long start = offsets[index] + 30 + uint16(header, 26) + uint16(header, 28);
+            final ByteBuffer data = read(channel, start, (int) sizes[index]);
+            final InputStream stream = new ByteArrayInputStream(data.array(), 0, data.limit());
+
+            switch (methods[index]) {
+                case 0:
+                    return stream;
+
+                case 8:
+                    return new InflatingStream(stream);
+
+                default:
+                    throw new ZipException("Unsupported compression method: " + methods[index]);
+            }
+        }
+    }
+
+    /**
+     * Reads the central directory of the given file.
+     *
+     * @param file    The ZIP file
+     * @return The directory
+     * @throws IOException when the file could not be read or is not a valid ZIP file
+     */
+    static ZipDirectory read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long[] location = locate(channel);
+            final ByteBuffer directory = read(channel, location[0], (int) location[1]);
+            final int count = (int) location[2];
+
+            final String[] names = new String[count];
+            final long[] offsets = new long[count];
+            final long[] sizes = new long[count];
+            final int[] methods = new int[count];
+
+            int position = 0;
+
+            for (int i = 0; i < count; i++) {
+                if (directory.getInt(position) != ENTRY_SIGNATURE) {
+                    throw new ZipException("Invalid central directory entry in " + file);
+                }
+
+                final int nameLength = uint16(directory, position + 28);
+                final int extraLength = uint16(directory, position + 30);
+                final int commentLength = uint16(directory, position + 32);
+
+                methods[i] = uint16(directory, position + 10);
+                sizes[i] = uint32(directory, position + 20);
+                offsets[i] = uint32(directory, position + 42);
+                names[i] = new String(directory.array(), position + 46, nameLength, UTF_8);
+
+                // Large archives keep the real sizes and offsets in the extra field
+                if (sizes[i] == MAGIC_32 || offsets[i] == MAGIC_32) {
+                    readZip64Extra(directory, position + 46 + nameLength, extraLength, i, sizes, offsets,
+                            uint32(directory, position + 24) == MAGIC_32);
+                }
+
+                position += 46 + nameLength + extraLength + commentLength;
+            }
+
+            return new ZipDirectory(file, names, offsets, sizes, methods);
+        }
+    }
+
+    /**
+     * Calculates a checksum of the central directory of the given file. Since the directory contains the checksums and
+     * sizes of every entry it changes whenever the contents change, but is a lot smaller than the file itself.
+     *
+     * @param file    The ZIP file
+     * @return The checksum
+     * @throws IOException when the file could not be read or is not a valid ZIP file
+     */
+    static long checksum(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long[] location = locate(channel);
+            final CRC32 crc = new CRC32();
+
+            crc.update(read(channel, location[0], (int) location[1]).array(), 0, (int) location[1]);
+            crc.update(read(channel, location[3], (int) (channel.size() - location[3])).array());
+
+            return crc.getValue();
+        }
+    }
+
+    /**
+     * Finds the central directory.
+     *
+     * @return The offset and size of the directory, the number of entries and the offset of the end record
+     */
+    private static long[] locate(FileChannel channel) throws IOException {
+        // The end record is at least 22 bytes and can be followed by a comment
+        final long length = channel.size();
+        final int tailLength = (int) Math.min(length, END_LENGTH + 0xFFFF);
+        final ByteBuffer tail = read(channel, length - tailLength, tailLength);
+
+        for (int i = tailLength - END_LENGTH; i >= 0; i--) {
+            if (tail.getInt(i) != END_SIGNATURE) {
+                continue;
+            }
+
+            final long end = length - tailLength + i;
+            long count = uint16(tail, i + 10);
+            long size = uint32(tail, i + 12);
+            long offset = uint32(tail, i + 16);
+
+            // ZIP64 archives have another end record, pointed to by a locator right before the normal one
+            if ((count == 0xFFFF || size == MAGIC_32 || offset == MAGIC_32) && end >= ZIP64_LOCATOR_LENGTH) {
+                final ByteBuffer locator = read(channel, end - ZIP64_LOCATOR_LENGTH, ZIP64_LOCATOR_LENGTH);
+
+                if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                    final ByteBuffer zip64End = read(channel, locator.getLong(8), 56);
+                    if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                        throw new ZipException("Invalid ZIP64 end of central directory record");
+                    }
+
+                    count = zip64End.getLong(32);
+                    size = zip64End.getLong(40);
+                    offset = zip64End.getLong(48);
+                }
+            }
+
+            if (offset + size > end || size > Integer.MAX_VALUE || count > Integer.MAX_VALUE) {
+                throw new ZipException("Invalid central directory location");
+            }
+
+            return new long[] {offset, size, count, end};
+        }
+
+        throw new ZipException("Could not find end of central directory record");
+    }
+
+    private static void readZip64Extra(ByteBuffer directory, int position, int length, int index, long[] sizes,
+                                       long[] offsets, boolean hasUncompressedSize) {
+        final int end = position + length;
+
+        while (position + 4 <= end) {
+            final int id = uint16(directory, position);
+            final int size = uint16(directory, position + 2);
+
+            if (id == ZIP64_EXTRA) {
+                // The fields are only present if their counterparts in the normal header have been maxed out
+                int field = position + 4;
+
+                if (hasUncompressedSize) {
+                    field += 8;
+                }
+
+                if (sizes[index] == MAGIC_32) {
+                    sizes[index] = directory.getLong(field);
+                    field += 8;
+                }
+
+                if (offsets[index] == MAGIC_32) {
+                    offsets[index] = directory.getLong(field);
+                }
+
+                return;
+            }
+
+            position += 4 + size;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of ZIP file");
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int uint16(ByteBuffer buffer, int position) {
+        return buffer.getShort(position) & 0xFFFF;
+    }
+
+    private static long uint32(ByteBuffer buffer, int position) {
+        return buffer.getInt(position) & MAGIC_32;
+    }
+
+
+    /**
+     * Represents the stream of a deflated entry, which frees the native memory of its inflater once it gets closed.
+     */
+    private static final class InflatingStream extends InflaterInputStream {
+        private boolean closed;
+
+
+        InflatingStream(InputStream stream) {
+            super(stream, new Inflater(true));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+
+            try {
+                super.close();
+
+            } finally {
+                inf.end();
+            }
+        }
+
+    }
+
+}
@@ -16,16 +16,21 @@
 package net.mountainblade.modular;
 
 import com.google.common.base.Stopwatch;
+import gnu.trove.map.hash.THashMap;
 import net.mountainblade.modular.annotations.Implementation;
 import net.mountainblade.modular.annotations.Initialize;
 import net.mountainblade.modular.annotations.Inject;
 import net.mountainblade.modular.examples.Example2Module;
 import net.mountainblade.modular.examples.Example2ModuleImpl;
 import net.mountainblade.modular.examples.ExampleModule;
+import net.mountainblade.modular.impl.BaseModuleManager;
 import net.mountainblade.modular.impl.DefaultModuleManager;
 import net.mountainblade.modular.impl.HierarchicModuleManager;
+import net.mountainblade.modular.impl.ModuleLoader;
+import net.mountainblade.modular.impl.ModuleWiring;
 import net.mountainblade.modular.junit.Repeat;
 import net.mountainblade.modular.junit.RepeatRule;
+import net.mountainblade.modular.junit.TestClasses;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -35,22 +40,40 @@ import org.junit.runners.JUnit4;
 import java.io.File;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URI;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 @RunWith(JUnit4.class)
 public class ModuleTest {
     private static boolean ranOnce = false;
+    private static List<String> loadOrder;
 
     @Rule
     public RepeatRule repeatRule = new RepeatRule();
 
 
     @Test
-    @Repeat(3) // Repeat because the topological sort is kind of random
+    @Repeat(3) // Repeat to make sure the modules get loaded in the same order every time
     public void testModules() throws Exception {
         final String packageName = ExampleModule.class.getPackage().getName();
         final Stopwatch stopwatch = Stopwatch.createStarted();
@@ -71,6 +94,17 @@ public class ModuleTest {
         Assert.assertEquals("Not all modules got loaded successfully!", manager.getRegistry().getModules().size(), size);
         Assert.assertEquals("Expected to see 3 modules loaded", 3, size);
 
+        final List<String> order = new ArrayList<>();
+        for (Module module : modules) {
+            order.add(module.getClass().getName());
+        }
+
+        if (loadOrder == null) {
+            loadOrder = order;
+        } else {
+            Assert.assertEquals("Modules got loaded in a different order", loadOrder, order);
+        }
+
         // Check module metadata / information
         ModuleInformation information = manager.getInformation(Example2Module.class).get();
         Assert.assertNotNull("Could not get information for module", information);
@@ -142,6 +176,498 @@ public class ModuleTest {
         manager.shutdown();
     }
 
+    @Test
+    public void testParallelDiscovery() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        manager.setDiscoveryExecutor(executor);
+
+        // Use a fresh copy, so we do not get the cached results of the other tests
+        final File folder = Files.createTempDirectory("modular").toFile();
+        final File jar = new File(folder, "demo.jar");
+        Files.copy(new File(getDemoJar().toURI()).toPath(), jar.toPath());
+
+        try {
+            final Collection<Module> modules = manager.loadModules(folder.toURI(), "net.");
+            Assert.assertEquals(1, modules.size());
+
+            // Classes from the classpath get loaded and inspected in parallel as well
+            Assert.assertEquals(3, manager.loadModules(ExampleModule.class.getPackage().getName()).size());
+
+        } finally {
+            manager.shutdown();
+            executor.shutdown();
+
+            Assert.assertTrue(jar.delete());
+            Assert.assertTrue(folder.delete());
+        }
+    }
+
+    @Test
+    public void testParallelLoading() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        manager.setLoadExecutor(executor);
+
+        try {
+            // The example modules depend on each other, so they need to be started in the right order
+            Assert.assertEquals(3, manager.loadModules(ExampleModule.class.getPackage().getName()).size());
+            Assert.assertEquals(ModuleState.READY, manager.getInformation(Example2Module.class).get().getState());
+
+        } finally {
+            manager.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+        manager.enableVirtualThreads();
+
+        Assert.assertEquals(3, manager.loadModules(ExampleModule.class.getPackage().getName()).size());
+
+        final ModuleInformation information = manager.getInformation(Example2Module.class).get();
+        Assert.assertEquals(ModuleState.READY, information.getState());
+
+        // Shutting down happens on the lifecycle threads as well, but we still wait for it
+        manager.shutdown();
+        Assert.assertEquals(ModuleState.SHUTDOWN, information.getState());
+    }
+
+    @Test
+    public void testAsyncInitialization() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+        AsyncModule.warmup = new CompletableFuture<>();
+
+        try {
+            final Future<Module> future = manager.getLoader().loadModuleAsync(manager,
+                    manager.getLoader().getClassEntry(AsyncModule.class));
+
+            // The module is not ready until its warm-up has been completed
+            Assert.assertFalse(future.isDone());
+            Assert.assertEquals(ModuleState.LOADING, manager.getInformation(AsyncModule.class).get().getState());
+
+            // Anyone sharing the registry has to wait for it as well, instead of creating another instance
+            final HierarchicModuleManager child = new HierarchicModuleManager(manager);
+            Assert.assertSame(future, child.getLoader().loadModuleAsync(child,
+                    child.getLoader().getClassEntry(AsyncModule.class)));
+
+            AsyncModule.warmup.complete(null);
+            Assert.assertNotNull(future.get(1, TimeUnit.SECONDS));
+            Assert.assertEquals(ModuleState.READY, manager.getInformation(AsyncModule.class).get().getState());
+
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedAsyncInitialization() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+        final ModuleLoader.ClassEntry entry = manager.getLoader().getClassEntry(AsyncModule.class);
+        AsyncModule.warmup = new CompletableFuture<>();
+
+        try {
+            final Future<Module> future = manager.getLoader().loadModuleAsync(manager, entry);
+            final ModuleInformation information = manager.getInformation(AsyncModule.class).get();
+
+            // A failed module must not look like it is still loading
+            AsyncModule.warmup.completeExceptionally(new IllegalStateException("Warm-up failed"));
+            Assert.assertNull(future.get(1, TimeUnit.SECONDS));
+            Assert.assertEquals(ModuleState.UNKNOWN, information.getState());
+            Assert.assertFalse(manager.getInformation(AsyncModule.class).isPresent());
+
+            // So it can be loaded again later on
+            AsyncModule.warmup = CompletableFuture.completedFuture(null);
+            Assert.assertNotNull(manager.getLoader().loadModuleAsync(manager, entry).get(1, TimeUnit.SECONDS));
+            Assert.assertEquals(ModuleState.READY, manager.getInformation(AsyncModule.class).get().getState());
+
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testConcurrentManagers() throws Exception {
+        final int threads = 4;
+        final String packageName = ExampleModule.class.getPackage().getName();
+        final File folder = Files.createTempDirectory("modular-concurrent").toFile();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            final File classes = new File(folder, "classes");
+            final Map<String, String> sources = new THashMap<>();
+            sources.put("net.plain.Thing", "package net.plain; public class Thing {}");
+            TestClasses.compile(classes, sources);
+
+            for (int round = 0; round < 5; round++) {
+                // Fresh files every round, so all managers race to scan (or blacklist) them in the shared caches
+                final File demo = new File(folder, "demo-" + round + ".jar");
+                final File plain = new File(folder, "plain-" + round + ".jar");
+                Files.copy(new File(getDemoJar().toURI()).toPath(), demo.toPath());
+                TestClasses.jar(plain, classes);
+
+                final List<URI> uris = Arrays.asList(demo.toURI(), plain.toURI());
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Future<int[]>> results = new ArrayList<>();
+
+                for (int i = 0; i < threads; i++) {
+                    results.add(executor.submit(new Callable<int[]>() {
+                        @Override
+                        public int[] call() throws Exception {
+                            final DefaultModuleManager manager = new DefaultModuleManager();
+                            start.await();
+
+                            try {
+                                return new int[]{manager.loadModules(uris, "").size(),
+                                        manager.loadModules(packageName).size()};
+
+                            } finally {
+                                manager.shutdown();
+                            }
+                        }
+                    }));
+                }
+
+                start.countDown();
+
+                for (Future<int[]> result : results) {
+                    Assert.assertArrayEquals(new int[]{1, 3}, result.get());
+                }
+            }
+
+        } finally {
+            executor.shutdown();
+            TestClasses.delete(folder);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testConcurrentLoading() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+        final ModuleLoader.ClassEntry entry = manager.getLoader().getClassEntry(BlockingModule.class);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final Future<CompletableFuture<Module>> first = executor.submit(new Callable<CompletableFuture<Module>>() {
+                @Override
+                public CompletableFuture<Module> call() throws Exception {
+                    return manager.getLoader().loadModuleAsync(manager, entry);
+                }
+            });
+
+            // While the first call is still busy creating the module, the second one has to wait for it
+            Assert.assertTrue(BlockingModule.started.await(1, TimeUnit.SECONDS));
+            final Future<Module> second = manager.getLoader().loadModuleAsync(manager, entry);
+            Assert.assertFalse(second.isDone());
+
+            BlockingModule.release.countDown();
+            Assert.assertSame(first.get(1, TimeUnit.SECONDS).get(1, TimeUnit.SECONDS),
+                    second.get(1, TimeUnit.SECONDS));
+            Assert.assertEquals(1, BlockingModule.instances.get());
+
+        } finally {
+            BlockingModule.release.countDown();
+            executor.shutdown();
+            manager.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testNestedLoading() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        manager.setLoadExecutor(executor);
+
+        try {
+            // The only thread is busy initializing the outer module, so the inner one needs to be loaded on it as well
+            final String packageName = NestingModule.class.getPackage().getName();
+            Assert.assertEquals(1, manager.loadModules(packageName, new Filter.InstanceOf(NestingModule.class)).size());
+            Assert.assertEquals(1, NestingModule.nested.size());
+            Assert.assertTrue(manager.getModule(NestedModule.class).isPresent());
+
+        } finally {
+            manager.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testFailingModuleWithExecutor() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        manager.setLoadExecutor(executor);
+
+        try {
+            // The static initializer throws an error on the executor's thread, which must not leave us waiting
+            final String packageName = BrokenModule.class.getPackage().getName();
+            Assert.assertTrue(manager.loadModules(packageName, new Filter.InstanceOf(BrokenModule.class)).isEmpty());
+            Assert.assertFalse(manager.getModule(BrokenModule.class).isPresent());
+
+        } finally {
+            manager.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testLazyModule() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+
+        try {
+            Assert.assertEquals(1, manager.loadModules(LazyModuleImpl.class.getName()).size());
+
+            // We only got a stand-in so far
+            final LazyModule module = manager.getModule(LazyModule.class).get();
+            Assert.assertEquals(0, LazyModuleImpl.instances.get());
+            Assert.assertEquals(ModuleState.UNKNOWN, manager.getInformation(LazyModule.class).get().getState());
+
+            // Calling it wakes the module up
+            Assert.assertEquals(42, module.getAnswer());
+            Assert.assertEquals(1, LazyModuleImpl.instances.get());
+            Assert.assertEquals(ModuleState.READY, manager.getInformation(LazyModule.class).get().getState());
+            Assert.assertTrue(manager.getModule(LazyModule.class).get() instanceof LazyModuleImpl);
+
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void testConstructorInjection() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+
+        try {
+            // Constructor parameters are dependencies as well, so they get loaded first
+            Assert.assertTrue(manager.getLoader().getClassEntry(ConstructorModule.class).getRequirements()
+                    .contains(Example2Module.class));
+
+            manager.loadModules(ExampleModule.class.getPackage().getName());
+            final ConstructorModule module = manager.loadModule(ConstructorModule.class);
+
+            Assert.assertNotNull(module);
+            Assert.assertSame(manager.getModule(Example2Module.class).get(), module.example);
+            Assert.assertSame(manager, module.manager);
+            Assert.assertNotNull(module.logger);
+            Assert.assertNull(module.missing);
+
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void testWiring() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+
+        try {
+            // Looks just like a generated one, private fields and methods are left to the context
+            final Collection<Module> modules = manager.loadWiring(new ModuleWiring() {
+                @Override
+                public void wire(Context context) throws Exception {
+                    if (context.begin(net.mountainblade.modular.examples.Example3Module.class)) {
+                        final Module module0 = context.create();
+                        context.inject(module0);
+
+                        if (!context.finish(module0, context.initialize(module0))) {
+                            return;
+                        }
+                    }
+
+                    if (context.begin(Example2ModuleImpl.class)) {
+                        final Example2ModuleImpl module1 = new Example2ModuleImpl();
+                        context.inject(module1);
+                        module1.init(context.getManager());
+
+                        if (!context.finish(module1, null)) {
+                            return;
+                        }
+                    }
+
+                    if (context.begin(ConstructorModule.class)) {
+                        final ConstructorModule module2 = new ConstructorModule(context.get(Example2Module.class,
+                                false), context.get(ModuleManager.class, false), context.getLogger(),
+                                context.get(Example3Module.class, true));
+
+                        if (!context.finish(module2, null)) {
+                            return;
+                        }
+                    }
+                }
+            });
+
+            Assert.assertEquals(3, modules.size());
+            Assert.assertTrue(((Example2ModuleImpl) manager.getModule(Example2Module.class).get()).wasSuccessful());
+            Assert.assertSame(manager.getModule(Example2Module.class).get(),
+                    manager.getModule(ConstructorModule.class).get().example);
+            Assert.assertEquals(ModuleState.READY, manager.getInformation(ConstructorModule.class).get().getState());
+
+            // Modules that are already there do not get wired again, but they are still part of the result
+            Assert.assertEquals(1, manager.loadWiring(new ModuleWiring() {
+                @Override
+                public void wire(Context context) throws Exception {
+                    Assert.assertFalse(context.begin(ConstructorModule.class));
+                }
+            }).size());
+
+            // A wiring failing halfway through a module must not leave it behind as loading
+            Assert.assertEquals(0, manager.loadWiring(new ModuleWiring() {
+                @Override
+                public void wire(Context context) throws Exception {
+                    if (context.begin(NestedModule.class)) {
+                        context.create();
+                        throw new IllegalStateException("Wiring failed");
+                    }
+                }
+            }).size());
+
+            Assert.assertFalse(manager.getInformation(NestedModule.class).isPresent());
+
+            // And neither must an error
+            Assert.assertEquals(0, manager.loadWiring(new ModuleWiring() {
+                @Override
+                public void wire(Context context) throws Exception {
+                    if (context.begin(NestedModule.class)) {
+                        context.create();
+                        throw new NoClassDefFoundError("net/mountainblade/modular/Missing");
+                    }
+                }
+            }).size());
+
+            Assert.assertFalse(manager.getInformation(NestedModule.class).isPresent());
+            Assert.assertNotNull(manager.loadModule(NestedModule.class));
+
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void testRealmCollected() throws Exception {
+        final File jar = File.createTempFile("modular-demo", ".jar");
+        Files.copy(new File(getDemoJar().toURI()).toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        try {
+            final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<>();
+            final WeakReference<ClassLoader> realm = loadAndShutdown(jar, queue);
+
+            // Once the manager is gone, nothing may keep the realm (and thus the module classes) alive
+            for (int i = 0; i < 50 && realm.get() != null; i++) {
+                System.gc();
+                queue.remove(100);
+            }
+
+            Assert.assertNull("Class realm has not been garbage collected", realm.get());
+
+        } finally {
+            Assert.assertTrue(jar.delete());
+        }
+    }
+
+    private WeakReference<ClassLoader> loadAndShutdown(File jar, ReferenceQueue<ClassLoader> queue) {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+        Assert.assertEquals(1, manager.loadModules(jar.toURI(), "net.").size());
+        manager.shutdown();
+
+        return new WeakReference<ClassLoader>(manager.getLoader().getRealm(), queue);
+    }
+
+    @Test
+    public void testWatchMode() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+        manager.enableWatchMode(100, TimeUnit.MILLISECONDS);
+
+        final File folder = Files.createTempDirectory("modular").toFile();
+        final File jar = new File(folder, "demo.jar");
+
+        try {
+            Assert.assertEquals(0, manager.loadModules(folder.toURI(), "net.").size());
+            final int before = manager.getRegistry().getModules().size();
+
+            // Drop in a new plugin, it should get picked up by itself
+            Files.copy(new File(getDemoJar().toURI()).toPath(), jar.toPath());
+
+            for (int i = 0; i < 100 && manager.getRegistry().getModules().size() == before; i++) {
+                Thread.sleep(100);
+            }
+
+            Assert.assertEquals(before + 1, manager.getRegistry().getModules().size());
+
+        } finally {
+            manager.shutdown();
+
+            Assert.assertTrue(jar.delete());
+            Assert.assertTrue(folder.delete());
+        }
+    }
+
+    @Test
+    public void testWatchModeRewrite() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+        manager.enableWatchMode(100, TimeUnit.MILLISECONDS);
+
+        final File folder = Files.createTempDirectory("modular").toFile();
+        final File classes = Files.createTempDirectory("modular-classes").toFile();
+        final File build = File.createTempFile("modular-watched", ".jar");
+        final File cacheFile = File.createTempFile("modular", ".cache");
+        final File jar = new File(folder, "watched.jar");
+
+        final Map<String, String> sources = new THashMap<>();
+        sources.put("net.watched.FirstModule", "package net.watched; @net.mountainblade.modular.annotations." +
+                "Implementation public class FirstModule implements net.mountainblade.modular.Module {}");
+        sources.put("net.watched.Helper", "package net.watched; public class Helper { " +
+                "public static final String VERSION = new String(\"first\"); }");
+
+        try {
+            // The scan cache must not hand out the contents of the old file either
+            BaseModuleManager.enableScanCache(cacheFile);
+
+            Assert.assertEquals(0, manager.loadModules(folder.toURI(), "net.").size());
+            final int before = manager.getRegistry().getModules().size();
+
+            // Drop in the first version of the plugin ...
+            TestClasses.compile(classes, sources);
+            TestClasses.jar(build, classes);
+            Files.copy(build.toPath(), jar.toPath());
+
+            for (int i = 0; i < 100 && manager.getRegistry().getModules().size() == before; i++) {
+                Thread.sleep(100);
+            }
+
+            Assert.assertEquals(before + 1, manager.getRegistry().getModules().size());
+
+            // ... then rewrite it with an additional module (and a changed class), which should get picked up as well
+            sources.put("net.watched.SecondModule", "package net.watched; @net.mountainblade.modular.annotations." +
+                    "Implementation public class SecondModule implements net.mountainblade.modular.Module {}");
+            sources.put("net.watched.Helper", "package net.watched; public class Helper { " +
+                    "public static final String VERSION = new String(\"second\"); }");
+            TestClasses.compile(classes, sources);
+            TestClasses.jar(build, classes);
+            Files.copy(build.toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            for (int i = 0; i < 100 && manager.getRegistry().getModules().size() == before + 1; i++) {
+                Thread.sleep(100);
+            }
+
+            Assert.assertEquals(before + 2, manager.getRegistry().getModules().size());
+
+            // Classes the old version contains as well still come from it, even if they have not been loaded before
+            final Class<?> helper = Class.forName("net.watched.Helper", true, manager.getLoader().getRealm());
+            Assert.assertEquals("first", helper.getField("VERSION").get(null));
+
+        } finally {
+            BaseModuleManager.enableScanCache(null);
+            manager.shutdown();
+
+            TestClasses.delete(classes);
+            TestClasses.delete(folder);
+            Assert.assertTrue(build.delete());
+            Assert.assertTrue(cacheFile.delete());
+            TestClasses.delete(new File(cacheFile.getPath() + ".profile"));
+        }
+    }
+
     private URL getDemoJar() {
         final URL resource = getClass().getResource("/modular-demo-1.0-SNAPSHOT.jar");
         Assert.assertNotNull("couldn't find jar, be sure to run \"mvn package\" on the demo project first", resource);
@@ -197,6 +723,154 @@ public class ModuleTest {
 
     }
 
+    /**
+     * A module that finishes its initialization asynchronously.
+     *
+     * @author spaceemotion
+     * @version 1.0
+     */
+    @Implementation
+    public static class AsyncModule implements Module {
+        private static volatile CompletableFuture<Void> warmup = CompletableFuture.completedFuture(null);
+
+
+        @Initialize
+        private CompletionStage<Void> init() {
+            return warmup;
+        }
+
+    }
+
+    /**
+     * A module that only gets created once it is used.
+     *
+     * @author spaceemotion
+     * @version 1.0
+     */
+    public interface LazyModule extends Module {
+
+        int getAnswer();
+
+    }
+
+    /**
+     * The implementation of the lazy module, counting its instances.
+     *
+     * @author spaceemotion
+     * @version 1.0
+     */
+    @Implementation(lazy = true)
+    public static class LazyModuleImpl implements LazyModule {
+        private static final AtomicInteger instances = new AtomicInteger();
+
+
+        public LazyModuleImpl() {
+            instances.incrementAndGet();
+        }
+
+        @Override
+        public int getAnswer() {
+            return 42;
+        }
+
+    }
+
+    /**
+     * A module that blocks while being initialized, until it gets released.
+     *
+     * @author spaceemotion
+     * @version 1.0
+     */
+    @Implementation
+    public static class BlockingModule implements Module {
+        private static final AtomicInteger instances = new AtomicInteger();
+        private static final CountDownLatch started = new CountDownLatch(1);
+        private static final CountDownLatch release = new CountDownLatch(1);
+
+
+        public BlockingModule() {
+            instances.incrementAndGet();
+        }
+
+        @Initialize
+        private void init() throws InterruptedException {
+            started.countDown();
+            release.await();
+        }
+
+    }
+
+    /**
+     * A module that loads another module while being initialized.
+     *
+     * @author spaceemotion
+     * @version 1.0
+     */
+    @Implementation
+    public static class NestingModule implements Module {
+        private static volatile Collection<Module> nested;
+
+
+        @Initialize
+        private void init(ModuleManager manager) {
+            nested = manager.loadModules(NestedModule.class.getPackage().getName(),
+                    new Filter.InstanceOf(NestedModule.class));
+        }
+
+    }
+
+    /**
+     * The module that gets loaded by the nesting module.
+     *
+     * @author spaceemotion
+     * @version 1.0
+     */
+    @Implementation
+    public static class NestedModule implements Module {
+    }
+
+    /**
+     * A module that cannot even be created, as its static initializer fails.
+     *
+     * @author spaceemotion
+     * @version 1.0
+     */
+    @Implementation
+    public static class BrokenModule implements Module {
+        private static final int VALUE = fail();
+
+
+        private static int fail() {
+            throw new IllegalStateException("Broken on purpose");
+        }
+
+    }
+
+    /**
+     * A module that gets its dependencies passed to its constructor.
+     *
+     * @author spaceemotion
+     * @version 1.0
+     */
+    @Implementation
+    public static class ConstructorModule implements Module {
+        private final Example2Module example;
+        private final ModuleManager manager;
+        private final Logger logger;
+        private final Example3Module missing;
+
+
+        @Inject
+        public ConstructorModule(Example2Module example, ModuleManager manager, Logger logger,
+                                 @Inject(optional = true) Example3Module missing) {
+            this.example = example;
+            this.manager = manager;
+            this.logger = logger;
+            this.missing = missing;
+        }
+
+    }
+
     @Retention(RetentionPolicy.RUNTIME)
     public @interface ItsAKeeper {
         // yay
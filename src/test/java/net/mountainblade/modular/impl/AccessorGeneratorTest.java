@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.ModuleManager;
+import net.mountainblade.modular.annotations.Implementation;
+import net.mountainblade.modular.annotations.Initialize;
+import net.mountainblade.modular.annotations.Inject;
+import net.mountainblade.modular.annotations.Shutdown;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.logging.Logger;
+
+@RunWith(JUnit4.class)
+public class AccessorGeneratorTest {
+
+    @Before
+    public void setUp() throws Exception {
+        BaseModuleManager.enableGeneratedAccessors(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BaseModuleManager.enableGeneratedAccessors(false);
+    }
+
+    @Test
+    public void testAccessor() throws Exception {
+        final AccessorGenerator.Accessor accessor = AccessorGenerator.get(GeneratedModule.class);
+        Assume.assumeNotNull(accessor);
+
+        final GeneratedModule module = (GeneratedModule) accessor.create();
+        Assert.assertNotNull(module);
+
+        // Private fields of the implementation get written directly
+        final int index = accessor.indexOf(GeneratedModule.class.getDeclaredField("logger"));
+        Assert.assertTrue(index >= 0);
+
+        final Logger logger = Logger.getLogger(GeneratedModule.class.getName());
+        accessor.set(module, index, logger);
+        Assert.assertSame(logger, module.logger);
+
+        // And so do the lifecycle methods, including their return values
+        Assert.assertEquals("initialized", accessor.initialize(module, null));
+        Assert.assertNull(accessor.shutdown(module, null));
+        Assert.assertTrue(module.shutdown);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        BaseModuleManager.enableGeneratedAccessors(false);
+        Assert.assertNull(AccessorGenerator.get(GeneratedModule.class));
+    }
+
+    @Test
+    public void testModule() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+
+        try {
+            final GeneratedModule module = manager.loadModule(GeneratedModule.class);
+
+            Assert.assertNotNull(module.logger);
+            Assert.assertSame(manager, module.manager);
+
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void testStaticLifecycle() throws Exception {
+        final DefaultModuleManager manager = new DefaultModuleManager();
+
+        // Static lifecycle methods cannot be called by the generated accessor, so they go through the fallback
+        Assert.assertNotNull(manager.loadModule(StaticModule.class));
+        Assert.assertSame(manager, StaticModule.manager);
+
+        manager.shutdown();
+        Assert.assertTrue(StaticModule.shutdown);
+    }
+
+
+    @Implementation
+    private static class GeneratedModule implements Module {
+        @Inject
+        private Logger logger;
+
+        private ModuleManager manager;
+        private boolean shutdown;
+
+
+        private GeneratedModule() {
+            // Private constructor
+        }
+
+        @Initialize
+        private String init(ModuleManager manager) {
+            this.manager = manager;
+            return "initialized";
+        }
+
+        @Shutdown
+        private void stop() {
+            shutdown = true;
+        }
+
+    }
+
+    @Implementation
+    private static class StaticModule implements Module {
+        private static volatile ModuleManager manager;
+        private static volatile boolean shutdown;
+
+
+        @Initialize
+        private static void init(ModuleManager manager) {
+            StaticModule.manager = manager;
+        }
+
+        @Shutdown
+        private static void stop() {
+            shutdown = true;
+        }
+
+    }
+
+}
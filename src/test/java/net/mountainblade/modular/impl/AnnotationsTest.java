@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.annotations.Initialize;
+import net.mountainblade.modular.annotations.Shutdown;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.reflect.InvocationTargetException;
+
+@RunWith(JUnit4.class)
+public class AnnotationsTest {
+    private static final Annotations.Lifecycle INITIALIZE = Annotations.lifecycle(Initialize.class, 0, String.class);
+    private static final Annotations.Lifecycle SHUTDOWN = Annotations.lifecycle(Shutdown.class, 0, String.class);
+
+
+    @Test
+    public void testArity() throws Exception {
+        // Methods get as many parameters as they accept
+        Assert.assertEquals("with test", INITIALIZE.call(new WithParameter(), "test"));
+        Assert.assertEquals("without", SHUTDOWN.call(new WithParameter(), "test"));
+
+        // And calling it again uses the same (cached) handle
+        Assert.assertEquals("with again", INITIALIZE.call(new WithParameter(), "again"));
+        Assert.assertEquals("with legacy", Annotations.call(new WithParameter(), Initialize.class, 0,
+                new Class[]{String.class}, "legacy"));
+    }
+
+    @Test
+    public void testMissing() throws Exception {
+        Assert.assertNull(INITIALIZE.call(new Object(), "test"));
+    }
+
+    @Test
+    public void testStatic() throws Exception {
+        Assert.assertEquals("static test", INITIALIZE.call(new Static(), "test"));
+        Assert.assertNull(SHUTDOWN.call(new Static(), "test"));
+        Assert.assertTrue(Static.shutdown);
+    }
+
+    @Test(expected = InvocationTargetException.class)
+    public void testException() throws Exception {
+        INITIALIZE.call(new Throwing(), "test");
+    }
+
+
+    private static class WithParameter {
+
+        @Initialize
+        private String init(String value) {
+            return "with " + value;
+        }
+
+        @Shutdown
+        private String shutdown() {
+            return "without";
+        }
+
+    }
+
+    private static class Static {
+        private static volatile boolean shutdown;
+
+
+        @Initialize
+        private static String init(String value) {
+            return "static " + value;
+        }
+
+        @Shutdown
+        private static void shutdown() {
+            shutdown = true;
+        }
+
+    }
+
+    private static class Throwing {
+
+        @Initialize
+        private void init() {
+            throw new IllegalStateException("Nope");
+        }
+
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.ModuleTest;
+import net.mountainblade.modular.VersionTest;
+import net.mountainblade.modular.examples.Example2Module;
+import net.mountainblade.modular.examples.Example2ModuleImpl;
+import net.mountainblade.modular.examples.ExampleModule;
+import net.mountainblade.modular.junit.TestClasses;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+@RunWith(JUnit4.class)
+public class ClassFileScannerTest {
+
+    @Test
+    public void testHeader() throws Exception {
+        final ClassFileScanner scanner = new ClassFileScanner(getClass().getClassLoader());
+        final ClassFileScanner.ClassInfo info = scanner.getClassInfo(Example2ModuleImpl.class.getName());
+
+        Assert.assertNotNull("Could not read class header", info);
+        Assert.assertEquals(ClassFileScanner.internalName(Example2ModuleImpl.class.getName()), info.getName());
+        Assert.assertEquals("java/lang/Object", info.getSuperName());
+        Assert.assertEquals(Arrays.asList(ClassFileScanner.internalName(Example2Module.class.getName())),
+                Arrays.asList(info.getInterfaces()));
+        Assert.assertTrue(info.isImplementation());
+        Assert.assertNull(info.getModule());
+    }
+
+    @Test
+    public void testCandidates() throws Exception {
+        final ClassFileScanner scanner = new ClassFileScanner(getClass().getClassLoader());
+
+        Assert.assertTrue(scanner.isCandidate(ExampleModule.class.getName()));
+        Assert.assertTrue(scanner.isCandidate(Example2ModuleImpl.class.getName()));
+        Assert.assertTrue(scanner.isCandidate(ModuleTest.Example3Module.class.getName()));
+
+        Assert.assertFalse("Interfaces cannot be modules", scanner.isCandidate(Example2Module.class.getName()));
+        Assert.assertFalse("Annotations cannot be modules", scanner.isCandidate(ModuleTest.ItsAKeeper.class.getName()));
+        Assert.assertFalse(scanner.isCandidate(VersionTest.class.getName()));
+
+        // We cannot tell anything about classes that do not exist, so the realm needs to decide
+        Assert.assertTrue(scanner.isCandidate("net.mountainblade.modular.DoesNotExist"));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        final File folder = Files.createTempDirectory("modular-scanner").toFile();
+        final File classes = new File(folder, "classes");
+        final File build = new File(folder, "build.jar");
+        final File jar = new File(folder, "changing.jar");
+
+        try {
+            final ClassFileScanner scanner = new ClassFileScanner(getClass().getClassLoader());
+
+            TestClasses.compile(classes, Collections.singletonMap("net.changing.Thing",
+                    "package net.changing; public class Thing {}"));
+            TestClasses.jar(jar, classes);
+
+            scanner.index(jar.toURI(), Collections.singletonList("net.changing.Thing"));
+            Assert.assertFalse(scanner.isCandidate("net.changing.Thing"));
+
+            // Once the class turns into a module, the headers we already know are outdated ...
+            TestClasses.delete(classes);
+            TestClasses.compile(classes, Collections.singletonMap("net.changing.Thing",
+                    "package net.changing; public class Thing implements net.mountainblade.modular.Module {}"));
+            TestClasses.jar(build, classes);
+            Files.move(build.toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            scanner.index(jar.toURI(), Collections.singletonList("net.changing.Thing"));
+            Assert.assertFalse(scanner.isCandidate("net.changing.Thing"));
+
+            // ... until they get thrown away
+            scanner.invalidate(jar);
+            scanner.index(jar.toURI(), Collections.singletonList("net.changing.Thing"));
+            Assert.assertTrue(scanner.isCandidate("net.changing.Thing"));
+
+        } finally {
+            TestClasses.delete(folder);
+        }
+    }
+
+}
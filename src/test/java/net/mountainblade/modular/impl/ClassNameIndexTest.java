@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.set.hash.THashSet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ClassNameIndexTest {
+    private static final List<String> CLASS_NAMES = Arrays.asList("Default", "net.Root", "net.a.Alpha", "net.a.Beta",
+            "net.a.b.Gamma", "net.ab.Delta", "net.a.Alphabet", "org.Other", "net.a.Beta");
+
+
+    @Test
+    public void testContents() throws Exception {
+        final ClassNameIndex index = new ClassNameIndex(CLASS_NAMES);
+
+        Assert.assertEquals(new THashSet<>(CLASS_NAMES).size(), index.size());
+        Assert.assertEquals(new THashSet<>(CLASS_NAMES), new THashSet<>(index));
+
+        for (String className : CLASS_NAMES) {
+            Assert.assertTrue(index.contains(className));
+        }
+
+        Assert.assertFalse(index.contains("net.a.Alph"));
+        Assert.assertFalse(index.contains("net.b.Alpha"));
+    }
+
+    @Test
+    public void testPrefix() throws Exception {
+        final ClassNameIndex index = new ClassNameIndex(CLASS_NAMES);
+
+        // Needs to behave exactly like String#startsWith
+        for (String prefix : Arrays.asList("", "n", "net", "net.", "net.a", "net.a.", "net.a.Al", "net.a.b.", "D",
+                "org.Other", "net.a.Betamax", "net/a")) {
+            final Collection<String> expected = new THashSet<>();
+            for (String className : CLASS_NAMES) {
+                if (className.startsWith(prefix)) {
+                    expected.add(className);
+                }
+            }
+
+            final List<String> result = index.withPrefix(prefix);
+            Assert.assertEquals(prefix, expected.size(), result.size());
+            Assert.assertEquals(prefix, expected, new THashSet<>(result));
+        }
+    }
+
+}
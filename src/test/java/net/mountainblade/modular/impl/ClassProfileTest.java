@@ -0,0 +1,251 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.map.hash.THashMap;
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.annotations.Implementation;
+import net.mountainblade.modular.junit.TestClasses;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class ClassProfileTest {
+    private static final String MODULE = "net.mountainblade.modular.demo.JarModule";
+    private static final String PROFILED = "net.profiled.ProfiledModule";
+    private static final String PROFILED_HELPER = "net.profiled.Helper";
+    private static final String PROFILED_OTHER = "net.profiled.Other";
+
+
+    @Test
+    public void testRecordAndPreload() throws Exception {
+        final URL resource = getClass().getResource("/modular-demo-1.0-SNAPSHOT.jar");
+        Assert.assertNotNull("couldn't find jar, be sure to run \"mvn package\" on the demo project first", resource);
+
+        final File file = File.createTempFile("modular", ".profile");
+        Assert.assertTrue(file.delete());
+
+        try {
+            // Record a class the realm defines itself, as if a module's initialize method loaded it
+            final ClassProfile profile = new ClassProfile(file);
+            final BaseModuleManager manager = new DefaultModuleManager();
+            manager.getLoader().getRealm().addURL(resource);
+            profile.install(manager.getLoader());
+
+            final Collection<String> previous = profile.startRecording();
+            Class.forName(MODULE, false, manager.getLoader().getRealm());
+            profile.stopRecording(TestModule.class.getName(), previous);
+            profile.save();
+            manager.shutdown();
+
+            // Read it back in, as if we just restarted
+            final ClassProfile restarted = new ClassProfile(file);
+            Assert.assertEquals(Collections.singletonList(MODULE), restarted.get(TestModule.class.getName()));
+
+            final ModuleLoader.ClassEntry entry = new ModuleLoader.ClassEntry(TestModule.class, TestModule.class,
+                    TestModule.class.getAnnotation(Implementation.class), null, null);
+
+            final ClassProfile.Preload preload = restarted.preload(Collections.singletonList(entry));
+            Assert.assertNotNull(preload);
+            preload.await();
+
+            // The test classes cannot see the demo module, so it gets dropped from the profile
+            Assert.assertTrue(restarted.get(TestModule.class.getName()).isEmpty());
+
+        } finally {
+            Assert.assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void testPreloadWhileLoading() throws Exception {
+        final File folder = Files.createTempDirectory("modular-profiled").toFile();
+        final File jar = new File(folder, "profiled.jar");
+        final File file = new File(folder, "classes.profile");
+
+        BaseModuleManager manager = null;
+
+        try {
+            // Profile the helper for the module, as if it had been loaded during its initialization before
+            compileProfiled(folder, jar);
+            record(file, jar, PROFILED, PROFILED_HELPER);
+
+            // Loading the module should preload the helper into the new realm, then cancel the preload
+            BaseModuleManager.enableClassProfiles(file);
+            final ClassProfile profile = BaseModuleManager.getClassProfile();
+
+            manager = new DefaultModuleManager();
+            Assert.assertEquals(1, manager.loadModules(jar).size());
+
+            // Classes the realm has already loaded do not go through it again, so they do not get recorded
+            final Collection<String> probing = profile.startRecording();
+            Class.forName(PROFILED_HELPER, false, manager.getLoader().getRealm());
+            Class.forName(PROFILED_OTHER, false, manager.getLoader().getRealm());
+            profile.stopRecording("probe", probing);
+
+            Assert.assertEquals(Collections.singletonList(PROFILED_OTHER), profile.get("probe"));
+
+        } finally {
+            BaseModuleManager.enableClassProfiles(null);
+
+            if (manager != null) {
+                manager.shutdown();
+            }
+
+            TestClasses.delete(folder);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testCancel() throws Exception {
+        final File folder = Files.createTempDirectory("modular-profiled").toFile();
+        final File jar = new File(folder, "profiled.jar");
+        final File file = new File(folder, "classes.profile");
+
+        try {
+            // Profile a class for each preload thread and one more that should never be asked for
+            compileProfiled(folder, jar);
+            record(file, jar, TestModule.class.getName(), PROFILED_HELPER, PROFILED_OTHER, PROFILED);
+
+            final BlockingClassLoader classLoader = new BlockingClassLoader();
+            final Class<? extends Module> module = classLoader.defineTestModule();
+            final ModuleLoader.ClassEntry entry = new ModuleLoader.ClassEntry(module, module,
+                    module.getAnnotation(Implementation.class), null, null);
+
+            final ClassProfile.Preload preload = new ClassProfile(file).preload(Collections.singletonList(entry));
+            Assert.assertNotNull(preload);
+
+            Assert.assertTrue(classLoader.started.await(5, TimeUnit.SECONDS));
+            preload.cancel();
+            classLoader.release.countDown();
+            preload.await();
+
+            Assert.assertEquals(2, classLoader.requested.get());
+
+        } finally {
+            TestClasses.delete(folder);
+        }
+    }
+
+    private static void compileProfiled(File folder, File jar) throws IOException {
+        // The module waits for the preload, so the helper is always loaded by the time the load gets cancelled
+        final Map<String, String> sources = new THashMap<>();
+        sources.put(PROFILED, "package net.profiled; @net.mountainblade.modular.annotations.Implementation " +
+                "public class ProfiledModule implements net.mountainblade.modular.Module { " +
+                "@net.mountainblade.modular.annotations.Initialize public void initialize() throws Exception { " +
+                "for (Thread thread : Thread.getAllStackTraces().keySet()) { " +
+                "if (thread.getName().startsWith(\"modular-preload-\")) thread.join(); } } }");
+        sources.put(PROFILED_HELPER, "package net.profiled; public class Helper {}");
+        sources.put(PROFILED_OTHER, "package net.profiled; public class Other {}");
+
+        final File classes = new File(folder, "classes");
+        TestClasses.compile(classes, sources);
+        TestClasses.jar(jar, classes);
+    }
+
+    private static void record(File file, File jar, String module, String... classNames) throws Exception {
+        final ClassProfile profile = new ClassProfile(file);
+        final BaseModuleManager manager = new DefaultModuleManager();
+        manager.getLoader().getRealm().addURL(jar.toURI().toURL());
+        profile.install(manager.getLoader());
+
+        final Collection<String> previous = profile.startRecording();
+        for (String className : classNames) {
+            Class.forName(className, false, manager.getLoader().getRealm());
+        }
+
+        profile.stopRecording(module, previous);
+        profile.save();
+        manager.shutdown();
+    }
+
+
+    @Implementation
+    public static class TestModule implements Module {
+    }
+
+    /**
+     * Defines its own copy of the test module and blocks every request for one of the profiled classes, until it gets
+     * released.
+     */
+    private static final class BlockingClassLoader extends ClassLoader {
+        private final CountDownLatch started = new CountDownLatch(2);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger requested = new AtomicInteger();
+
+        static {
+            // Otherwise the preload threads would have to wait for each other
+            registerAsParallelCapable();
+        }
+
+
+        BlockingClassLoader() {
+            super(ClassProfileTest.class.getClassLoader());
+        }
+
+        Class<? extends Module> defineTestModule() throws IOException {
+            final String name = TestModule.class.getName();
+
+            try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+
+                for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                    out.write(buffer, 0, read);
+                }
+
+                final byte[] bytes = out.toByteArray();
+                return defineClass(name, bytes, 0, bytes.length).asSubclass(Module.class);
+            }
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith("net.profiled.")) {
+                return super.loadClass(name, resolve);
+            }
+
+            requested.incrementAndGet();
+            started.countDown();
+
+            try {
+                release.await();
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            throw new ClassNotFoundException(name);
+        }
+
+    }
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ClassRecorderTest {
+
+    @Test
+    public void testClassList() throws Exception {
+        final URL resource = getClass().getResource("/modular-demo-1.0-SNAPSHOT.jar");
+        Assert.assertNotNull("couldn't find jar, be sure to run \"mvn package\" on the demo project first", resource);
+
+        final File jar = new File(resource.toURI());
+        final File classList = File.createTempFile("modular", ".classlist");
+        final ClassRecorder recorder = new ClassRecorder(classList);
+
+        try {
+            BaseModuleManager.enableClassList(classList);
+
+            final BaseModuleManager manager = new DefaultModuleManager();
+            Assert.assertEquals(1, manager.loadModules(jar).size());
+            manager.shutdown();
+
+            // Nothing gets written until we ask for it (or the JVM shuts down)
+            Assert.assertEquals(0, classList.length());
+            BaseModuleManager.saveClassList();
+
+            // The module comes from the realm, so it needs to reference its super class and interfaces by ID
+            final List<String> lines = Files.readAllLines(classList.toPath(), StandardCharsets.UTF_8);
+            Assert.assertTrue(lines.contains("java/lang/Object id: 0"));
+            Assert.assertTrue(lines.contains("net/mountainblade/modular/Module id: 1"));
+            Assert.assertTrue(lines.contains("net/mountainblade/modular/demo/JarModule id: 2 super: 0 interfaces: 1 "
+                    + "source: " + jar.getAbsolutePath()));
+
+            final List<String> jars = Files.readAllLines(recorder.getJarsFile().toPath(), StandardCharsets.UTF_8);
+            Assert.assertTrue(jars.contains(jar.getAbsolutePath()));
+
+        } finally {
+            BaseModuleManager.enableClassList(null);
+            Assert.assertTrue(classList.delete());
+            Assert.assertTrue(recorder.getJarsFile().delete());
+        }
+    }
+
+    @Test
+    public void testRealmCollected() throws Exception {
+        final URL resource = getClass().getResource("/modular-demo-1.0-SNAPSHOT.jar");
+        Assert.assertNotNull("couldn't find jar, be sure to run \"mvn package\" on the demo project first", resource);
+
+        final File classList = File.createTempFile("modular", ".classlist");
+        final ClassRecorder recorder = new ClassRecorder(classList);
+
+        try {
+            BaseModuleManager.enableClassList(classList);
+
+            final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<>();
+            final WeakReference<ClassLoader> realm = loadAndShutdown(new File(resource.toURI()), queue);
+
+            // Recording must not keep the classes (and thus the realm) alive
+            for (int i = 0; i < 50 && realm.get() != null; i++) {
+                System.gc();
+                queue.remove(100);
+            }
+
+            Assert.assertNull("Class realm has not been garbage collected", realm.get());
+
+            // And the class list can still be written afterwards
+            BaseModuleManager.saveClassList();
+            Assert.assertTrue(Files.readAllLines(classList.toPath(), StandardCharsets.UTF_8)
+                    .contains("net/mountainblade/modular/Module id: 1"));
+
+        } finally {
+            BaseModuleManager.enableClassList(null);
+            Assert.assertTrue(classList.delete());
+            Assert.assertTrue(recorder.getJarsFile().delete());
+        }
+    }
+
+    private WeakReference<ClassLoader> loadAndShutdown(File jar, ReferenceQueue<ClassLoader> queue) {
+        final BaseModuleManager manager = new DefaultModuleManager();
+        Assert.assertEquals(1, manager.loadModules(jar).size());
+        manager.shutdown();
+
+        return new WeakReference<ClassLoader>(manager.getLoader().getRealm(), queue);
+    }
+
+}
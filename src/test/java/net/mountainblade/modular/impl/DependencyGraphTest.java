@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+@RunWith(JUnit4.class)
+public class DependencyGraphTest {
+
+    @Test
+    public void testStableOrder() throws DependencyGraph.CycleException {
+        final DependencyGraph<String> graph = new DependencyGraph<>();
+        graph.add("3");
+        graph.addEdge("1", "3");
+        graph.addEdge("2", "3");
+        graph.addEdge("3", "After");
+        graph.addEdge("Dependency", "1");
+
+        // Nodes without dependencies keep the order they have been added in
+        Assert.assertEquals(Arrays.asList("2", "Dependency", "1", "3", "After"), graph.sortElements());
+
+        // Sorting does not change the graph, so we can continue adding to it
+        graph.addEdge("After", "Last");
+        graph.add("Unimportant");
+
+        Assert.assertEquals(7, graph.size());
+        Assert.assertEquals(5, graph.edges());
+        Assert.assertEquals(Arrays.asList("2", "Dependency", "Unimportant", "1", "3", "After", "Last"),
+                graph.sortElements());
+    }
+
+    @Test
+    public void testLarge() throws DependencyGraph.CycleException {
+        final int size = 50000;
+        final DependencyGraph<Integer> graph = new DependencyGraph<>(size);
+
+        // Every node depends on the next one, so the order needs to be reversed
+        for (int i = 0; i < size; i++) {
+            graph.add(i);
+        }
+
+        for (int i = 1; i < size; i++) {
+            graph.addEdge(i, i - 1);
+        }
+
+        final int[] order = graph.sort();
+        Assert.assertEquals(size, order.length);
+
+        for (int i = 0; i < size; i++) {
+            Assert.assertEquals(size - 1 - i, order[i]);
+        }
+    }
+
+    @Test(expected = DependencyGraph.CycleException.class)
+    public void testCycle() throws DependencyGraph.CycleException {
+        final DependencyGraph<String> graph = new DependencyGraph<>();
+        graph.addEdge("3", "1");
+        graph.addEdge("1", "3");
+        graph.addEdge("2", "1");
+        graph.addEdge("2", "3");
+
+        graph.sort();
+    }
+
+}
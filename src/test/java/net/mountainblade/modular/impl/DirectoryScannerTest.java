@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.examples.ExampleModule;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+
+@RunWith(JUnit4.class)
+public class DirectoryScannerTest {
+
+    @Test
+    public void testScan() throws Exception {
+        final URI root = getClass().getResource("/").toURI();
+        final String packageName = ExampleModule.class.getPackage().getName().replace('.', File.separatorChar);
+
+        final DirectoryScanner scanner = new DirectoryScanner(Collections.singleton(root),
+                Collections.<String>emptySet());
+        final DirectoryScanner.Result result = scanner.scan(new File(root), packageName);
+
+        // Everything has to be relative to the classpath root and within the package
+        final Collection<String> classNames = result.getClasses().get(root);
+        Assert.assertNotNull(classNames);
+        Assert.assertTrue(classNames.contains(ExampleModule.class.getName()));
+        Assert.assertFalse(classNames.contains(getClass().getName()));
+        Assert.assertEquals(classNames.size(), result.getList().size());
+
+        // Walking the same tree again needs to give us the very same order
+        Assert.assertEquals(result.getList(), scanner.scan(new File(root), packageName).getList());
+    }
+
+}
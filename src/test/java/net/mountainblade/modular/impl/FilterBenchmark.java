@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.THashSet;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures how the filter phase scales with the number of classes.
+ *
+ * <p>Generates (and compiles) the given numbers of classes, one in ten being a module, every second module extending
+ * the previous one. Every size gets measured sequentially and with a discovery executor. Run it with the class counts
+ * as arguments, the default is 1000, 2000, 4000 and 8000.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+public class FilterBenchmark {
+    private static final String PACKAGE = "bench";
+    private static final int RUNS = 5;
+
+
+    public static void main(String[] args) throws Exception {
+        final List<String> sizes = args.length > 0 ?
+                Arrays.asList(args) : Arrays.asList("1000", "2000", "4000", "8000");
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        System.out.println("classes\tmodules\tfilter (ms)\tparallel (ms)");
+
+        for (String size : sizes) {
+            final int classes = Integer.parseInt(size);
+            final File folder = Files.createTempDirectory("modular-bench").toFile();
+
+            try {
+                final Collection<String> classNames = generate(folder, classes);
+                final URI root = new File(folder, "classes").toURI();
+                System.out.println(classes + "\t" + (classes / 10) + "\t" + measure(root, classNames, null) + "\t\t" +
+                        measure(root, classNames, executor));
+
+            } finally {
+                delete(folder.toPath());
+            }
+        }
+
+        executor.shutdown();
+    }
+
+    private static long measure(URI uri, Collection<String> classNames, ExecutorService executor) throws Exception {
+        long best = Long.MAX_VALUE;
+
+        for (int i = 0; i < RUNS; i++) {
+            // Use a new manager each time, so nothing has been loaded or cached yet
+            final DefaultModuleManager manager = new DefaultModuleManager();
+            manager.getLoader().getRealm().addURL(uri.toURL());
+            manager.setDiscoveryExecutor(executor);
+
+            final Map<URI, Collection<String>> map = new THashMap<>();
+            map.put(uri, classNames);
+
+            final long start = System.nanoTime();
+            manager.getLoader().filter(manager, map, new THashSet<>(classNames));
+            best = Math.min(best, (System.nanoTime() - start) / 1000000);
+
+            manager.shutdown();
+        }
+
+        return best;
+    }
+
+    private static Collection<String> generate(File folder, int classes) throws IOException {
+        final File source = new File(folder, "src/" + PACKAGE);
+        final File target = new File(folder, "classes");
+
+        if (!source.mkdirs() || !target.mkdirs()) {
+            throw new IOException("Could not create folders in " + folder);
+        }
+
+        final Collection<String> classNames = new LinkedList<>();
+        final Collection<File> files = new LinkedList<>();
+
+        for (int i = 0; i < classes; i++) {
+            final String name = (i % 10 == 0 ? "Module" : "Plain") + i;
+            final File file = new File(source, name + ".java");
+
+            try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+                writer.println("package " + PACKAGE + ";");
+
+                if (i % 10 != 0) {
+                    writer.println("public class " + name + " {}");
+
+                } else if (i % 20 == 10) {
+                    writer.println("@net.mountainblade.modular.annotations.Implementation");
+                    writer.println("public class " + name + " extends Module" + (i - 10) + " {}");
+
+                } else {
+                    writer.println("@net.mountainblade.modular.annotations.Implementation");
+                    writer.println("public class " + name + " implements net.mountainblade.modular.Module {}");
+                }
+            }
+
+            files.add(file);
+            classNames.add(PACKAGE + "." + name);
+        }
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            final boolean success = compiler.getTask(null, fileManager, null,
+                    Arrays.asList("-d", target.getPath(), "-cp", System.getProperty("java.class.path")), null,
+                    fileManager.getJavaFileObjectsFromFiles(files)).call();
+
+            if (!success) {
+                throw new IOException("Could not compile benchmark classes");
+            }
+        }
+
+        // We only need the compiled classes
+        delete(source.getParentFile().toPath());
+        return classNames;
+    }
+
+    private static void delete(Path path) throws IOException {
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
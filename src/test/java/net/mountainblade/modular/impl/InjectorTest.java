@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.annotations.Implementation;
+import net.mountainblade.modular.annotations.Inject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Collection;
+import java.util.logging.Logger;
+
+@RunWith(JUnit4.class)
+public class InjectorTest {
+    private BaseModuleManager manager;
+    private ModuleRegistry registry;
+    private Injector injector;
+
+
+    @Before
+    public void setUp() throws Exception {
+        // Use the generated accessors wherever possible, so the fallbacks have to prove themselves
+        BaseModuleManager.enableGeneratedAccessors(true);
+
+        manager = new DefaultModuleManager();
+        registry = manager.getRegistry();
+        injector = manager.getInjector();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BaseModuleManager.enableGeneratedAccessors(false);
+        manager.shutdown();
+    }
+
+    @Test
+    public void testCachedPlan() throws Exception {
+        final Dependency dependency = new Dependency();
+        registry.addGhostModule(Dependency.class, dependency, new MavenModuleInformation());
+
+        final Collection<Injector.Entry> entries = injector.discover(Dependent.class);
+        Assert.assertEquals(2, entries.size());
+        Assert.assertSame("Plan has not been cached", entries, injector.discover(Dependent.class));
+
+        // The same plan injects every instance on its own
+        final Dependent first = new Dependent();
+        final Dependent second = new Dependent();
+        injector.inject(new ModuleRegistry.Entry(null, Dependent.class), first, manager.getLoader());
+        injector.inject(new ModuleRegistry.Entry(null, Dependent.class), second, manager.getLoader());
+
+        Assert.assertSame(dependency, first.dependency);
+        Assert.assertSame(dependency, second.dependency);
+        Assert.assertNotNull(first.logger);
+        Assert.assertNotNull(second.logger);
+        Assert.assertSame(entries, injector.discover(Dependent.class));
+    }
+
+    @Test
+    public void testInheritedPrivateField() throws Exception {
+        final Dependency dependency = new Dependency();
+        registry.addGhostModule(Dependency.class, dependency, new MavenModuleInformation());
+
+        // The accessor of the implementation cannot reach the private field of its super class
+        final Child child = new Child();
+        injector.inject(new ModuleRegistry.Entry(null, Child.class), child, manager.getLoader());
+
+        Assert.assertSame(dependency, child.getInherited());
+        Assert.assertSame(dependency, child.own);
+    }
+
+    @Test(expected = InjectFailedException.class)
+    public void testMissingDependency() throws Exception {
+        injector.inject(new ModuleRegistry.Entry(null, Dependent.class), new Dependent(), manager.getLoader());
+    }
+
+
+    @Implementation
+    public static class Dependency implements Module {
+    }
+
+    @Implementation
+    public static class Dependent implements Module {
+        @Inject
+        private Dependency dependency;
+
+        @Inject
+        private Logger logger;
+
+    }
+
+    public abstract static class Base implements Module {
+        @Inject
+        private Dependency inherited;
+
+
+        Dependency getInherited() {
+            return inherited;
+        }
+
+    }
+
+    @Implementation
+    public static class Child extends Base {
+        @Inject
+        Dependency own;
+
+    }
+
+}
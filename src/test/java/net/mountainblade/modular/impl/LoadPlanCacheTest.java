@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.map.hash.THashMap;
+import net.mountainblade.modular.Filter;
+import net.mountainblade.modular.Module;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class LoadPlanCacheTest {
+    private static final String MODULE = "net.mountainblade.modular.demo.JarModule";
+    private static final Filter[] NO_FILTERS = new Filter[0];
+
+
+    @Test
+    public void testPersistence() throws Exception {
+        final File plansFile = File.createTempFile("modular", ".plans");
+        final File jar = copyDemoJar();
+
+        try {
+            final URI uri = jar.toURI();
+            final Collection<URI> uris = Collections.singletonList(uri);
+
+            // Load once to create the plan
+            Assert.assertTrue(plansFile.delete());
+            BaseModuleManager.enableLoadPlans(plansFile);
+
+            final BaseModuleManager manager = new DefaultModuleManager();
+            Assert.assertEquals(1, manager.loadModules(uri, "net.").size());
+            manager.shutdown();
+
+            // Then read it back in, as if we just restarted
+            final LoadPlanCache.Plan plan = new LoadPlanCache(plansFile).get(uris, "net.", NO_FILTERS);
+            Assert.assertNotNull("Plan did not survive the restart", plan);
+
+            final BaseModuleManager restarted = new DefaultModuleManager();
+            restarted.getLoader().getRealm().addURL(uri.toURL());
+
+            final Map<ModuleLoader.ClassEntry, Collection<ModuleLoader.ClassEntry>> requirements = new THashMap<>();
+            final List<ModuleLoader.ClassEntry> order = plan.restore(restarted.getLoader(), requirements);
+            Assert.assertNotNull(order);
+            Assert.assertEquals(1, order.size());
+            Assert.assertEquals(MODULE, order.get(0).getImplementation().getName());
+
+            // Loading with the plan gives us the same modules
+            final Collection<Module> modules = restarted.loadModules(uri, "net.");
+            Assert.assertEquals(1, modules.size());
+            Assert.assertEquals(MODULE, modules.iterator().next().getClass().getName());
+            restarted.shutdown();
+
+            // Changing the file needs to invalidate the plan
+            Assert.assertTrue(jar.setLastModified(jar.lastModified() - 60000));
+            Assert.assertNull("Stale plan has been used", new LoadPlanCache(plansFile).get(uris, "net.", NO_FILTERS));
+
+        } finally {
+            BaseModuleManager.enableLoadPlans(null);
+            Assert.assertTrue(plansFile.delete());
+            Assert.assertTrue(jar.delete());
+        }
+    }
+
+    @Test
+    public void testFilters() throws Exception {
+        final File plansFile = File.createTempFile("modular", ".plans");
+        final File jar = copyDemoJar();
+
+        try {
+            final URI uri = jar.toURI();
+            final Collection<URI> uris = Collections.singletonList(uri);
+
+            Assert.assertTrue(plansFile.delete());
+            BaseModuleManager.enableLoadPlans(plansFile);
+
+            // Filters of the same kind, but configured differently, must not share their plans
+            final Filter modules = new Filter.InstanceOf(Module.class);
+            final Filter runnables = new Filter.InstanceOf(Runnable.class);
+
+            final BaseModuleManager first = new DefaultModuleManager();
+            Assert.assertEquals(1, first.loadModules(uri, "net.", modules).size());
+            first.shutdown();
+
+            final BaseModuleManager second = new DefaultModuleManager();
+            Assert.assertEquals(0, second.loadModules(uri, "net.", runnables).size());
+            second.shutdown();
+
+            final LoadPlanCache cache = new LoadPlanCache(plansFile);
+            final LoadPlanCache.Plan modulesPlan = cache.get(uris, "net.", new Filter[]{modules});
+            final LoadPlanCache.Plan runnablesPlan = cache.get(uris, "net.", new Filter[]{runnables});
+            Assert.assertNotNull(modulesPlan);
+            Assert.assertNotNull(runnablesPlan);
+            Assert.assertNotSame(modulesPlan, runnablesPlan);
+
+            // The same configuration gets the same plan though
+            Assert.assertSame(modulesPlan, cache.get(uris, "net.", new Filter[]{new Filter.InstanceOf(Module.class)}));
+
+            // Other filters could decide differently every time, so they do not get any plans at all
+            final Filter custom = new Filter() {
+                @Override
+                public boolean retain(ModuleLoader.ClassEntry candidate) {
+                    return true;
+                }
+            };
+
+            final BaseModuleManager third = new DefaultModuleManager();
+            Assert.assertEquals(1, third.loadModules(uri, "net.", custom).size());
+            third.shutdown();
+
+            Assert.assertNull(new LoadPlanCache(plansFile).get(uris, "net.", new Filter[]{custom}));
+
+        } finally {
+            BaseModuleManager.enableLoadPlans(null);
+            Assert.assertTrue(plansFile.delete());
+            Assert.assertTrue(jar.delete());
+        }
+    }
+
+    private File copyDemoJar() throws Exception {
+        final URL resource = getClass().getResource("/modular-demo-1.0-SNAPSHOT.jar");
+        Assert.assertNotNull("couldn't find jar, be sure to run \"mvn package\" on the demo project first", resource);
+
+        final File jar = File.createTempFile("modular-demo", ".jar");
+        Files.copy(new File(resource.toURI()).toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return jar;
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.THashSet;
+import net.mountainblade.modular.junit.TestClasses;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class ModuleLoaderTest {
+
+    @Test
+    public void testFalseCandidate() throws Exception {
+        final File classes = Files.createTempDirectory("modular-classes").toFile();
+        final File jar = File.createTempFile("modular-candidate", ".jar");
+
+        try {
+            // The super class does not make it into the JAR, so the header cannot tell whether this is a module
+            final Map<String, String> sources = new THashMap<>();
+            sources.put("missing.Base", "package missing; public class Base {}");
+            sources.put("other.Thing", "package other; public class Thing extends missing.Base {}");
+
+            TestClasses.compile(classes, sources);
+            Assert.assertTrue(new File(classes, "missing/Base.class").delete());
+            TestClasses.jar(jar, classes);
+
+            final URI uri = jar.toURI();
+            final BaseModuleManager manager = new DefaultModuleManager();
+            manager.getLoader().getRealm().addURL(uri.toURL());
+
+            // The class is outside of the requested package, but it still needs to load as a module to count
+            final Map<URI, Collection<String>> classNames = new THashMap<>();
+            classNames.put(uri, Collections.singletonList("other.Thing"));
+
+            Assert.assertTrue(manager.getLoader().filter(manager, classNames, new THashSet<String>()).isEmpty());
+            Assert.assertTrue("Location without modules has not been blacklisted", BaseModuleManager.isBlacklisted(uri));
+            manager.shutdown();
+
+        } finally {
+            TestClasses.delete(classes);
+            Assert.assertTrue(jar.delete());
+        }
+    }
+
+}
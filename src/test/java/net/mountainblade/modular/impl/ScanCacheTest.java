@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.map.hash.THashMap;
+import net.mountainblade.modular.junit.TestClasses;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class ScanCacheTest {
+    private static final String MODULE = "net.mountainblade.modular.demo.JarModule";
+
+
+    @Test
+    public void testPersistence() throws Exception {
+        final File cacheFile = File.createTempFile("modular", ".cache");
+        final File jar = copyDemoJar();
+
+        try {
+            final URI uri = jar.toURI();
+
+            // Fill a fresh cache and write it to disk
+            final ScanCache cache = new ScanCache(cacheFile);
+            Assert.assertNull(cache.get(uri));
+
+            final BaseModuleManager manager = new DefaultModuleManager();
+            BaseModuleManager.enableScanCache(cacheFile);
+            Assert.assertEquals(1, manager.loadModules(uri, "net.").size());
+            BaseModuleManager.enableScanCache(null);
+            manager.shutdown();
+
+            // Then read it back in, as if we just restarted
+            final ScanCache.Entry entry = new ScanCache(cacheFile).get(uri);
+            Assert.assertNotNull("Entry did not survive the restart", entry);
+            Assert.assertTrue(entry.getClassNames().contains(MODULE));
+            Assert.assertEquals(Boolean.TRUE, entry.isCandidate(MODULE));
+
+            // Changing the file needs to invalidate the entry, even if it has been used before
+            final ScanCache restarted = new ScanCache(cacheFile);
+            Assert.assertNotNull(restarted.get(uri));
+
+            Assert.assertTrue(jar.setLastModified(jar.lastModified() - 60000));
+            Assert.assertNull("Stale entry has been used", restarted.get(uri));
+            Assert.assertNull("Stale entry has been used", new ScanCache(cacheFile).get(uri));
+
+        } finally {
+            Assert.assertTrue(cacheFile.delete());
+            Assert.assertTrue(jar.delete());
+        }
+    }
+
+    @Test
+    public void testDependencies() throws Exception {
+        final File cacheFile = File.createTempFile("modular", ".cache");
+        final File classes = Files.createTempDirectory("modular-classes").toFile();
+        final File base = File.createTempFile("modular-base", ".jar");
+        final File plugin = File.createTempFile("modular-plugin", ".jar");
+
+        try {
+            // The plugin extends a class of another archive, which is no module (yet)
+            final Map<String, String> sources = new THashMap<>();
+            sources.put("base.Base", "package base; public abstract class Base {}");
+            sources.put("plugin.Thing", "package plugin; public class Thing extends base.Base {}");
+            TestClasses.compile(classes, sources);
+
+            // Both classes need to end up in separate archives
+            final File pluginClasses = Files.createTempDirectory("modular-classes").toFile();
+            Files.move(new File(classes, "plugin").toPath(), new File(pluginClasses, "plugin").toPath());
+
+            TestClasses.jar(base, classes);
+            TestClasses.jar(plugin, pluginClasses);
+            TestClasses.delete(pluginClasses);
+
+            final URI uri = plugin.toURI();
+            final Collection<String> classNames = Collections.singletonList("plugin.Thing");
+
+            final ScanCache cache = new ScanCache(cacheFile);
+            cache.put(uri, classNames);
+
+            try (URLClassLoader loader = new URLClassLoader(new URL[]{base.toURI().toURL(), uri.toURL()})) {
+                final ClassFileScanner scanner = new ClassFileScanner(loader);
+                scanner.index(uri, classNames);
+                Assert.assertFalse(scanner.isCandidate("plugin.Thing"));
+
+                cache.get(uri).setCandidate("plugin.Thing", false, scanner.getSources("plugin.Thing"));
+                cache.save();
+            }
+
+            Assert.assertEquals(Boolean.FALSE, new ScanCache(cacheFile).get(uri).isCandidate("plugin.Thing"));
+
+            // Once the other archive turns its class into a module, the plugin needs to be checked again
+            TestClasses.compile(classes, Collections.singletonMap("base.Base",
+                    "package base; public abstract class Base implements net.mountainblade.modular.Module {}"));
+            TestClasses.jar(base, classes);
+            Assert.assertTrue(base.setLastModified(base.lastModified() + 60000));
+
+            Assert.assertNull("Outdated result has been used", cache.get(uri).isCandidate("plugin.Thing"));
+            cache.save();
+
+            final ScanCache.Entry entry = new ScanCache(cacheFile).get(uri);
+            Assert.assertNull("Outdated result has been used", entry.isCandidate("plugin.Thing"));
+
+        } finally {
+            TestClasses.delete(classes);
+            Assert.assertTrue(cacheFile.delete());
+            Assert.assertTrue(base.delete());
+            Assert.assertTrue(plugin.delete());
+        }
+    }
+
+    private File copyDemoJar() throws Exception {
+        final URL resource = getClass().getResource("/modular-demo-1.0-SNAPSHOT.jar");
+        Assert.assertNotNull("couldn't find jar, be sure to run \"mvn package\" on the demo project first", resource);
+
+        final File jar = File.createTempFile("modular-demo", ".jar");
+        Files.copy(new File(resource.toURI()).toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return jar;
+    }
+
+}
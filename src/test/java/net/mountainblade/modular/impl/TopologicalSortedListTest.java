@@ -23,6 +23,7 @@ import org.junit.runners.JUnit4;
 import java.util.Arrays;
 
 @RunWith(JUnit4.class)
+@SuppressWarnings("deprecation")
 public class TopologicalSortedListTest extends TopologicalSortedList<String> {
 
     @Test
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+@RunWith(JUnit4.class)
+public class ZipDirectoryTest {
+
+    @Test
+    public void testEntries() throws Exception {
+        final File jar = getDemoJar();
+        final ZipDirectory directory = ZipDirectory.read(jar);
+
+        // We need to see the very same entries as the JDK
+        final List<String> expected = new LinkedList<>();
+        try (ZipFile zip = new ZipFile(jar)) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                expected.add(entry.getName());
+            }
+        }
+
+        final List<String> names = new LinkedList<>();
+        for (int i = 0; i < directory.size(); i++) {
+            names.add(directory.getName(i));
+        }
+
+        Assert.assertEquals(expected, names);
+    }
+
+    @Test
+    public void testOpen() throws Exception {
+        final ZipDirectory directory = ZipDirectory.read(getDemoJar());
+        final int index = directory.indexOf(ModuleIndex.LOCATION);
+        Assert.assertTrue("Demo JAR has not been indexed", index >= 0);
+
+        try (InputStream stream = directory.open(index)) {
+            Assert.assertTrue(ModuleIndex.read(stream).contains("net.mountainblade.modular.demo.JarModule"));
+
+            // Closing frees the inflater, which must not break closing it again
+            stream.close();
+        }
+    }
+
+    private File getDemoJar() throws Exception {
+        final URL resource = getClass().getResource("/modular-demo-1.0-SNAPSHOT.jar");
+        Assert.assertNotNull("couldn't find jar, be sure to run \"mvn package\" on the demo project first", resource);
+        return new File(resource.toURI());
+    }
+
+}
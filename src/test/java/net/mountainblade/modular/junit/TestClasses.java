@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2014 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.junit;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Represents a helper to compile test classes on the fly and to package them as JAR files.
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+public final class TestClasses {
+
+    private TestClasses() {
+    }
+
+    /**
+     * Compiles the given sources (against the test class path) into the given folder.
+     *
+     * @param target     The folder to put the classes into
+     * @param sources    The sources, by their fully qualified class names
+     * @param options    Additional compiler options
+     * @throws IOException when the sources could not be compiled
+     */
+    public static void compile(File target, Map<String, String> sources, String... options) throws IOException {
+        final File sourceFolder = Files.createTempDirectory("modular-sources").toFile();
+        final List<File> files = new ArrayList<>();
+
+        try {
+            for (Map.Entry<String, String> entry : sources.entrySet()) {
+                final File file = new File(sourceFolder, entry.getKey().replace('.', '/') + ".java");
+                Files.createDirectories(file.getParentFile().toPath());
+                Files.write(file.toPath(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+
+                files.add(file);
+            }
+
+            final List<String> arguments = new ArrayList<>(Arrays.asList("-d", target.getPath(),
+                    "-cp", System.getProperty("java.class.path") + File.pathSeparator + target.getPath()));
+            arguments.addAll(Arrays.asList(options));
+
+            final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+                Files.createDirectories(target.toPath());
+
+                if (!compiler.getTask(null, fileManager, null, arguments, null,
+                        fileManager.getJavaFileObjectsFromFiles(files)).call()) {
+                    throw new IOException("Could not compile test classes: " + sources.keySet());
+                }
+            }
+
+        } finally {
+            delete(sourceFolder);
+        }
+    }
+
+    /**
+     * Packages the contents of the given folder as a JAR file.
+     *
+     * @param jar        The JAR file to write
+     * @param folder     The folder to package
+     * @throws IOException when the JAR file could not be written
+     */
+    public static void jar(File jar, File folder) throws IOException {
+        final Path root = folder.toPath();
+
+        try (final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    out.putNextEntry(new ZipEntry(root.relativize(file).toString().replace(File.separatorChar, '/')));
+                    out.write(Files.readAllBytes(file));
+                    out.closeEntry();
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    /**
+     * Deletes the given file or folder, including everything in it.
+     *
+     * @param file    The file or folder
+     * @throws IOException when something could not be deleted
+     */
+    public static void delete(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}